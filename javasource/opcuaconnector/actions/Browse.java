@@ -11,7 +11,6 @@ package opcuaconnector.actions;
 
 import static java.util.Objects.requireNonNull;
 import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
-import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.stack.core.Identifiers;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
@@ -25,6 +24,7 @@ import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.webui.CustomJavaAction;
 import opcuaconnector.impl.OpcViewServiceSet;
 import opcuaconnector.impl.ClientManager;
+import opcuaconnector.impl.ClientManager.Client;
 import opcuaconnector.impl.MxBrowseResponseFactory;
 import opcuaconnector.impl.MxLogger;
 import opcuaconnector.impl.OpcNode;
@@ -68,14 +68,13 @@ public class Browse extends CustomJavaAction<IMendixObject>
 			validateMxBrowseDescription();
 
 			// Create connected client
-			OpcUaClient opcClient = ClientManager.getInstance().getOrCreateClient(serverConfiguration, getContext())
-					.getUaClient();
+			Client client = ClientManager.getInstance().getOrCreateClient(serverConfiguration, getContext());
 
 			// Create opc request
 			BrowseDescription opcBrowseDescription = createOpcBrowseDescription(browseDescription);
 
 			// Do request
-			BrowseResult opcBrowseResult = new OpcViewServiceSet(opcClient).miloBrowse(opcBrowseDescription);
+			BrowseResult opcBrowseResult = new OpcViewServiceSet(client).miloBrowse(opcBrowseDescription);
 
 			// Convert to Mendix Objects
 			BrowseResponse mxBrowseResponse = new MxBrowseResponseFactory(opcBrowseResult, getContext())
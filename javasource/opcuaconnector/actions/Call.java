@@ -0,0 +1,164 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package opcuaconnector.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+import static java.util.Objects.requireNonNull;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallResponse;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.webui.CustomJavaAction;
+import opcuaconnector.impl.ClientManager;
+import opcuaconnector.impl.ClientManager.Client;
+import opcuaconnector.impl.OpcMethodServiceSet;
+import opcuaconnector.impl.OpcMethodServiceSet.MethodCall;
+import opcuaconnector.impl.OpcNode;
+import opcuaconnector.impl.VariantJsonEncoder;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+public class Call extends CustomJavaAction<java.lang.String>
+{
+	/** @deprecated use serverConfiguration.getMendixObject() instead. */
+	@java.lang.Deprecated(forRemoval = true)
+	private final IMendixObject __serverConfiguration;
+	private final opcuaconnector.proxies.ServerConfiguration serverConfiguration;
+	private final java.lang.String callMethodRequests;
+
+	public Call(
+		IContext context,
+		IMendixObject _serverConfiguration,
+		java.lang.String _callMethodRequests
+	)
+	{
+		super(context);
+		this.__serverConfiguration = _serverConfiguration;
+		this.serverConfiguration = _serverConfiguration == null ? null : opcuaconnector.proxies.ServerConfiguration.initialize(getContext(), _serverConfiguration);
+		this.callMethodRequests = _callMethodRequests;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		// Validation
+		List<MethodCall> methodCallList = getMethodCalls(callMethodRequests);
+
+		// Create connected client
+		Client client = ClientManager.getInstance().getOrCreateClient(serverConfiguration, context());
+
+		// Do request
+		CallResponse opcCallResponse = new OpcMethodServiceSet(client).call(methodCallList);
+
+		// Convert to JSON
+		return createCallMethodResults(opcCallResponse, methodCallList);
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "Call";
+	}
+
+	// BEGIN EXTRA CODE
+	private static final Gson GSON = new Gson();
+
+	/**
+	 * The requests are a JSON array of objects with an objectNodeId, a
+	 * methodNodeId and an optional array inputArguments with the value of each
+	 * input argument as a string, written like the payload of a write.
+	 */
+	private List<MethodCall> getMethodCalls(String callMethodRequestsJson) throws CoreException {
+		requireNonNull(callMethodRequestsJson, "Call method requests cannot be empty");
+		CallMethodRequestJson[] callMethodRequestJsons;
+		try {
+			callMethodRequestJsons = GSON.fromJson(callMethodRequestsJson, CallMethodRequestJson[].class);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Call method requests are not a valid JSON array: " + e.getMessage());
+		}
+		if (callMethodRequestJsons == null || callMethodRequestJsons.length == 0) {
+			throw new NullPointerException("List of methods to call cannot be empty");
+		}
+		List<MethodCall> methodCallList = new ArrayList<>();
+		for (CallMethodRequestJson callMethodRequestJson : callMethodRequestJsons) {
+			requireNonNull(callMethodRequestJson.objectNodeId, "Object node ID cannot be empty");
+			requireNonNull(callMethodRequestJson.methodNodeId,
+					"Method node ID is empty for object with node ID " + callMethodRequestJson.objectNodeId);
+			methodCallList.add(new MethodCall(new OpcNode(callMethodRequestJson.objectNodeId).getOpcNodeId(),
+					new OpcNode(callMethodRequestJson.methodNodeId).getOpcNodeId(),
+					callMethodRequestJson.inputArguments));
+		}
+		return methodCallList;
+	}
+
+	/**
+	 * Returns a JSON array with per method call the statusCode, the
+	 * inputArgumentResults and the outputArguments, each output argument in the
+	 * JSON format of the value of a read.
+	 */
+	private String createCallMethodResults(CallResponse opcCallResponse, List<MethodCall> methodCallList) {
+		CallMethodResult[] opcCallMethodResults = opcCallResponse.getResults();
+		if (opcCallMethodResults == null || opcCallMethodResults.length != methodCallList.size()) {
+			throw new IllegalArgumentException(
+					"The number of results returned by the server does not match the number of methods called");
+		}
+		JsonArray callMethodResults = new JsonArray();
+		for (CallMethodResult opcCallMethodResult : opcCallMethodResults) {
+			JsonObject callMethodResult = new JsonObject();
+			callMethodResult.add("statusCode", createStatusCode(opcCallMethodResult.getStatusCode()));
+			JsonArray inputArgumentResults = new JsonArray();
+			if (opcCallMethodResult.getInputArgumentResults() != null) {
+				for (StatusCode opcInputArgumentResult : opcCallMethodResult.getInputArgumentResults()) {
+					inputArgumentResults.add(createStatusCode(opcInputArgumentResult));
+				}
+			}
+			callMethodResult.add("inputArgumentResults", inputArgumentResults);
+			JsonArray outputArguments = new JsonArray();
+			if (opcCallMethodResult.getOutputArguments() != null) {
+				for (Variant opcOutputArgument : opcCallMethodResult.getOutputArguments()) {
+					outputArguments.add(JsonParser.parseString(VariantJsonEncoder.encode(opcOutputArgument)));
+				}
+			}
+			callMethodResult.add("outputArguments", outputArguments);
+			callMethodResults.add(callMethodResult);
+		}
+		return GSON.toJson(callMethodResults);
+	}
+
+	private JsonObject createStatusCode(StatusCode opcStatusCode) {
+		JsonObject statusCode = new JsonObject();
+		statusCode.addProperty("value", opcStatusCode.getValue());
+		statusCode.addProperty("isGood", opcStatusCode.isGood());
+		statusCode.addProperty("description",
+				StatusCodes.lookup(opcStatusCode.getValue()).map(nameAndDescription -> nameAndDescription[0])
+						.orElse(opcStatusCode.toString()));
+		return statusCode;
+	}
+
+	private static class CallMethodRequestJson {
+		private String objectNodeId;
+		private String methodNodeId;
+		private List<String> inputArguments;
+	}
+	// END EXTRA CODE
+}
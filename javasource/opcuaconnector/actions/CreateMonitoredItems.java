@@ -14,8 +14,10 @@ import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
 import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
@@ -28,6 +30,7 @@ import opcuaconnector.impl.ClientManager;
 import opcuaconnector.impl.ClientSubscriptionManager;
 import opcuaconnector.impl.ENUMAttributeId;
 import opcuaconnector.impl.ENUMMonitoringMode;
+import opcuaconnector.impl.MonitoringFilterRegistry;
 import opcuaconnector.impl.MxStatusCodeFactory;
 import opcuaconnector.impl.OpcMonitoredItemServiceSet;
 import opcuaconnector.impl.OpcNode;
@@ -91,7 +94,7 @@ public class CreateMonitoredItems extends CustomJavaAction<java.util.List<IMendi
 				.getMonitoredItemManager(uint(subscription.get_SubscriptionID()));
 		// Create request
 		List<MonitoredItemCreateRequest> opcMonitoredItemCreateRequest = createOpcMonitoredItemCreateRequest(
-				monitoredItemList, monitoredItemManager);
+				monitoredItemList, monitoredItemManager, client);
 
 		// Do request
 		List<UaMonitoredItem> responseList = new OpcMonitoredItemServiceSet(client,
@@ -137,27 +140,31 @@ public class CreateMonitoredItems extends CustomJavaAction<java.util.List<IMendi
 	}
 
 	private List<MonitoredItemCreateRequest> createOpcMonitoredItemCreateRequest(
-			List<MonitoredItem> mxMonitoredItemList, MonitoredItemManager monitoredItemManager) throws CoreException {
+			List<MonitoredItem> mxMonitoredItemList, MonitoredItemManager monitoredItemManager, Client client)
+			throws CoreException {
 		List<MonitoredItemCreateRequest> opcMonitoredItemCreateList = new ArrayList<>();
 		for (MonitoredItem itemToCreate : mxMonitoredItemList) {
-			opcMonitoredItemCreateList.add(new MonitoredItemCreateRequest(createOpcReadValueId(itemToCreate),
+			ReadValueId opcReadValueId = createOpcReadValueId(itemToCreate, client.getUaClient());
+			ExtensionObject opcFilter = MonitoringFilterRegistry.getInstance()
+					.getEncodedFilter(client.getConfigurationName(), client.getUaClient(), opcReadValueId.getNodeId());
+			opcMonitoredItemCreateList.add(new MonitoredItemCreateRequest(opcReadValueId,
 					ENUMMonitoringMode.getOpcENUM(itemToCreate.getMonitoringMode()),
-					createOpcMonitoringParameters(monitoredItemManager.getOpcSubscription(), itemToCreate)));
+					createOpcMonitoringParameters(monitoredItemManager.getOpcSubscription(), itemToCreate, opcFilter)));
 		}
 		return opcMonitoredItemCreateList;
 	}
 
-	private ReadValueId createOpcReadValueId(MonitoredItem itemToCreate) throws CoreException {
-		return new ReadValueId(new OpcNode(itemToCreate.getNodeID()).getOpcNodeId(),
+	private ReadValueId createOpcReadValueId(MonitoredItem itemToCreate, OpcUaClient opcClient) throws CoreException {
+		return new ReadValueId(new OpcNode(itemToCreate.getNodeID(), opcClient.getNamespaceTable()).getOpcNodeId(),
 				ENUMAttributeId.getOpcENUM(itemToCreate.getAttributeID()).uid(), itemToCreate.getNumericRange(), null);
 	}
 
 	private MonitoringParameters createOpcMonitoringParameters(UaSubscription opcSubscription,
-			MonitoredItem itemToCreate) {
+			MonitoredItem itemToCreate, ExtensionObject opcFilter) {
 		UInteger newClientHandle = opcSubscription.nextClientHandle();
 		return new MonitoringParameters(newClientHandle,
 				itemToCreate.getSamplingInterval() != null ? itemToCreate.getSamplingInterval().doubleValue() : null,
-				null, itemToCreate.getQueueSize() != null ? uint(itemToCreate.getQueueSize()) : null,
+				opcFilter, itemToCreate.getQueueSize() != null ? uint(itemToCreate.getQueueSize()) : null,
 				itemToCreate.getDiscardOldest());
 	}
 
@@ -82,7 +82,9 @@ public class DeinitializeSubscription extends CustomJavaAction<java.lang.Void>
 		requireNonNull(mxSubscription.get_SubscriptionID(), "Subscription ID cannot be empty");
 	}
 
-	private void opcDeleteSubscription(Client client, UInteger subscriptionId) throws CoreException {
+	private void opcDeleteSubscription(Client client, UInteger mxSubscriptionId) throws CoreException {
+		// The subscription may have been recreated under a new id
+		UInteger subscriptionId = client.getClientSubscriptionManager().resolveSubscriptionId(mxSubscriptionId);
 		try {
 			UaSubscription opcSubscription = client.getUaClient().getSubscriptionManager().getSubscriptions().stream()
 					.filter(subs -> subs.getSubscriptionId().equals(subscriptionId)).findFirst().orElse(null);
@@ -12,7 +12,6 @@ package opcuaconnector.actions;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
@@ -118,18 +117,17 @@ public class DeleteMonitoredItems extends CustomJavaAction<java.util.List<IMendi
 
 	private List<UaMonitoredItem> getOpcMonitoredItemsToDeleteFromMonitoredItemManager(
 			MonitoredItemManager subscription) {
-		return subscription.getOpcMonitoredItems().stream().filter(opcItem -> {
-			Optional<MonitoredItem> storedMonitoredItem = monitoredItemList.stream()
-					.filter(monItem -> monItem.get_MonitoredItemID().equals(opcItem.getMonitoredItemId().longValue()))
-					.findFirst();
-			if (storedMonitoredItem.isPresent()) {
-				return true;
+		List<UaMonitoredItem> opcMonitoredItemsToDelete = new ArrayList<>();
+		for (MonitoredItem monItem : monitoredItemList) {
+			Optional<UaMonitoredItem> opcItem = subscription.getOpcMonitoredItem(uint(monItem.get_MonitoredItemID()));
+			if (opcItem.isPresent()) {
+				opcMonitoredItemsToDelete.add(opcItem.get());
 			} else {
-				LOGGER.warn("Cannot delete monitored item " + opcItem.getMonitoredItemId()
+				LOGGER.warn("Cannot delete monitored item " + monItem.get_MonitoredItemID()
 						+ " because it was not present.");
-				return false;
 			}
-		}).collect(Collectors.toList());
+		}
+		return opcMonitoredItemsToDelete;
 	}
 
 	private List<IMendixObject> updateClient(ClientSubscriptionManager clientSubscriptionManager,
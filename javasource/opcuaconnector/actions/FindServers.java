@@ -53,7 +53,7 @@ public class FindServers extends CustomJavaAction<IMendixObject>
 
 		// Do request
 		List<ApplicationDescription> opcApplicationDescriptionList = new OpcDiscoveryServiceSet()
-				.miloFindServers(findServerRequest.getEndpointURL());
+				.findServers(findServerRequest.getEndpointURL());
 
 		// Convert to Mendix Objects
 		FindServersResponse mxFindServerResponse = createMxFindServerResponse(opcApplicationDescriptionList, context());
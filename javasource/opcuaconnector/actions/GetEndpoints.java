@@ -61,7 +61,7 @@ public class GetEndpoints extends CustomJavaAction<IMendixObject>
 
 		// Do request
 		List<EndpointDescription> opcEndpointDescriptionList = new OpcDiscoveryServiceSet()
-				.miloGetEndpoints(getEndpointsRequest.getEndpointURL());
+				.getEndpoints(getEndpointsRequest.getEndpointURL(), false);
 
 		// Convert to Mendix Objects
 		GetEndpointsResponse mxGetEndpointResponse = createMxGetEndpointResponse(context(), opcEndpointDescriptionList);
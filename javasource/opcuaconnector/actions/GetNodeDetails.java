@@ -9,7 +9,6 @@
 
 package opcuaconnector.actions;
 
-import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.sdk.client.nodes.UaNode;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.webui.CustomJavaAction;
@@ -17,6 +16,7 @@ import opcuaconnector.impl.OpcNode;
 import opcuaconnector.impl.MxNodeFactory;
 import opcuaconnector.impl.OpcAttributeServiceSet;
 import opcuaconnector.impl.ClientManager;
+import opcuaconnector.impl.ClientManager.Client;
 import opcuaconnector.proxies.Node;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 
@@ -45,11 +45,10 @@ public class GetNodeDetails extends CustomJavaAction<IMendixObject>
 	{
 		// BEGIN USER CODE
 		// Create connected client
-		OpcUaClient opcClient = ClientManager.getInstance().getOrCreateClient(serverConfiguration, context())
-				.getUaClient();
+		Client client = ClientManager.getInstance().getOrCreateClient(serverConfiguration, context());
 
 		// Do request
-		UaNode opcNode = new OpcAttributeServiceSet(opcClient).getOpcUaNode(new OpcNode(nodeId).getOpcNodeId());
+		UaNode opcNode = new OpcAttributeServiceSet(client).getOpcUaNode(new OpcNode(nodeId).getOpcNodeId());
 
 		// Convert to Mendix Objects
 		Node mxNode = new MxNodeFactory(opcNode, getContext()).getMxNode();
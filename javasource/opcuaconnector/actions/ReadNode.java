@@ -12,8 +12,8 @@ package opcuaconnector.actions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import static java.util.Objects.requireNonNull;
+import org.eclipse.milo.opcua.stack.core.NamespaceTable;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
 import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
 import org.eclipse.milo.opcua.stack.core.types.structured.ReadResponse;
@@ -22,6 +22,7 @@ import com.mendix.core.CoreException;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.webui.CustomJavaAction;
 import opcuaconnector.impl.ClientManager;
+import opcuaconnector.impl.ClientManager.Client;
 import opcuaconnector.impl.ENUMAttributeId;
 import opcuaconnector.impl.ENUMTimestampsToReturn;
 import opcuaconnector.impl.MxDataValueFactory;
@@ -69,14 +70,14 @@ public class ReadNode extends CustomJavaAction<IMendixObject>
 		validateReadNodeRequest(readNodeRequest);
 
 		// Create connected client
-		OpcUaClient opcClient = ClientManager.getInstance().getOrCreateClient(serverConfiguration, context())
-				.getUaClient();
+		Client client = ClientManager.getInstance().getOrCreateClient(serverConfiguration, context());
 
 		// Create opc request
-		List<ReadValueId> opcReadValueIdsToRead = getOpcReadValueIdsToRead(readNodeRequest);
+		List<ReadValueId> opcReadValueIdsToRead = getOpcReadValueIdsToRead(readNodeRequest,
+				client.getUaClient().getNamespaceTable());
 
 		// Do request
-		ReadResponse opcResponse = new OpcAttributeServiceSet(opcClient).miloRead(
+		ReadResponse opcResponse = new OpcAttributeServiceSet(client).miloRead(
 				readNodeRequest.getMaxAge().doubleValue(),
 				ENUMTimestampsToReturn.getOpcENUM(readNodeRequest.getTimestampsToReturn()), opcReadValueIdsToRead);
 
@@ -121,13 +122,16 @@ public class ReadNode extends CustomJavaAction<IMendixObject>
 	 * used for
 	 * 
 	 * @param mxReadNodeRequest
+	 * @param opcNamespaceTable resolves node IDs with a namespace URI
 	 * @return
 	 * @throws CoreException
 	 */
-	private List<ReadValueId> getOpcReadValueIdsToRead(ReadNodeRequest mxReadNodeRequest) throws CoreException {
+	private List<ReadValueId> getOpcReadValueIdsToRead(ReadNodeRequest mxReadNodeRequest,
+			NamespaceTable opcNamespaceTable) throws CoreException {
 		List<ReadValueId> opcReadValueIdsToRead = new ArrayList<>();
 		for (ReadNodeReadValueId mxReadValueId : mxReadNodeRequest.getReadNodeRequest_ReadNodeReadValueId()) {
-			opcReadValueIdsToRead.add(new ReadValueId(new OpcNode(mxReadValueId.getNodeID()).getOpcNodeId(),
+			opcReadValueIdsToRead.add(new ReadValueId(
+					new OpcNode(mxReadValueId.getNodeID(), opcNamespaceTable).getOpcNodeId(),
 					ENUMAttributeId.getOpcENUM(mxReadValueId.getAttributeId()).uid(), mxReadValueId.getNumericRange(),
 					QualifiedName.NULL_VALUE));
 		}
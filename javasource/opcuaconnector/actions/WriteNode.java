@@ -12,7 +12,6 @@ package opcuaconnector.actions;
 import static java.util.Objects.requireNonNull;
 import java.util.ArrayList;
 import java.util.List;
-import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.structured.WriteResponse;
 import com.mendix.core.CoreException;
@@ -20,6 +19,7 @@ import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.webui.CustomJavaAction;
 import opcuaconnector.impl.ClientManager;
+import opcuaconnector.impl.ClientManager.Client;
 import opcuaconnector.impl.MxStatusCodeFactory;
 import opcuaconnector.impl.OpcAttributeServiceSet;
 import opcuaconnector.impl.MxStatusCodeFactory.StatusCodeType;
@@ -61,8 +61,7 @@ public class WriteNode extends CustomJavaAction<IMendixObject>
 		validateWriteNodeRequest(writeNodeRequest);
 
 		// Create connected client
-		OpcUaClient client = ClientManager.getInstance().getOrCreateClient(serverConfiguration, context())
-				.getUaClient();
+		Client client = ClientManager.getInstance().getOrCreateClient(serverConfiguration, context());
 
 		// Get
 		List<WriteNodeWriteValue> mxWriteNodeWriteValueList = writeNodeRequest
@@ -0,0 +1,379 @@
+package opcuaconnector.impl;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReferenceDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.ViewDescription;
+
+import com.mendix.core.CoreException;
+
+/**
+ * Walks the address space breadth-first, starting from one or more browse
+ * descriptions. Every node that is found is browsed with the same direction,
+ * reference type, node class mask and result mask as the description it was
+ * found from.
+ *
+ * Many nodes are browsed per request and a bounded number of requests is in
+ * flight at the same time. Continuation points are followed with BrowseNext,
+ * and every node is browsed only once. The references are handed to a consumer
+ * as soon as they arrive, on the thread that started the crawl, so the caller
+ * never has to keep the whole address space in memory.
+ */
+public class AddressSpaceCrawler {
+	private static final MxLogger LOGGER = new MxLogger(AddressSpaceCrawler.class);
+
+	private final OpcUaClient opcClient;
+	private final int nodesPerRequest;
+	private final int maxRequestsInFlight;
+	private int maxDepth = 0;
+	private int maxNodes = 0;
+	private UInteger maxReferencesPerNode = uint(0);
+
+	/**
+	 * @param opcClient           connected client
+	 * @param nodesPerRequest     number of nodes or continuation points per request
+	 * @param maxRequestsInFlight number of requests sent at the same time
+	 */
+	public AddressSpaceCrawler(OpcUaClient opcClient, int nodesPerRequest, int maxRequestsInFlight) {
+		if (nodesPerRequest <= 0 || maxRequestsInFlight <= 0) {
+			throw new IllegalArgumentException("Nodes per request and number of requests in flight must be positive");
+		}
+		this.opcClient = opcClient;
+		this.nodesPerRequest = nodesPerRequest;
+		this.maxRequestsInFlight = maxRequestsInFlight;
+	}
+
+	/**
+	 * Limits how many levels below the starting nodes are browsed. Zero means the
+	 * whole subtree.
+	 */
+	public AddressSpaceCrawler setMaxDepth(int maxDepth) {
+		if (maxDepth < 0) {
+			throw new IllegalArgumentException("Maximum depth cannot be negative");
+		}
+		this.maxDepth = maxDepth;
+		return this;
+	}
+
+	/**
+	 * Limits how many nodes are browsed in total. Zero means no limit.
+	 */
+	public AddressSpaceCrawler setMaxNodes(int maxNodes) {
+		if (maxNodes < 0) {
+			throw new IllegalArgumentException("Maximum number of nodes cannot be negative");
+		}
+		this.maxNodes = maxNodes;
+		return this;
+	}
+
+	/**
+	 * Maximum number of references the server returns per node before it hands out
+	 * a continuation point. Zero lets the server decide.
+	 */
+	public AddressSpaceCrawler setMaxReferencesPerNode(UInteger maxReferencesPerNode) {
+		this.maxReferencesPerNode = maxReferencesPerNode;
+		return this;
+	}
+
+	/**
+	 * Crawls the address space from the starting descriptions.
+	 *
+	 * @param opcBrowseDescriptionList starting nodes and how to browse them
+	 * @param referenceConsumer        receives every reference that is found
+	 * @return counters of the crawl
+	 * @throws CoreException whenever a request fails, or the crawl is interrupted
+	 */
+	public Summary crawl(List<BrowseDescription> opcBrowseDescriptionList,
+			Consumer<CrawledReference> referenceConsumer) throws CoreException {
+		return new Crawl(referenceConsumer).run(opcBrowseDescriptionList);
+	}
+
+	private final class Crawl {
+		private final Consumer<CrawledReference> referenceConsumer;
+		private final ArrayDeque<PendingNode> nodesToBrowse = new ArrayDeque<>();
+		private final ArrayDeque<PendingNode> continuationPoints = new ArrayDeque<>();
+		private final Set<NodeId> visitedNodes = new HashSet<>();
+		private final LinkedBlockingQueue<CompletedRequest> completedRequests = new LinkedBlockingQueue<>();
+		private final Summary summary = new Summary();
+		private int requestsInFlight = 0;
+		private boolean isAborted = false;
+
+		private Crawl(Consumer<CrawledReference> referenceConsumer) {
+			this.referenceConsumer = referenceConsumer;
+		}
+
+		private Summary run(List<BrowseDescription> opcBrowseDescriptionList) throws CoreException {
+			for (BrowseDescription opcBrowseDescription : opcBrowseDescriptionList) {
+				if (visitedNodes.add(opcBrowseDescription.getNodeId())) {
+					nodesToBrowse.add(new PendingNode(opcBrowseDescription, 0, null));
+				}
+			}
+			try {
+				while (true) {
+					while (requestsInFlight < maxRequestsInFlight
+							&& (!continuationPoints.isEmpty() || !nodesToBrowse.isEmpty())) {
+						sendRequest();
+					}
+					if (requestsInFlight == 0) {
+						break;
+					}
+					CompletedRequest completedRequest = completedRequests.take();
+					requestsInFlight--;
+					processResults(completedRequest);
+				}
+			} catch (InterruptedException e) {
+				LOGGER.error("Cannot crawl the address space, because the thread was interrupted. The error was "
+						+ e.getMessage());
+				Thread.currentThread().interrupt();
+				throw new CoreException(e);
+			} finally {
+				releaseContinuationPoints();
+			}
+			LOGGER.debug("Crawled the address space: " + summary);
+			return summary;
+		}
+
+		/**
+		 * Continuation points are served first, they hold resources on the server.
+		 */
+		private void sendRequest() {
+			boolean isBrowseNext = !continuationPoints.isEmpty();
+			ArrayDeque<PendingNode> queue = isBrowseNext ? continuationPoints : nodesToBrowse;
+			List<PendingNode> pendingNodes = new ArrayList<>(Math.min(queue.size(), nodesPerRequest));
+			while (!queue.isEmpty() && pendingNodes.size() < nodesPerRequest) {
+				pendingNodes.add(queue.poll());
+			}
+			CompletableFuture<BrowseResult[]> opcBrowseResults;
+			if (isBrowseNext) {
+				List<ByteString> opcContinuationPoints = new ArrayList<>(pendingNodes.size());
+				pendingNodes.forEach(pendingNode -> opcContinuationPoints.add(pendingNode.continuationPoint));
+				opcBrowseResults = opcClient.browseNext(false, opcContinuationPoints)
+						.thenApply(opcBrowseNextResponse -> opcBrowseNextResponse.getResults());
+				summary.browseNextRequests++;
+			} else {
+				List<BrowseDescription> opcBrowseDescriptions = new ArrayList<>(pendingNodes.size());
+				pendingNodes.forEach(pendingNode -> opcBrowseDescriptions.add(pendingNode.opcBrowseDescription));
+				opcBrowseResults = opcClient
+						.browse(new ViewDescription(NodeId.NULL_VALUE, DateTime.MIN_VALUE, uint(0)), maxReferencesPerNode,
+								opcBrowseDescriptions)
+						.thenApply(opcBrowseResponse -> opcBrowseResponse.getResults());
+				summary.browseRequests++;
+			}
+			requestsInFlight++;
+			opcBrowseResults.whenComplete((results, error) -> {
+				CompletedRequest completedRequest = new CompletedRequest(pendingNodes, results, error);
+				synchronized (completedRequests) {
+					if (!isAborted) {
+						completedRequests.add(completedRequest);
+						return;
+					}
+				}
+				releaseContinuationPoints(collectContinuationPoints(completedRequest));
+			});
+		}
+
+		private void processResults(CompletedRequest completedRequest) throws CoreException {
+			if (completedRequest.error != null) {
+				LOGGER.error("An error occured while crawling the address space after " + summary.nodesBrowsed
+						+ " nodes. The error was " + completedRequest.error.getMessage());
+				throw new CoreException(completedRequest.error);
+			}
+			for (int i = 0; i < completedRequest.pendingNodes.size(); i++) {
+				PendingNode pendingNode = completedRequest.pendingNodes.get(i);
+				BrowseResult opcBrowseResult = i < completedRequest.opcBrowseResults.length
+						? completedRequest.opcBrowseResults[i]
+						: null;
+				if (opcBrowseResult == null || opcBrowseResult.getStatusCode().isBad()) {
+					LOGGER.warn("Cannot browse node " + pendingNode.opcBrowseDescription.getNodeId().toParseableString()
+							+ ". The status code was "
+							+ (opcBrowseResult != null ? opcBrowseResult.getStatusCode() : "empty"));
+					summary.failedNodes++;
+					continue;
+				}
+				if (pendingNode.continuationPoint == null) {
+					summary.nodesBrowsed++;
+				}
+				processReferences(pendingNode, opcBrowseResult);
+				ByteString opcContinuationPoint = opcBrowseResult.getContinuationPoint();
+				if (opcContinuationPoint != null && !opcContinuationPoint.isNullOrEmpty()) {
+					continuationPoints.add(
+							new PendingNode(pendingNode.opcBrowseDescription, pendingNode.depth, opcContinuationPoint));
+				}
+			}
+		}
+
+		private void processReferences(PendingNode pendingNode, BrowseResult opcBrowseResult) {
+			ReferenceDescription[] opcReferences = opcBrowseResult.getReferences();
+			if (opcReferences == null) {
+				return;
+			}
+			int childDepth = pendingNode.depth + 1;
+			boolean isDescending = maxDepth == 0 || childDepth < maxDepth;
+			for (ReferenceDescription opcReference : opcReferences) {
+				summary.referencesFound++;
+				referenceConsumer.accept(
+						new CrawledReference(pendingNode.opcBrowseDescription.getNodeId(), opcReference, childDepth));
+				if (!isDescending || !opcReference.getNodeId().isLocal()
+						|| (maxNodes > 0 && visitedNodes.size() >= maxNodes)) {
+					continue;
+				}
+				Optional<NodeId> opcNodeId = opcReference.getNodeId().toNodeId(opcClient.getNamespaceTable());
+				if (opcNodeId.isPresent() && visitedNodes.add(opcNodeId.get())) {
+					BrowseDescription parentDescription = pendingNode.opcBrowseDescription;
+					nodesToBrowse.add(new PendingNode(new BrowseDescription(opcNodeId.get(),
+							parentDescription.getBrowseDirection(), parentDescription.getReferenceTypeId(),
+							parentDescription.getIncludeSubtypes(), parentDescription.getNodeClassMask(),
+							parentDescription.getResultMask()), childDepth, null));
+				}
+			}
+		}
+
+		/**
+		 * When the crawl stops early the server still holds the continuation points
+		 * that were not followed, including those in the results of requests that
+		 * completed but were not processed yet. Requests that are still in flight
+		 * release their continuation points themselves when they complete.
+		 */
+		private void releaseContinuationPoints() {
+			List<ByteString> opcContinuationPoints = new ArrayList<>();
+			continuationPoints.forEach(pendingNode -> opcContinuationPoints.add(pendingNode.continuationPoint));
+			continuationPoints.clear();
+			synchronized (completedRequests) {
+				isAborted = true;
+				for (CompletedRequest completedRequest : completedRequests) {
+					opcContinuationPoints.addAll(collectContinuationPoints(completedRequest));
+				}
+				completedRequests.clear();
+			}
+			releaseContinuationPoints(opcContinuationPoints);
+		}
+
+		private void releaseContinuationPoints(List<ByteString> opcContinuationPoints) {
+			if (opcContinuationPoints.isEmpty()) {
+				return;
+			}
+			opcClient.browseNext(true, opcContinuationPoints).whenComplete((opcBrowseNextResponse, error) -> {
+				if (error != null) {
+					LOGGER.debug("Cannot release " + opcContinuationPoints.size()
+							+ " continuation points after crawling. The error was " + error.getMessage());
+				}
+			});
+		}
+
+		private List<ByteString> collectContinuationPoints(CompletedRequest completedRequest) {
+			List<ByteString> opcContinuationPoints = new ArrayList<>();
+			for (BrowseResult opcBrowseResult : completedRequest.opcBrowseResults) {
+				ByteString opcContinuationPoint = opcBrowseResult != null ? opcBrowseResult.getContinuationPoint()
+						: null;
+				if (opcContinuationPoint != null && !opcContinuationPoint.isNullOrEmpty()) {
+					opcContinuationPoints.add(opcContinuationPoint);
+				}
+			}
+			return opcContinuationPoints;
+		}
+	}
+
+	private static final class PendingNode {
+		private final BrowseDescription opcBrowseDescription;
+		private final int depth;
+		private final ByteString continuationPoint;
+
+		private PendingNode(BrowseDescription opcBrowseDescription, int depth, ByteString continuationPoint) {
+			this.opcBrowseDescription = opcBrowseDescription;
+			this.depth = depth;
+			this.continuationPoint = continuationPoint;
+		}
+	}
+
+	private static final class CompletedRequest {
+		private final List<PendingNode> pendingNodes;
+		private final BrowseResult[] opcBrowseResults;
+		private final Throwable error;
+
+		private CompletedRequest(List<PendingNode> pendingNodes, BrowseResult[] opcBrowseResults, Throwable error) {
+			this.pendingNodes = pendingNodes;
+			this.opcBrowseResults = opcBrowseResults != null ? opcBrowseResults : new BrowseResult[0];
+			this.error = error;
+		}
+	}
+
+	/**
+	 * A reference found while crawling, together with the node it was found on.
+	 */
+	public static class CrawledReference {
+		private final NodeId opcSourceNodeId;
+		private final ReferenceDescription opcReferenceDescription;
+		private final int depth;
+
+		public CrawledReference(NodeId opcSourceNodeId, ReferenceDescription opcReferenceDescription, int depth) {
+			this.opcSourceNodeId = opcSourceNodeId;
+			this.opcReferenceDescription = opcReferenceDescription;
+			this.depth = depth;
+		}
+
+		public NodeId getSourceNodeId() {
+			return opcSourceNodeId;
+		}
+
+		public ReferenceDescription getReferenceDescription() {
+			return opcReferenceDescription;
+		}
+
+		/** One for references of the starting nodes. */
+		public int getDepth() {
+			return depth;
+		}
+	}
+
+	public static class Summary {
+		private long nodesBrowsed;
+		private long referencesFound;
+		private long failedNodes;
+		private long browseRequests;
+		private long browseNextRequests;
+
+		public long getNodesBrowsed() {
+			return nodesBrowsed;
+		}
+
+		public long getReferencesFound() {
+			return referencesFound;
+		}
+
+		public long getFailedNodes() {
+			return failedNodes;
+		}
+
+		public long getBrowseRequests() {
+			return browseRequests;
+		}
+
+		public long getBrowseNextRequests() {
+			return browseNextRequests;
+		}
+
+		@Override
+		public String toString() {
+			return nodesBrowsed + " nodes browsed, " + referencesFound + " references found, " + failedNodes
+					+ " nodes failed, " + browseRequests + " browse requests, " + browseNextRequests
+					+ " browse next requests";
+		}
+	}
+}
@@ -0,0 +1,487 @@
+package opcuaconnector.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the subscription callbacks of one client, so that a slow microflow of one
+ * server cannot stall the notification delivery of the other servers, which
+ * would happen when the callbacks run on the shared threads of the OPC UA
+ * stack.
+ *
+ * The executor consists of a number of lanes, each with one worker thread and a
+ * bounded queue. Tasks with the same key always end up in the same lane, so the
+ * notifications of one monitored item are processed in order. What happens when
+ * a lane is full is decided by the {@link OverflowPolicy}.
+ *
+ * Drain tasks, submitted through {@link #executeDrain}, hand over notifications
+ * that wait in a queue of their own. They are never discarded to make room and
+ * never wait for room, because losing a drain would leave its queue undrained.
+ */
+public class CallbackExecutor {
+	private static final MxLogger LOGGER = new MxLogger(CallbackExecutor.class);
+
+	private final String name;
+	private final Settings settings;
+	private final List<Lane> lanes;
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong executedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong droppedOldestCount = new AtomicLong();
+	private final AtomicLong blockedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong discardedCount = new AtomicLong();
+	private volatile boolean isShutdown = false;
+
+	public CallbackExecutor(String name, Settings settings) {
+		this.name = name;
+		this.settings = settings.copy();
+		int laneCapacity = Math.max(1, this.settings.getQueueCapacity() / this.settings.getThreadCount());
+		ThreadFactory threadFactory = createThreadFactory();
+		this.lanes = new ArrayList<>(this.settings.getThreadCount());
+		for (int i = 0; i < this.settings.getThreadCount(); i++) {
+			Lane lane = new Lane(laneCapacity);
+			lanes.add(lane);
+			threadFactory.newThread(lane).start();
+		}
+	}
+
+	/**
+	 * Queues a task.
+	 *
+	 * @param key      tasks with the same key run in submission order. With the
+	 *                 COALESCE_BY_NODE policy a task replaces the pending task
+	 *                 with the same key. Can be empty.
+	 * @param runnable the task to run
+	 * @return false if the task was rejected because the executor is shut down or
+	 *         the BLOCK policy timed out
+	 */
+	public boolean execute(Object key, Runnable runnable) {
+		if (isShutdown) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		submittedCount.incrementAndGet();
+		return getLane(key).submit(key, runnable, false);
+	}
+
+	/**
+	 * Queues a task that drains a queue of notifications. The task is not
+	 * discarded by the DROP_OLDEST and COALESCE_BY_NODE policies and does not wait
+	 * for room with the BLOCK policy, so a lane can hold one drain per key above
+	 * its capacity.
+	 *
+	 * @param key the owner of the drained queue, a pending drain with the same key
+	 *            is reused
+	 * @return false if the executor is shut down
+	 */
+	public boolean executeDrain(Object key, Runnable drain) {
+		requireNonNull(key, "Drain key cannot be empty");
+		if (isShutdown) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		submittedCount.incrementAndGet();
+		return getLane(key).submit(key, drain, true);
+	}
+
+	private Lane getLane(Object key) {
+		return lanes.get(key == null ? 0 : Math.floorMod(key.hashCode(), lanes.size()));
+	}
+
+	/**
+	 * Stops the workers. Tasks that are still queued are discarded and counted,
+	 * running tasks are completed.
+	 */
+	public void shutdown() {
+		shutdownAndTransfer(null);
+	}
+
+	/**
+	 * Stops the workers and moves the tasks that are still queued to another
+	 * executor, in the order they were queued. Running tasks are completed by their
+	 * worker, so a task that was moved can start before the running task of the
+	 * same key ends.
+	 *
+	 * @param target receives the queued tasks, or null to discard them
+	 */
+	public void shutdownAndTransfer(CallbackExecutor target) {
+		isShutdown = true;
+		int transferredCount = 0;
+		int lostCount = 0;
+		for (Lane lane : lanes) {
+			for (Task task : lane.shutdown()) {
+				boolean isTransferred = target != null && (task.isDrain ? target.executeDrain(task.key, task.runnable)
+						: target.execute(task.key, task.runnable));
+				if (isTransferred) {
+					transferredCount++;
+				} else {
+					lostCount++;
+				}
+			}
+		}
+		discardedCount.addAndGet(lostCount);
+		if (transferredCount > 0) {
+			LOGGER.info("Moved " + transferredCount + " queued callbacks of " + name + " to the new executor");
+		}
+		if (lostCount > 0) {
+			LOGGER.warn("Discarded " + lostCount + " queued callbacks of " + name + " because the executor was shut down");
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return settings.getOverflowPolicy();
+	}
+
+	public int getQueueDepth() {
+		return lanes.stream().mapToInt(Lane::size).sum();
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	public long getExecutedCount() {
+		return executedCount.get();
+	}
+
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/** Number of queued tasks that were discarded to make room for a new task. */
+	public long getDroppedOldestCount() {
+		return droppedOldestCount.get();
+	}
+
+	/** Number of submissions that had to wait for room in the queue. */
+	public long getBlockedCount() {
+		return blockedCount.get();
+	}
+
+	/** Number of tasks that were not queued at all. */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/** Number of queued tasks that were discarded because the executor was shut down. */
+	public long getDiscardedCount() {
+		return discardedCount.get();
+	}
+
+	/** Number of pending tasks that were replaced by a newer task for the same key. */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	private ThreadFactory createThreadFactory() {
+		if (settings.isUseVirtualThreads()) {
+			ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+			if (virtualThreadFactory != null) {
+				return virtualThreadFactory;
+			}
+			LOGGER.warn("Virtual threads are not available on this Java version. Using platform threads for "
+					+ name);
+		}
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadFactory defaultThreadFactory = Executors.defaultThreadFactory();
+		return runnable -> {
+			Thread thread = defaultThreadFactory.newThread(runnable);
+			thread.setName("OPC UA Connector callbacks " + name + " " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Virtual threads are only available from Java 21 onwards, so they are looked
+	 * up reflectively to keep the module compatible with older runtimes.
+	 */
+	private static ThreadFactory createVirtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factoryMethod = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factoryMethod.invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	public enum OverflowPolicy {
+		/** Discard the oldest queued task to make room for the new one. */
+		DROP_OLDEST,
+		/**
+		 * Let the submitting thread wait for room, up to the block timeout. The
+		 * submitting thread is usually a publishing thread of the OPC UA stack that
+		 * is shared by all clients, so only use this when no notification may be
+		 * dropped and stalling the other servers is acceptable.
+		 */
+		BLOCK,
+		/**
+		 * Replace the pending task with the same key, so only the latest notification
+		 * per node is processed. Falls back to DROP_OLDEST when the queue is full.
+		 */
+		COALESCE_BY_NODE
+	}
+
+	/**
+	 * Configuration of a callback executor.
+	 */
+	public static class Settings {
+		private int threadCount = 4;
+		private int queueCapacity = 10000;
+		private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+		private boolean useVirtualThreads = false;
+		private long blockTimeoutMs = 5000;
+
+		public int getThreadCount() {
+			return threadCount;
+		}
+
+		public Settings setThreadCount(int threadCount) {
+			if (threadCount <= 0) {
+				throw new IllegalArgumentException("Thread count must be positive");
+			}
+			this.threadCount = threadCount;
+			return this;
+		}
+
+		public int getQueueCapacity() {
+			return queueCapacity;
+		}
+
+		public Settings setQueueCapacity(int queueCapacity) {
+			if (queueCapacity <= 0) {
+				throw new IllegalArgumentException("Queue capacity must be positive");
+			}
+			this.queueCapacity = queueCapacity;
+			return this;
+		}
+
+		public OverflowPolicy getOverflowPolicy() {
+			return overflowPolicy;
+		}
+
+		public Settings setOverflowPolicy(OverflowPolicy overflowPolicy) {
+			this.overflowPolicy = requireNonNull(overflowPolicy, "Overflow policy cannot be empty");
+			return this;
+		}
+
+		public boolean isUseVirtualThreads() {
+			return useVirtualThreads;
+		}
+
+		public Settings setUseVirtualThreads(boolean useVirtualThreads) {
+			this.useVirtualThreads = useVirtualThreads;
+			return this;
+		}
+
+		public long getBlockTimeoutMs() {
+			return blockTimeoutMs;
+		}
+
+		public Settings setBlockTimeoutMs(long blockTimeoutMs) {
+			if (blockTimeoutMs < 0) {
+				throw new IllegalArgumentException("Block timeout cannot be negative");
+			}
+			this.blockTimeoutMs = blockTimeoutMs;
+			return this;
+		}
+
+		private Settings copy() {
+			return new Settings().setThreadCount(threadCount).setQueueCapacity(queueCapacity)
+					.setOverflowPolicy(overflowPolicy).setUseVirtualThreads(useVirtualThreads)
+					.setBlockTimeoutMs(blockTimeoutMs);
+		}
+	}
+
+	private static final class Task {
+		private final Object key;
+		private final boolean isDrain;
+		private Runnable runnable;
+
+		private Task(Object key, Runnable runnable, boolean isDrain) {
+			this.key = key;
+			this.runnable = runnable;
+			this.isDrain = isDrain;
+		}
+	}
+
+	private final class Lane implements Runnable {
+		private final int capacity;
+		private final ArrayDeque<Task> queue;
+		private final Map<Object, Task> pendingTasksByKey = new HashMap<>();
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notEmpty = lock.newCondition();
+		private final Condition notFull = lock.newCondition();
+
+		private Lane(int capacity) {
+			this.capacity = capacity;
+			this.queue = new ArrayDeque<>(Math.min(capacity, 1024));
+		}
+
+		private boolean submit(Object key, Runnable runnable, boolean isDrain) {
+			lock.lock();
+			try {
+				boolean isCoalescing = isDrain
+						|| settings.getOverflowPolicy() == OverflowPolicy.COALESCE_BY_NODE && key != null;
+				if (isCoalescing) {
+					Task pendingTask = pendingTasksByKey.get(key);
+					if (pendingTask != null && pendingTask.isDrain == isDrain) {
+						pendingTask.runnable = runnable;
+						coalescedCount.incrementAndGet();
+						return true;
+					}
+				}
+				if (isShutdown) {
+					rejectedCount.incrementAndGet();
+					return false;
+				}
+				if (!isDrain && queue.size() >= capacity && !makeRoom()) {
+					rejectedCount.incrementAndGet();
+					return false;
+				}
+				Task task = new Task(key, runnable, isDrain);
+				queue.addLast(task);
+				if (isCoalescing) {
+					pendingTasksByKey.put(key, task);
+				}
+				notEmpty.signal();
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		// Called with the lock held and a full queue
+		private boolean makeRoom() {
+			if (settings.getOverflowPolicy() != OverflowPolicy.BLOCK) {
+				// Drains are kept, when the queue only holds drains it grows by one task
+				Iterator<Task> tasks = queue.iterator();
+				while (tasks.hasNext()) {
+					Task task = tasks.next();
+					if (!task.isDrain) {
+						tasks.remove();
+						removeTask(task);
+						droppedOldestCount.incrementAndGet();
+						break;
+					}
+				}
+				return true;
+			}
+			blockedCount.incrementAndGet();
+			long remainingNanos = TimeUnit.MILLISECONDS.toNanos(settings.getBlockTimeoutMs());
+			try {
+				while (queue.size() >= capacity) {
+					if (remainingNanos <= 0 || isShutdown) {
+						return false;
+					}
+					remainingNanos = notFull.awaitNanos(remainingNanos);
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+
+		private void removeTask(Task task) {
+			if (task != null && task.key != null) {
+				pendingTasksByKey.remove(task.key, task);
+			}
+		}
+
+		/**
+		 * @return the next task, or null when the executor is shut down
+		 */
+		private Runnable take() throws InterruptedException {
+			lock.lock();
+			try {
+				while (queue.isEmpty()) {
+					if (isShutdown) {
+						return null;
+					}
+					notEmpty.await();
+				}
+				Task task = queue.pollFirst();
+				removeTask(task);
+				notFull.signal();
+				return task.runnable;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private int size() {
+			lock.lock();
+			try {
+				return queue.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (!isShutdown) {
+				try {
+					Runnable runnable = take();
+					if (runnable == null) {
+						return;
+					}
+					try {
+						runnable.run();
+						executedCount.incrementAndGet();
+					} catch (Throwable e) {
+						// Also errors, otherwise the lane would stop and its queued tasks never run
+						failedCount.incrementAndGet();
+						LOGGER.error("A callback of " + name + " failed. The error is " + e);
+					}
+				} catch (InterruptedException e) {
+					if (isShutdown) {
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Empties the queue and wakes up the waiting threads. The worker is not
+		 * interrupted, so a running microflow can commit its transaction.
+		 *
+		 * @return the tasks that were queued, in order
+		 */
+		private List<Task> shutdown() {
+			lock.lock();
+			try {
+				List<Task> queuedTasks = new ArrayList<>(queue);
+				queue.clear();
+				pendingTasksByKey.clear();
+				notEmpty.signalAll();
+				notFull.signalAll();
+				return queuedTasks;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -24,13 +24,25 @@ import com.mendix.systemwideinterfaces.core.IMendixObject;
 
 public class CertificateUtils {
 	private static MxLogger LOGGER = new MxLogger(CertificateUtils.class);
+	private static final ParsedDocumentCache<PrivateKey> PRIVATE_KEYS = new ParsedDocumentCache<>();
+	private static final ParsedDocumentCache<X509Certificate> CERTIFICATES = new ParsedDocumentCache<>();
 
 	private CertificateUtils() {
 		throw new IllegalStateException("Utility class");
 	}
 
+	/**
+	 * Returns the private key of the document. The key is parsed once per version
+	 * of the document.
+	 */
 	public static PrivateKey getPrivateKey(opcuaconnector.proxies.PrivateKey mxPrivateKey, IContext context)
 			throws CoreException {
+		return PRIVATE_KEYS.get(mxPrivateKey.getMendixObject(), context,
+				() -> parsePrivateKey(mxPrivateKey, context));
+	}
+
+	private static PrivateKey parsePrivateKey(opcuaconnector.proxies.PrivateKey mxPrivateKey, IContext context)
+			throws CoreException {
 		try {
 			// Read KeyPair contents
 			String privateKeyContents = new String(
@@ -65,7 +77,16 @@ public class CertificateUtils {
 			// hardly to debug. Expect Encrypted PEM-formatted Private key file in either PKCS1 or PKCS8.
 	}
 
+	/**
+	 * Returns the certificate of the document. The certificate is parsed once per
+	 * version of the document.
+	 */
 	public static X509Certificate getX509Certificate(IMendixObject mxObject, IContext context) throws CoreException {
+		return CERTIFICATES.get(mxObject, context, () -> parseX509Certificate(mxObject, context));
+	}
+
+	private static X509Certificate parseX509Certificate(IMendixObject mxObject, IContext context)
+			throws CoreException {
 		try {
 			return (X509Certificate) CertificateFactory.getInstance("X.509")
 					.generateCertificate(Core.getFileDocumentContent(context, mxObject));
@@ -76,4 +97,12 @@ public class CertificateUtils {
 		} // Note that we keep this message explicitly vague because these results are
 			// hardly to debug. Expect CER/CRT formatted certificate.
 	}
+
+	/**
+	 * Forgets all parsed certificates and private keys.
+	 */
+	public static void clearCache() {
+		PRIVATE_KEYS.clear();
+		CERTIFICATES.clear();
+	}
 }
@@ -36,6 +36,7 @@ import com.mendix.logging.ILogNode;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 
+import opcuaconnector.impl.ClientManager.Client;
 import opcuaconnector.proxies.AbstractIdentityToken;
 import opcuaconnector.proxies.AnonymousIdentityToken;
 import opcuaconnector.proxies.CertificateIdentityToken;
@@ -323,21 +324,36 @@ public class ClientBuilder {
 	 * @throws CoreException Whenever no matching endpoint can be found
 	 */
 	private EndpointDescription getMatchingEndpointDescription() throws CoreException {
-		for (EndpointDescription opcEndpointDescription : new OpcDiscoveryServiceSet()
-				.miloGetEndpoints(mxServerConfiguration.getEndpointURL())) {
+		OpcDiscoveryServiceSet discoveryServiceSet = new OpcDiscoveryServiceSet();
+		EndpointDescription opcEndpointDescription = findMatchingEndpointDescription(
+				discoveryServiceSet.getEndpoints(mxServerConfiguration.getEndpointURL(), false));
+		if (opcEndpointDescription == null) {
+			LOGGER.debug("No known endpoint of " + mxServerConfiguration.getEndpointURL()
+					+ " matches the security settings, requesting the endpoints again");
+			opcEndpointDescription = findMatchingEndpointDescription(
+					discoveryServiceSet.getEndpoints(mxServerConfiguration.getEndpointURL(), true));
+		}
+		if (opcEndpointDescription == null) {
+			throw new CoreException("Cannot find Endpoint description on server with endpoint url "
+					+ mxServerConfiguration.getEndpointURL() + " and security "
+					+ mxServerConfiguration.getMessageSecurityMode());
+		}
+		if (mxServerConfiguration.getIsManualConfiguration()) {
+			opcEndpointDescription = overWriteEndPointHost(opcEndpointDescription);
+		}
+		return opcEndpointDescription;
+	}
+
+	private EndpointDescription findMatchingEndpointDescription(List<EndpointDescription> opcEndpointDescriptions) {
+		for (EndpointDescription opcEndpointDescription : opcEndpointDescriptions) {
 			if ((opcEndpointDescription.getSecurityMode().equals(
 					ENUMMessageSecurityMode.fromMxMessageSecurityMode(mxServerConfiguration.getMessageSecurityMode()))
 					&& mxServerConfiguration.getSecurityPolicyURI()
 							.equalsIgnoreCase(opcEndpointDescription.getSecurityPolicyUri()))) {
-				if(mxServerConfiguration.getIsManualConfiguration()) {
-					opcEndpointDescription = overWriteEndPointHost(opcEndpointDescription);
-				}
 				return opcEndpointDescription;
 			}
 		}
-		throw new CoreException(
-				"Cannot find Endpoint description on server with endpoint url " + mxServerConfiguration.getEndpointURL()
-						+ " and security " + mxServerConfiguration.getMessageSecurityMode());
+		return null;
 	}
 	
 	
@@ -395,6 +411,12 @@ public class ClientBuilder {
 
 			@Override
 			public void onSubscriptionTransferFailed(UaSubscription subscription, StatusCode statusCode) {
+				if (NodeMetadataCache.isModelChangeSubscription(subscription)) {
+					return;
+				}
+				if (recreateFromDefinitions(subscription, statusCode)) {
+					return;
+				}
 				try {
 					String microflowToRecreate = "OPCUAConnector.PRIVATE_Subscription_Recreate";
 					subscriptionLOGGER.error("An on Subscription Transfer Failed event occured for server "
@@ -413,6 +435,28 @@ public class ClientBuilder {
 							+ " because " + e.getMessage());
 				}
 			}
+
+			/**
+			 * Recreates the subscription in bulk from the monitored item definitions of
+			 * the client, which is faster than recreating it through the Mendix model.
+			 */
+			private boolean recreateFromDefinitions(UaSubscription subscription, StatusCode statusCode) {
+				Client client = ClientManager.getInstance().getClient(mxServerConfiguration);
+				if (client == null) {
+					return false;
+				}
+				try {
+					subscriptionLOGGER.warn("An on Subscription Transfer Failed event occured for server "
+							+ mxServerConfiguration.getConfigurationName() + " and subscription id "
+							+ subscription.getSubscriptionId().toString() + ". The status code is "
+							+ statusCode.toString() + ". Recreating the subscription from its monitored item definitions");
+					return new SubscriptionRecovery(client).recreate(subscription.getSubscriptionId());
+				} catch (Exception e) {
+					subscriptionLOGGER.error("Failed to recreate subscription " + subscription.getSubscriptionId()
+							+ " from its monitored item definitions because " + e.getMessage());
+					return false;
+				}
+			}
 		};
 	}
 }
@@ -0,0 +1,319 @@
+package opcuaconnector.impl;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.SessionActivityListener;
+import org.eclipse.milo.opcua.sdk.client.api.UaSession;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+/**
+ * Probes the session of a client in the background by reading the server state.
+ * The probe keeps the session active and detects a dead session before an action
+ * runs into it.
+ *
+ * After a number of failed probes in a row the monitor disconnects the client
+ * and connects it again, which opens a new secure channel and session instead
+ * of waiting for the stack to give up on the old one. The subscriptions are
+ * transferred to the new session, or recreated when the transfer fails. The
+ * next attempts are spread out with an exponential backoff with random jitter,
+ * so that many clients that lost their server at the same moment do not
+ * reconnect at the same moment.
+ */
+public class ClientHealthMonitor {
+	private static final MxLogger LOGGER = new MxLogger(ClientHealthMonitor.class);
+
+	private static final ScheduledExecutorService PROBE_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable,
+							"OPC UA Connector health probe " + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	private static final ReadValueId SERVER_STATE = new ReadValueId(Identifiers.Server_ServerStatus_State,
+			AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE);
+
+	private final String name;
+	private final OpcUaClient opcClient;
+	private final Settings settings;
+	private final AtomicLong probeCount = new AtomicLong();
+	private final AtomicLong failedProbeCount = new AtomicLong();
+	private final AtomicLong reconnectAttemptCount = new AtomicLong();
+	private final AtomicLong reconnectCount = new AtomicLong();
+	private final SessionActivityListener sessionActivityListener = new SessionActivityListener() {
+		@Override
+		public void onSessionActive(UaSession session) {
+			isSessionActive = true;
+		}
+
+		@Override
+		public void onSessionInactive(UaSession session) {
+			isSessionActive = false;
+			LOGGER.warn("The session of " + name + " became inactive");
+		}
+	};
+	private volatile int consecutiveFailures = 0;
+	private volatile long lastSuccessfulProbeMillis = 0;
+	private volatile long lastProbeLatencyMs = -1;
+	private volatile boolean isSessionActive = true;
+	private volatile boolean isStopped = false;
+	private volatile ScheduledFuture<?> nextProbe;
+
+	public ClientHealthMonitor(String name, OpcUaClient opcClient, Settings settings) {
+		this.name = name;
+		this.opcClient = opcClient;
+		this.settings = settings.copy();
+	}
+
+	public void start() {
+		opcClient.addSessionActivityListener(sessionActivityListener);
+		scheduleProbe(withJitter(settings.getProbeIntervalMs()));
+	}
+
+	public void stop() {
+		isStopped = true;
+		opcClient.removeSessionActivityListener(sessionActivityListener);
+		ScheduledFuture<?> probe = nextProbe;
+		if (probe != null) {
+			probe.cancel(false);
+		}
+	}
+
+	private void scheduleProbe(long delayMs) {
+		if (!isStopped) {
+			nextProbe = PROBE_SCHEDULER.schedule(this::probe, delayMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void probe() {
+		if (isStopped) {
+			return;
+		}
+		probeCount.incrementAndGet();
+		long startNanos = System.nanoTime();
+		opcClient.read(0, TimestampsToReturn.Neither, Collections.singletonList(SERVER_STATE))
+				.orTimeout(settings.getProbeTimeoutMs(), TimeUnit.MILLISECONDS)
+				.whenComplete((opcReadResponse, error) -> {
+					if (error == null && opcReadResponse.getResults()[0].getStatusCode().isGood()) {
+						onProbeSucceeded(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+					} else {
+						onProbeFailed(error != null ? error.toString()
+								: opcReadResponse.getResults()[0].getStatusCode().toString());
+					}
+				});
+	}
+
+	private void onProbeSucceeded(long latencyMs) {
+		if (consecutiveFailures >= settings.getFailuresBeforeReconnect()) {
+			reconnectCount.incrementAndGet();
+			LOGGER.info("The connection of " + name + " is restored after " + consecutiveFailures + " failed probes");
+		}
+		consecutiveFailures = 0;
+		lastSuccessfulProbeMillis = System.currentTimeMillis();
+		lastProbeLatencyMs = latencyMs;
+		scheduleProbe(withJitter(settings.getProbeIntervalMs()));
+	}
+
+	private void onProbeFailed(String reason) {
+		failedProbeCount.incrementAndGet();
+		int failures = ++consecutiveFailures;
+		if (failures < settings.getFailuresBeforeReconnect()) {
+			LOGGER.debug("Health probe " + failures + " of " + name + " failed because " + reason);
+			scheduleProbe(withJitter(settings.getProbeIntervalMs()));
+			return;
+		}
+		long backoffMs = getBackoffMs(failures - settings.getFailuresBeforeReconnect());
+		reconnectAttemptCount.incrementAndGet();
+		LOGGER.warn("Health probe " + failures + " of " + name + " failed because " + reason
+				+ ". Reconnecting, next attempt in " + backoffMs + " ms");
+		reconnect().whenComplete((connectedClient, error) -> {
+			if (error != null) {
+				LOGGER.debug("Reconnecting " + name + " failed because " + error.getMessage());
+			}
+			scheduleProbe(backoffMs);
+		});
+	}
+
+	/**
+	 * Connecting a client that still has a session returns that session, so the
+	 * client is disconnected first. The next probe is only scheduled when the
+	 * reconnect completed, so reconnects do not overlap.
+	 */
+	private CompletableFuture<?> reconnect() {
+		if (isStopped) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return opcClient.disconnect().orTimeout(settings.getReconnectTimeoutMs(), TimeUnit.MILLISECONDS)
+				.handle((disconnectedClient, error) -> {
+					if (error != null) {
+						LOGGER.debug("Disconnecting " + name + " before reconnecting failed because "
+								+ error.getMessage());
+					}
+					return null;
+				}).thenCompose(ignored -> isStopped ? CompletableFuture.completedFuture(null)
+						: opcClient.connect().orTimeout(settings.getReconnectTimeoutMs(), TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Exponential backoff with jitter: the delay doubles with every attempt up to
+	 * the maximum backoff, and a random value between half and the full delay is
+	 * used.
+	 */
+	private long getBackoffMs(int attempt) {
+		long ceilingMs = Math.min(settings.getMaxBackoffMs(),
+				settings.getInitialBackoffMs() << Math.min(attempt, 20));
+		return ThreadLocalRandom.current().nextLong(ceilingMs / 2, ceilingMs + 1);
+	}
+
+	private static long withJitter(long delayMs) {
+		return delayMs + ThreadLocalRandom.current().nextLong(delayMs / 10 + 1);
+	}
+
+	/**
+	 * @return true if the last probe succeeded and the session is active
+	 */
+	public boolean isHealthy() {
+		return consecutiveFailures == 0 && isSessionActive;
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	public long getLastSuccessfulProbeMillis() {
+		return lastSuccessfulProbeMillis;
+	}
+
+	/** Round-trip time of the last successful probe, -1 if no probe succeeded yet. */
+	public long getLastProbeLatencyMs() {
+		return lastProbeLatencyMs;
+	}
+
+	public long getProbeCount() {
+		return probeCount.get();
+	}
+
+	public long getFailedProbeCount() {
+		return failedProbeCount.get();
+	}
+
+	public long getReconnectAttemptCount() {
+		return reconnectAttemptCount.get();
+	}
+
+	/** Number of times the connection was restored after the monitor reconnected. */
+	public long getReconnectCount() {
+		return reconnectCount.get();
+	}
+
+	/**
+	 * Configuration of the health monitors.
+	 */
+	public static class Settings {
+		private long probeIntervalMs = 10000;
+		private long probeTimeoutMs = 5000;
+		private int failuresBeforeReconnect = 3;
+		private long initialBackoffMs = 1000;
+		private long maxBackoffMs = 60000;
+		private long reconnectTimeoutMs = 30000;
+
+		public long getProbeIntervalMs() {
+			return probeIntervalMs;
+		}
+
+		public Settings setProbeIntervalMs(long probeIntervalMs) {
+			if (probeIntervalMs <= 0) {
+				throw new IllegalArgumentException("Probe interval must be positive");
+			}
+			this.probeIntervalMs = probeIntervalMs;
+			return this;
+		}
+
+		public long getProbeTimeoutMs() {
+			return probeTimeoutMs;
+		}
+
+		public Settings setProbeTimeoutMs(long probeTimeoutMs) {
+			if (probeTimeoutMs <= 0) {
+				throw new IllegalArgumentException("Probe timeout must be positive");
+			}
+			this.probeTimeoutMs = probeTimeoutMs;
+			return this;
+		}
+
+		public int getFailuresBeforeReconnect() {
+			return failuresBeforeReconnect;
+		}
+
+		public Settings setFailuresBeforeReconnect(int failuresBeforeReconnect) {
+			if (failuresBeforeReconnect <= 0) {
+				throw new IllegalArgumentException("Failures before reconnect must be positive");
+			}
+			this.failuresBeforeReconnect = failuresBeforeReconnect;
+			return this;
+		}
+
+		public long getInitialBackoffMs() {
+			return initialBackoffMs;
+		}
+
+		public Settings setInitialBackoffMs(long initialBackoffMs) {
+			if (initialBackoffMs <= 0) {
+				throw new IllegalArgumentException("Initial backoff must be positive");
+			}
+			this.initialBackoffMs = initialBackoffMs;
+			return this;
+		}
+
+		public long getMaxBackoffMs() {
+			return maxBackoffMs;
+		}
+
+		public Settings setMaxBackoffMs(long maxBackoffMs) {
+			if (maxBackoffMs <= 0) {
+				throw new IllegalArgumentException("Maximum backoff must be positive");
+			}
+			this.maxBackoffMs = maxBackoffMs;
+			return this;
+		}
+
+		public long getReconnectTimeoutMs() {
+			return reconnectTimeoutMs;
+		}
+
+		/**
+		 * How long disconnecting and connecting again may take each.
+		 */
+		public Settings setReconnectTimeoutMs(long reconnectTimeoutMs) {
+			if (reconnectTimeoutMs <= 0) {
+				throw new IllegalArgumentException("Reconnect timeout must be positive");
+			}
+			this.reconnectTimeoutMs = reconnectTimeoutMs;
+			return this;
+		}
+
+		private Settings copy() {
+			return new Settings().setProbeIntervalMs(probeIntervalMs).setProbeTimeoutMs(probeTimeoutMs)
+					.setFailuresBeforeReconnect(failuresBeforeReconnect).setInitialBackoffMs(initialBackoffMs)
+					.setMaxBackoffMs(maxBackoffMs).setReconnectTimeoutMs(reconnectTimeoutMs);
+		}
+	}
+}
@@ -1,7 +1,17 @@
 package opcuaconnector.impl;
 
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.sdk.client.api.UaClient;
@@ -14,7 +24,14 @@ import opcuaconnector.proxies.ServerConfiguration;
 public class ClientManager {
 	private static final ClientManager SingletonClientManager = new ClientManager();
 	private static final MxLogger LOGGER = new MxLogger(ClientManager.class);
-	private final ConcurrentHashMap<String, Client> clientCache;
+	public static final int DEFAULT_MAX_REQUESTS_IN_FLIGHT = 4;
+	public static final int DEFAULT_MAX_NODES_PER_REQUEST = 1000;
+	private final ConcurrentHashMap<String, CompletableFuture<Client>> clientCache;
+	private volatile CallbackExecutor.Settings defaultCallbackExecutorSettings = new CallbackExecutor.Settings();
+	private volatile ClientHealthMonitor.Settings healthMonitorSettings = new ClientHealthMonitor.Settings();
+	private volatile boolean isHealthMonitoringEnabled = true;
+	private volatile int sessionPoolSize = 1;
+	private volatile NotificationStoreAndForward.Settings storeAndForwardSettings = null;
 
 	private ClientManager() {
 		this.clientCache = new ConcurrentHashMap<>();
@@ -23,7 +40,50 @@ public class ClientManager {
 	public static ClientManager getInstance() {
 		return SingletonClientManager;
 	}
+
+	/**
+	 * Sets the callback executor settings that are used for clients that are
+	 * created from now on. Use Client.setCallbackExecutorSettings to change an
+	 * existing client.
+	 */
+	public void setDefaultCallbackExecutorSettings(CallbackExecutor.Settings callbackExecutorSettings) {
+		this.defaultCallbackExecutorSettings = requireNonNull(callbackExecutorSettings,
+				"Callback executor settings cannot be empty");
+	}
 	
+	/**
+	 * Sets the health probe and reconnect settings for clients that are created
+	 * from now on.
+	 */
+	public void setHealthMonitorSettings(ClientHealthMonitor.Settings healthMonitorSettings) {
+		this.healthMonitorSettings = requireNonNull(healthMonitorSettings, "Health monitor settings cannot be empty");
+	}
+
+	public void setHealthMonitoringEnabled(boolean isHealthMonitoringEnabled) {
+		this.isHealthMonitoringEnabled = isHealthMonitoringEnabled;
+	}
+
+	/**
+	 * Sets the number of sessions that is opened per server for clients that are
+	 * created from now on. Subscriptions always use the first session, chunked reads
+	 * are spread over all sessions.
+	 */
+	public void setSessionPoolSize(int sessionPoolSize) {
+		if (sessionPoolSize <= 0) {
+			throw new IllegalArgumentException("Session pool size must be positive");
+		}
+		this.sessionPoolSize = sessionPoolSize;
+	}
+
+	/**
+	 * Enables the store and forward of notifications that cannot be committed for
+	 * clients that are created from now on. Empty disables it, which is the
+	 * default.
+	 */
+	public void setStoreAndForwardSettings(NotificationStoreAndForward.Settings storeAndForwardSettings) {
+		this.storeAndForwardSettings = storeAndForwardSettings;
+	}
+
 	private static String generateHashMapId(ServerConfiguration mxServerConfiguration) {
 		return mxServerConfiguration.getMendixObject().getId().toString();
 		//return mxServerConfiguration.getEndpointURL() + mxServerConfiguration.getMessageSecurityMode().getCaption();
@@ -40,17 +100,92 @@ public class ClientManager {
 		OpcUaClient opcClient;
 		String configurationName;
 		ClientSubscriptionManager clientSubscriptionManager;
+		volatile CallbackExecutor callbackExecutor;
+		volatile OperationLimits operationLimits;
+		final DefaultVariantTypeCache defaultVariantTypeCache;
+		final MethodArgumentCache methodArgumentCache = new MethodArgumentCache();
+		final NodeMetadataCache nodeMetadataCache;
+		final RegisteredNodeCache registeredNodeCache;
+		volatile int maxRequestsInFlight = DEFAULT_MAX_REQUESTS_IN_FLIGHT;
+		volatile int maxNodesPerRequest = DEFAULT_MAX_NODES_PER_REQUEST;
+		final List<OpcUaClient> pooledOpcClients = new CopyOnWriteArrayList<>();
+		final List<ClientHealthMonitor> healthMonitors = new CopyOnWriteArrayList<>();
+		final AtomicInteger nextPooledOpcClient = new AtomicInteger();
+		volatile NotificationStoreAndForward storeAndForward;
 
 		private Client(OpcUaClient opcClient, ServerConfiguration mxServerConfiguration) {
 			this.opcClient = opcClient;
 			this.configurationName = mxServerConfiguration.getConfigurationName();
-			this.clientSubscriptionManager = new ClientSubscriptionManager();
+			this.clientSubscriptionManager = new ClientSubscriptionManager(configurationName);
+			this.callbackExecutor = new CallbackExecutor(configurationName, defaultCallbackExecutorSettings);
+			this.nodeMetadataCache = new NodeMetadataCache(opcClient, configurationName);
+			this.defaultVariantTypeCache = new DefaultVariantTypeCache(opcClient);
+			this.pooledOpcClients.add(opcClient);
+			this.registeredNodeCache = new RegisteredNodeCache(this);
 		}
 
 		public OpcUaClient getUaClient() {
 			return opcClient;
 		}
 
+		/**
+		 * Returns the sessions of the pool in turn. Without a pool this is always the
+		 * session of getUaClient.
+		 */
+		public OpcUaClient getPooledUaClient() {
+			return pooledOpcClients
+					.get(Math.floorMod(nextPooledOpcClient.getAndIncrement(), pooledOpcClients.size()));
+		}
+
+		public int getSessionCount() {
+			return pooledOpcClients.size();
+		}
+
+		/**
+		 * @return false if a health probe of one of the sessions failed, or one of the
+		 *         sessions is inactive
+		 */
+		public boolean isHealthy() {
+			return healthMonitors.stream().allMatch(ClientHealthMonitor::isHealthy);
+		}
+
+		public List<ClientHealthMonitor> getHealthMonitors() {
+			return Collections.unmodifiableList(healthMonitors);
+		}
+
+		private void startHealthMonitoring(ClientHealthMonitor.Settings healthMonitorSettings) {
+			for (int i = 0; i < pooledOpcClients.size(); i++) {
+				ClientHealthMonitor healthMonitor = new ClientHealthMonitor(configurationName + " session " + (i + 1),
+						pooledOpcClients.get(i), healthMonitorSettings);
+				healthMonitors.add(healthMonitor);
+				healthMonitor.start();
+			}
+		}
+
+		/**
+		 * Stops the health probes and the store and forward, and closes the extra
+		 * sessions of the pool. The first session is left to the caller.
+		 */
+		private void close() {
+			healthMonitors.forEach(ClientHealthMonitor::stop);
+			if (storeAndForward != null) {
+				storeAndForward.close();
+			}
+			for (OpcUaClient pooledOpcClient : pooledOpcClients) {
+				if (pooledOpcClient != opcClient) {
+					pooledOpcClient.disconnect();
+				}
+			}
+		}
+
+		/**
+		 * @return the store and forward of notifications that cannot be committed, or
+		 *         null when it is not enabled
+		 */
+		public NotificationStoreAndForward getStoreAndForward() {
+			return storeAndForward;
+		}
+
 		public ClientSubscriptionManager getClientSubscriptionManager() {
 			return clientSubscriptionManager;
 		}
@@ -58,10 +193,129 @@ public class ClientManager {
 		public String getConfigurationName() {
 			return configurationName;
 		}
+
+		/**
+		 * Executor on which the monitored item callbacks of this client run, isolated
+		 * from the callbacks of other clients.
+		 */
+		public CallbackExecutor getCallbackExecutor() {
+			return callbackExecutor;
+		}
+
+		/**
+		 * Replaces the callback executor of this client. Callbacks that are still
+		 * queued on the previous executor are moved to the new one, running callbacks
+		 * are completed on the previous one.
+		 */
+		public synchronized void setCallbackExecutorSettings(CallbackExecutor.Settings callbackExecutorSettings) {
+			CallbackExecutor previousCallbackExecutor = callbackExecutor;
+			callbackExecutor = new CallbackExecutor(configurationName, callbackExecutorSettings);
+			previousCallbackExecutor.shutdownAndTransfer(callbackExecutor);
+		}
+
+		/**
+		 * Operation limits of the server, read once per client. When the limits cannot
+		 * be read they are treated as unlimited, and reading is tried again on the next
+		 * call.
+		 */
+		public OperationLimits getOperationLimits() {
+			OperationLimits limits = operationLimits;
+			if (limits != null) {
+				return limits;
+			}
+			synchronized (this) {
+				if (operationLimits == null) {
+					try {
+						operationLimits = OperationLimits.read(opcClient);
+					} catch (CoreException e) {
+						LOGGER.warn("Cannot read the operation limits of " + configurationName
+								+ ". Requests are only split by the client limit of " + maxNodesPerRequest + " nodes");
+						return OperationLimits.UNLIMITED;
+					}
+				}
+				return operationLimits;
+			}
+		}
+
+		/**
+		 * @return the number of operations that fit in a single request of the service
+		 *         the limit applies to
+		 */
+		public int getChunkSize(OperationLimits.Limit limit) {
+			return getOperationLimits().getChunkSize(limit, maxNodesPerRequest);
+		}
+
+		/**
+		 * Data types of the attributes that were written without a variant type.
+		 */
+		public DefaultVariantTypeCache getDefaultVariantTypeCache() {
+			return defaultVariantTypeCache;
+		}
+
+		/**
+		 * Aliases of the nodes that are read and written frequently, valid on the
+		 * session of getUaClient.
+		 */
+		public RegisteredNodeCache getRegisteredNodeCache() {
+			return registeredNodeCache;
+		}
+
+		/**
+		 * Input arguments of the methods that were called.
+		 */
+		public MethodArgumentCache getMethodArgumentCache() {
+			return methodArgumentCache;
+		}
+
+		/**
+		 * Nodes requested through GetNodeDetails.
+		 */
+		public NodeMetadataCache getNodeMetadataCache() {
+			return nodeMetadataCache;
+		}
+
+		public int getMaxRequestsInFlight() {
+			return maxRequestsInFlight;
+		}
+
+		/**
+		 * Sets how many chunks of a split request are sent to the server at the same
+		 * time.
+		 */
+		public void setMaxRequestsInFlight(int maxRequestsInFlight) {
+			if (maxRequestsInFlight <= 0) {
+				throw new IllegalArgumentException("Maximum number of requests in flight must be positive");
+			}
+			this.maxRequestsInFlight = maxRequestsInFlight;
+		}
+
+		public int getMaxNodesPerRequest() {
+			return maxNodesPerRequest;
+		}
+
+		/**
+		 * Sets the maximum number of nodes in a single request, for servers that do not
+		 * publish a lower limit. Keeps very large requests from running into timeouts.
+		 */
+		public void setMaxNodesPerRequest(int maxNodesPerRequest) {
+			if (maxNodesPerRequest <= 0) {
+				throw new IllegalArgumentException("Maximum number of nodes per request must be positive");
+			}
+			this.maxNodesPerRequest = maxNodesPerRequest;
+		}
 	}
 	
 	/**
-	 * To ensure we reuse our client objects and maintain our connection with the server, 
+	 * To ensure we reuse our client objects and maintain our connection with the
+	 * server, clients are cached per server configuration. When several actions ask
+	 * for the same new client at the same time, only one client is created and
+	 * connected, the other actions wait for it.
+	 * 
+	 * The cache holds a future per server configuration. The action that puts the
+	 * future in the cache connects outside of any lock, so creating the clients of
+	 * other server configurations is not held up by a slow connect. When creating
+	 * the client fails the future is removed, so the next call tries again.
+	 * 
 	 * @param mxServerConfiguration
 	 * @param context
 	 * @return
@@ -69,13 +323,112 @@ public class ClientManager {
 	 */
 	public Client getOrCreateClient(ServerConfiguration mxServerConfiguration, IContext context) throws CoreException {
 		String serverConfigurationID = generateHashMapId(mxServerConfiguration);
-		if (clientCache.containsKey(serverConfigurationID)) {
-			return clientCache.get(serverConfigurationID);
+		CompletableFuture<Client> clientFuture = clientCache.get(serverConfigurationID);
+		if (clientFuture == null) {
+			CompletableFuture<Client> newClientFuture = new CompletableFuture<>();
+			clientFuture = clientCache.putIfAbsent(serverConfigurationID, newClientFuture);
+			if (clientFuture == null) {
+				return createCachedClient(serverConfigurationID, newClientFuture, mxServerConfiguration, context);
+			}
+		}
+		return awaitClient(clientFuture);
+	}
+
+	private Client createCachedClient(String serverConfigurationID, CompletableFuture<Client> clientFuture,
+			ServerConfiguration mxServerConfiguration, IContext context) throws CoreException {
+		try {
+			Client newClient = createClient(mxServerConfiguration, context);
+			clientFuture.complete(newClient);
+			return newClient;
+		} catch (CoreException | RuntimeException e) {
+			clientCache.remove(serverConfigurationID, clientFuture);
+			clientFuture.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private Client awaitClient(CompletableFuture<Client> clientFuture) throws CoreException {
+		try {
+			return clientFuture.get();
+		} catch (InterruptedException e) {
+			LOGGER.error("Cannot wait for the client to connect, because the thread was interrupted. The error is "
+					+ e.getMessage());
+			Thread.currentThread().interrupt();
+			throw new CoreException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CoreException) {
+				throw (CoreException) e.getCause();
+			}
+			throw new CoreException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return the client if it is connected, or null if it is still being created
+	 *         or could not be created
+	 */
+	private static Client getIfCreated(CompletableFuture<Client> clientFuture) {
+		return clientFuture != null && clientFuture.isDone() && !clientFuture.isCompletedExceptionally()
+				? clientFuture.join()
+				: null;
+	}
+
+	/**
+	 * @return the clients that are currently connected
+	 */
+	public Collection<Client> getClients() {
+		return Collections.unmodifiableList(clientCache.values().stream().map(ClientManager::getIfCreated)
+				.filter(client -> client != null).collect(Collectors.toList()));
+	}
+
+	/**
+	 * @return the client of the server configuration, or null if it was not
+	 *         created yet
+	 */
+	public Client getClient(ServerConfiguration mxServerConfiguration) {
+		return getIfCreated(clientCache.get(generateHashMapId(mxServerConfiguration)));
+	}
+
+	private Client createClient(ServerConfiguration mxServerConfiguration, IContext context) throws CoreException {
+		OpcUaClient opcClient = new ClientBuilder(mxServerConfiguration, context).build();
+		try {
+			miloConnect(opcClient);
+		} catch (CoreException e) {
+			if (!EndpointDiscoveryCache.isEndpointMismatch(e)) {
+				throw e;
+			}
+			LOGGER.info("The endpoint of " + mxServerConfiguration.getEndpointURL()
+					+ " no longer matches the server, connecting again with newly discovered endpoints");
+			EndpointDiscoveryCache.getInstance().invalidate(mxServerConfiguration.getEndpointURL());
+			opcClient = new ClientBuilder(mxServerConfiguration, context).build();
+			miloConnect(opcClient);
 		}
-		Client newOpcClient = new Client(new ClientBuilder(mxServerConfiguration, context).build(), mxServerConfiguration);
-		miloConnect(newOpcClient.getUaClient());
-		clientCache.put(serverConfigurationID, newOpcClient);
-		return newOpcClient;
+		Client newClient = new Client(opcClient, mxServerConfiguration);
+		for (int i = 1; i < sessionPoolSize; i++) {
+			try {
+				OpcUaClient pooledOpcClient = new ClientBuilder(mxServerConfiguration, context).build();
+				miloConnect(pooledOpcClient);
+				newClient.pooledOpcClients.add(pooledOpcClient);
+			} catch (CoreException e) {
+				LOGGER.warn("Cannot open session " + (i + 1) + " of " + sessionPoolSize + " for "
+						+ newClient.getConfigurationName() + ". Continuing with "
+						+ newClient.getSessionCount() + " sessions. The error is " + e.getMessage());
+			}
+		}
+		if (isHealthMonitoringEnabled) {
+			newClient.startHealthMonitoring(healthMonitorSettings);
+		}
+		NotificationStoreAndForward.Settings currentStoreAndForwardSettings = storeAndForwardSettings;
+		if (currentStoreAndForwardSettings != null) {
+			try {
+				newClient.storeAndForward = new NotificationStoreAndForward(newClient,
+						currentStoreAndForwardSettings);
+			} catch (IOException e) {
+				LOGGER.error("Cannot create the store and forward spool of " + newClient.getConfigurationName()
+						+ ", notifications that cannot be committed are lost. The error is " + e.getMessage());
+			}
+		}
+		return newClient;
 	}
 
 	/**
@@ -141,27 +494,48 @@ public class ClientManager {
 
 	public void deleteClient(ServerConfiguration mxServerConfiguration) {
 		String serverConfigurationID = generateHashMapId(mxServerConfiguration);
-		if (clientCache.isEmpty() || clientCache.containsKey(serverConfigurationID) == false) {
+		if (!deleteClientFromHashMap(serverConfigurationID, true)) {
 			LOGGER.debug(
 					"Cannot delete client from memory as the client with id: " + serverConfigurationID + "as it is not present in the cache.");
-			return;
-		}
-		OpcUaClient opcClient = clientCache.get(serverConfigurationID).getUaClient();
-		deleteClientFromHashMap(serverConfigurationID);
-		try {
-			miloDisconnect(opcClient);
-		} catch (CoreException e) {	
-			//Suppress error
 		}
 	}
 	
 
 	public void deleteAllClients() {
-		clientCache.forEach((severConfigurationID, client) -> deleteClientFromHashMap(severConfigurationID));
+		clientCache.keySet().forEach(severConfigurationID -> deleteClientFromHashMap(severConfigurationID, false));
 	}
 
-	private void deleteClientFromHashMap(String key) {
-		clientCache.remove(key);
+	/**
+	 * A client that is still being created is closed as soon as it is connected.
+	 * 
+	 * @return false if there was no client for the key
+	 */
+	private boolean deleteClientFromHashMap(String key, boolean isDisconnecting) {
+		CompletableFuture<Client> removedClientFuture = clientCache.remove(key);
+		if (removedClientFuture == null) {
+			return false;
+		}
+		removedClientFuture.whenComplete((removedClient, creationError) -> {
+			if (creationError != null) {
+				LOGGER.debug("Removed client with id: " + key + " was not created because " + creationError.getMessage());
+				return;
+			}
+			try {
+				removedClient.getClientSubscriptionManager().removeAllSubscriptions();
+				removedClient.getCallbackExecutor().shutdown();
+				removedClient.getNodeMetadataCache().stop();
+				removedClient.getDefaultVariantTypeCache().stop();
+				removedClient.getRegisteredNodeCache().stop();
+				removedClient.close();
+				ConnectorMetrics.getInstance().remove(removedClient.getConfigurationName());
+				if (isDisconnecting) {
+					miloDisconnect(removedClient.getUaClient());
+				}
+			} catch (CoreException | RuntimeException e) {
+				LOGGER.warn("Cannot close the removed client with id: " + key + " cleanly because " + e.getMessage());
+			}
+		});
 		LOGGER.info("Removed client with id: " + key);
+		return true;
 	}
 }
@@ -1,19 +1,39 @@
 package opcuaconnector.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
 import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
+import opcuaconnector.impl.NotificationBatcher.Notification;
+import opcuaconnector.impl.OpcMonitoredItemServiceSet.DeliveryMode;
 import opcuaconnector.proxies.MonitoredItem;
 
+/**
+ * Keeps the subscriptions of a client and their monitored items, keyed by
+ * subscription id. Monitored items can also be found by the node they monitor.
+ */
 public class ClientSubscriptionManager {
-	private ConcurrentHashMap<UInteger, MonitoredItemManager> monitoredItemManagerList = new ConcurrentHashMap<>(); 
+	private final String configurationName;
+	private final ConcurrentHashMap<UInteger, MonitoredItemManager> monitoredItemManagerList = new ConcurrentHashMap<>(); 
+	private final ConcurrentHashMap<UInteger, UInteger> subscriptionIdAliases = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<NodeId, Set<UaMonitoredItem>> opcMonitoredItemsPerNode = new ConcurrentHashMap<>();
+
+	public ClientSubscriptionManager(String configurationName) {
+		this.configurationName = configurationName;
+	}
 	
 	public void addMonitoredItem(UaSubscription opcSubscription, UaMonitoredItem opcMonitoredItem) {
 		MonitoredItemManager monitoredItemManager = getOrCreateMonitoredItemManager(opcSubscription);
@@ -30,46 +50,145 @@ public class ClientSubscriptionManager {
 	}
 	
 	public void removeSubscription(UInteger subscriptionId) {
-		monitoredItemManagerList.remove(subscriptionId);
+		UInteger resolvedSubscriptionId = resolveSubscriptionId(subscriptionId);
+		subscriptionIdAliases.values().removeIf(resolvedSubscriptionId::equals);
+		MonitoredItemManager removedMonitoredItemManager = monitoredItemManagerList.remove(resolvedSubscriptionId);
+		if (removedMonitoredItemManager != null) {
+			removedMonitoredItemManager.removeAllFromNodeIndex();
+			removedMonitoredItemManager.stopNotificationDelivery();
+		}
+		ConnectorMetrics.getInstance().removeSubscription(configurationName, resolvedSubscriptionId);
+	}
+
+	public void removeAllSubscriptions() {
+		monitoredItemManagerList.keySet().forEach(this::removeSubscription);
 	}
 
 	public MonitoredItemManager getOrCreateMonitoredItemManager(UaSubscription opcSubscription) {
-		if (monitoredItemManagerList.getOrDefault(opcSubscription.getSubscriptionId(), null) != null) {
-			return monitoredItemManagerList.get(opcSubscription.getSubscriptionId());
-		}
-		MonitoredItemManager newMonitoredItemManager = new MonitoredItemManager(opcSubscription);
-		monitoredItemManagerList.put(opcSubscription.getSubscriptionId(), newMonitoredItemManager);
-		return newMonitoredItemManager;
+		return monitoredItemManagerList.computeIfAbsent(opcSubscription.getSubscriptionId(),
+				subscriptionId -> new MonitoredItemManager(opcSubscription));
 	}
 	
 	public MonitoredItemManager getMonitoredItemManager(UInteger subscriptionID) {
-		Optional<MonitoredItemManager> optionalMonitoredItemManager = getAllSubscriptions().stream()
-				.filter(t -> t.getOpcSubscription().getSubscriptionId().equals(subscriptionID))
-				.findFirst();
-		if (!optionalMonitoredItemManager.isPresent()) {
-			throw new NullPointerException("Subscription with ID " + subscriptionID
-					+ " is not initialized and can therefore not be used");
+		return findMonitoredItemManager(subscriptionID).orElseThrow(() -> new NullPointerException(
+				"Subscription with ID " + subscriptionID + " is not initialized and can therefore not be used"));
+	}
+
+	public Optional<MonitoredItemManager> findMonitoredItemManager(UInteger subscriptionID) {
+		if (subscriptionID == null) {
+			return Optional.empty();
 		}
-		return optionalMonitoredItemManager.get();
+		return Optional.ofNullable(monitoredItemManagerList.get(resolveSubscriptionId(subscriptionID)));
+	}
+
+	/**
+	 * @return the monitored items of all subscriptions that monitor the node
+	 */
+	public List<UaMonitoredItem> getOpcMonitoredItems(NodeId opcNodeId) {
+		Set<UaMonitoredItem> opcMonitoredItems = opcMonitoredItemsPerNode.get(opcNodeId);
+		return opcMonitoredItems != null ? new ArrayList<>(opcMonitoredItems) : Collections.emptyList();
+	}
+
+	private void addToNodeIndex(UaMonitoredItem opcMonitoredItem) {
+		opcMonitoredItemsPerNode
+				.computeIfAbsent(opcMonitoredItem.getReadValueId().getNodeId(), nodeId -> ConcurrentHashMap.newKeySet())
+				.add(opcMonitoredItem);
+	}
+
+	private void removeFromNodeIndex(UaMonitoredItem opcMonitoredItem) {
+		opcMonitoredItemsPerNode.computeIfPresent(opcMonitoredItem.getReadValueId().getNodeId(),
+				(nodeId, opcMonitoredItems) -> {
+					opcMonitoredItems.remove(opcMonitoredItem);
+					return opcMonitoredItems.isEmpty() ? null : opcMonitoredItems;
+				});
+	}
+
+	/**
+	 * Returns the id of the subscription that replaced the subscription with this
+	 * id, or the id itself if it was not replaced. The Mendix model keeps the id
+	 * the subscription was created with.
+	 */
+	public UInteger resolveSubscriptionId(UInteger subscriptionId) {
+		return subscriptionId != null ? subscriptionIdAliases.getOrDefault(subscriptionId, subscriptionId) : null;
+	}
+
+	/**
+	 * Prepares the subscription that replaces a subscription that is lost on the
+	 * server. The new subscription takes over the batcher and slot map of the lost
+	 * one, so the notifications that are still pending are delivered as before.
+	 * Requests for the old subscription id keep going to the lost subscription
+	 * until the replacement is completed with replaceSubscription, or undone with
+	 * cancelReplacement.
+	 * 
+	 * @return the monitored item manager of the new subscription, without monitored
+	 *         items
+	 */
+	public MonitoredItemManager prepareReplacement(MonitoredItemManager replacedMonitoredItemManager,
+			UaSubscription newOpcSubscription) {
+		MonitoredItemManager newMonitoredItemManager = getOrCreateMonitoredItemManager(newOpcSubscription);
+		newMonitoredItemManager.takeOverNotificationDelivery(replacedMonitoredItemManager);
+		return newMonitoredItemManager;
+	}
+
+	/**
+	 * Gives the batcher and slot map back to the lost subscription and forgets the
+	 * new subscription, after its monitored items could not be created.
+	 */
+	public void cancelReplacement(MonitoredItemManager replacedMonitoredItemManager,
+			MonitoredItemManager newMonitoredItemManager) {
+		replacedMonitoredItemManager.takeOverNotificationDelivery(newMonitoredItemManager);
+		monitoredItemManagerList.remove(newMonitoredItemManager.getOpcSubscription().getSubscriptionId(),
+				newMonitoredItemManager);
+		newMonitoredItemManager.removeAllFromNodeIndex();
+	}
+
+	/**
+	 * Completes a replacement prepared with prepareReplacement: requests for the
+	 * old subscription id are directed to the new subscription.
+	 */
+	public void replaceSubscription(MonitoredItemManager replacedMonitoredItemManager,
+			MonitoredItemManager newMonitoredItemManager) {
+		UInteger replacedSubscriptionId = replacedMonitoredItemManager.getOpcSubscription().getSubscriptionId();
+		UInteger newSubscriptionId = newMonitoredItemManager.getOpcSubscription().getSubscriptionId();
+		subscriptionIdAliases.replaceAll((subscriptionId, aliasedSubscriptionId) -> replacedSubscriptionId
+				.equals(aliasedSubscriptionId) ? newSubscriptionId : aliasedSubscriptionId);
+		subscriptionIdAliases.put(replacedSubscriptionId, newSubscriptionId);
+		monitoredItemManagerList.remove(replacedSubscriptionId);
+		replacedMonitoredItemManager.removeAllFromNodeIndex();
+		ConnectorMetrics.getInstance().removeSubscription(configurationName, replacedSubscriptionId);
 	}
 
 	public class MonitoredItemManager {
-		private UaSubscription opcSubscription;
-		private ConcurrentHashMap<UInteger, UaMonitoredItem> opcMonitoredItemList = new ConcurrentHashMap<>();
+		private final UaSubscription opcSubscription;
+		private final ConcurrentHashMap<UInteger, UaMonitoredItem> opcMonitoredItemList = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<UInteger, UaMonitoredItem> opcMonitoredItemsPerClientHandle = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<UInteger, MonitoredItemDefinition> monitoredItemDefinitions = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<UInteger, UInteger> monitoredItemIdAliases = new ConcurrentHashMap<>();
+		private NotificationBatcher notificationBatcher;
+		private LatestValueSlotMap latestValueSlotMap;
+		private volatile DeliveryMode defaultDeliveryMode;
 
 		private MonitoredItemManager(UaSubscription opcSubscription) {
 			this.opcSubscription = opcSubscription;
 		}
 		
 		private void addMonitoredItem(UaMonitoredItem opcMonitoredItem) {
-			if (opcMonitoredItemList.getOrDefault(opcMonitoredItem.getMonitoredItemId(), null) == null) {
-				opcMonitoredItemList.put(opcMonitoredItem.getMonitoredItemId(), opcMonitoredItem);
+			if (opcMonitoredItemList.putIfAbsent(opcMonitoredItem.getMonitoredItemId(), opcMonitoredItem) == null) {
+				opcMonitoredItemsPerClientHandle.put(opcMonitoredItem.getClientHandle(), opcMonitoredItem);
+				addToNodeIndex(opcMonitoredItem);
 			}
 		}
 
 		private void removeMonitoredItem(MonitoredItem mxMonitoredItem) {
-			if (opcMonitoredItemList.getOrDefault(uint(mxMonitoredItem.get_MonitoredItemID()), null) != null) {
-				opcMonitoredItemList.remove(uint(mxMonitoredItem.get_MonitoredItemID()));
+			UInteger monitoredItemId = resolveMonitoredItemId(uint(mxMonitoredItem.get_MonitoredItemID()));
+			monitoredItemIdAliases.values().removeIf(monitoredItemId::equals);
+			monitoredItemDefinitions.remove(monitoredItemId);
+			UaMonitoredItem removedOpcMonitoredItem = opcMonitoredItemList.remove(monitoredItemId);
+			if (removedOpcMonitoredItem != null) {
+				opcMonitoredItemsPerClientHandle.remove(removedOpcMonitoredItem.getClientHandle());
+				removeFromNodeIndex(removedOpcMonitoredItem);
+				getLatestValueSlotMap()
+						.ifPresent(slotMap -> slotMap.removeSlot(removedOpcMonitoredItem.getClientHandle()));
 			}
 		}
 		
@@ -80,6 +199,126 @@ public class ClientSubscriptionManager {
 		public List<UaMonitoredItem> getOpcMonitoredItems(){
 			return new ArrayList<>(opcMonitoredItemList.values());
 		}
+
+		/**
+		 * @param monitoredItemId id of the monitored item, or of the monitored item
+		 *                        it replaced
+		 */
+		public Optional<UaMonitoredItem> getOpcMonitoredItem(UInteger monitoredItemId) {
+			return Optional.ofNullable(opcMonitoredItemList.get(resolveMonitoredItemId(monitoredItemId)));
+		}
+
+		public Optional<UaMonitoredItem> getOpcMonitoredItemByClientHandle(UInteger clientHandle) {
+			return Optional.ofNullable(opcMonitoredItemsPerClientHandle.get(clientHandle));
+		}
+
+		private void removeAllFromNodeIndex() {
+			opcMonitoredItemList.values().forEach(ClientSubscriptionManager.this::removeFromNodeIndex);
+		}
+
+		/**
+		 * Remembers how the monitored item was created, so it can be created again
+		 * when the subscription is lost.
+		 */
+		public void putMonitoredItemDefinition(UInteger monitoredItemId, MonitoredItemDefinition definition) {
+			monitoredItemDefinitions.put(monitoredItemId, definition);
+		}
+
+		public Map<UInteger, MonitoredItemDefinition> getMonitoredItemDefinitions() {
+			return new HashMap<>(monitoredItemDefinitions);
+		}
+
+		/**
+		 * Returns the id of the monitored item that replaced the monitored item with
+		 * this id, or the id itself if it was not replaced.
+		 */
+		public UInteger resolveMonitoredItemId(UInteger monitoredItemId) {
+			return monitoredItemIdAliases.getOrDefault(monitoredItemId, monitoredItemId);
+		}
+
+		/**
+		 * Directs requests for the replaced monitored item id, and for the ids it
+		 * replaced itself, to the new monitored item.
+		 */
+		public void replaceMonitoredItemId(MonitoredItemManager replacedMonitoredItemManager,
+				UInteger replacedMonitoredItemId, UInteger newMonitoredItemId) {
+			replacedMonitoredItemManager.monitoredItemIdAliases.forEach((monitoredItemId, aliasedMonitoredItemId) -> {
+				if (replacedMonitoredItemId.equals(aliasedMonitoredItemId)) {
+					monitoredItemIdAliases.put(monitoredItemId, newMonitoredItemId);
+				}
+			});
+			monitoredItemIdAliases.put(replacedMonitoredItemId, newMonitoredItemId);
+		}
+
+		/**
+		 * Returns the batcher that collects the notifications of all batched monitored
+		 * items of this subscription. The batcher is created on first use, the batch
+		 * consumer and executor supplier are only used at that moment.
+		 */
+		public synchronized NotificationBatcher getOrCreateNotificationBatcher(
+				Consumer<List<Notification>> batchConsumer, Supplier<CallbackExecutor> callbackExecutorSupplier) {
+			if (notificationBatcher == null) {
+				notificationBatcher = new NotificationBatcher("subscription " + opcSubscription.getSubscriptionId(),
+						batchConsumer, callbackExecutorSupplier);
+			}
+			return notificationBatcher;
+		}
+
+		public synchronized Optional<NotificationBatcher> getNotificationBatcher() {
+			return Optional.ofNullable(notificationBatcher);
+		}
+
+		/**
+		 * Returns the slot map that holds the latest value of all monitored items of
+		 * this subscription that use the LATEST_VALUE delivery mode. The slot map is
+		 * created on first use.
+		 */
+		public synchronized LatestValueSlotMap getOrCreateLatestValueSlotMap(
+				Consumer<List<Notification>> batchConsumer, Supplier<CallbackExecutor> callbackExecutorSupplier) {
+			if (latestValueSlotMap == null) {
+				latestValueSlotMap = new LatestValueSlotMap("subscription " + opcSubscription.getSubscriptionId(),
+						batchConsumer, callbackExecutorSupplier);
+			}
+			return latestValueSlotMap;
+		}
+
+		public synchronized Optional<LatestValueSlotMap> getLatestValueSlotMap() {
+			return Optional.ofNullable(latestValueSlotMap);
+		}
+
+		/**
+		 * Delivery mode for monitored items that are created without an explicit
+		 * delivery mode, for example through the CreateMonitoredItems action. Empty
+		 * means the mode is derived from the microflow.
+		 */
+		public DeliveryMode getDefaultDeliveryMode() {
+			return defaultDeliveryMode;
+		}
+
+		public void setDefaultDeliveryMode(DeliveryMode defaultDeliveryMode) {
+			this.defaultDeliveryMode = defaultDeliveryMode;
+		}
+
+		private synchronized void takeOverNotificationDelivery(MonitoredItemManager replacedMonitoredItemManager) {
+			synchronized (replacedMonitoredItemManager) {
+				notificationBatcher = replacedMonitoredItemManager.notificationBatcher;
+				latestValueSlotMap = replacedMonitoredItemManager.latestValueSlotMap;
+				replacedMonitoredItemManager.notificationBatcher = null;
+				replacedMonitoredItemManager.latestValueSlotMap = null;
+			}
+			defaultDeliveryMode = replacedMonitoredItemManager.defaultDeliveryMode;
+		}
+
+		private synchronized void stopNotificationDelivery() {
+			if (notificationBatcher != null) {
+				notificationBatcher.stop();
+				notificationBatcher = null;
+			}
+			if (latestValueSlotMap != null) {
+				latestValueSlotMap.stop();
+				latestValueSlotMap = null;
+			}
+		}
 	}
 
 }
@@ -0,0 +1,196 @@
+package opcuaconnector.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+import opcuaconnector.proxies.ServerConfiguration;
+import opcuaconnector.proxies.Subscription;
+
+/**
+ * Connects all server configurations at once, for instance from the after
+ * startup microflow, so that the first action after a deploy does not have to
+ * wait for discovery, the secure channel and the session. The persisted
+ * subscriptions of every server are recreated with the same microflow that
+ * recreates a subscription after a failed transfer.
+ *
+ * At most maxParallelConnects servers are connected at the same time. Every
+ * server has its own system context, a failing server does not stop the
+ * others.
+ */
+public class ClientWarmStarter {
+	private static final MxLogger LOGGER = new MxLogger(ClientWarmStarter.class);
+	private static final String MICROFLOW_TO_RECREATE = "OPCUAConnector.PRIVATE_Subscription_Recreate";
+	private static final int DEFAULT_MAX_PARALLEL_CONNECTS = 8;
+
+	private final int maxParallelConnects;
+
+	public ClientWarmStarter() {
+		this(DEFAULT_MAX_PARALLEL_CONNECTS);
+	}
+
+	public ClientWarmStarter(int maxParallelConnects) {
+		if (maxParallelConnects <= 0) {
+			throw new IllegalArgumentException("Maximum parallel connects must be positive");
+		}
+		this.maxParallelConnects = maxParallelConnects;
+	}
+
+	/**
+	 * Connects all server configurations and recreates their subscriptions.
+	 *
+	 * @return the result per server configuration, in the order of the query
+	 * @throws CoreException when the server configurations cannot be retrieved, or
+	 *                       the thread was interrupted while waiting
+	 */
+	public List<Result> warmStart(IContext context) throws CoreException {
+		List<IMendixObject> mxServerConfigurationList = Core
+				.createXPathQuery("//" + ServerConfiguration.entityName).execute(context);
+		LOGGER.info("Warm starting " + mxServerConfigurationList.size() + " server configurations with at most "
+				+ maxParallelConnects + " parallel connects");
+		long startNanos = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(maxParallelConnects, mxServerConfigurationList.size())),
+				new ThreadFactoryWithName());
+		try {
+			List<Future<Result>> futureList = new ArrayList<>();
+			for (IMendixObject mxServerConfiguration : mxServerConfigurationList) {
+				futureList.add(executor.submit(() -> warmStartServer(mxServerConfiguration, startNanos)));
+			}
+			List<Result> resultList = new ArrayList<>();
+			for (Future<Result> future : futureList) {
+				resultList.add(future.get());
+			}
+			long readyCount = resultList.stream().filter(Result::isReady).count();
+			LOGGER.info("Warm start connected " + readyCount + " of " + resultList.size()
+					+ " server configurations in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+					+ " ms");
+			return resultList;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.error("Cannot finish the warm start because the thread was interrupted. The error is " + e);
+			throw new CoreException(e);
+		} catch (ExecutionException e) {
+			LOGGER.error("Cannot finish the warm start because " + e.getCause());
+			throw new CoreException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Result warmStartServer(IMendixObject mxServerConfigurationObject, long startNanos) {
+		IContext context = Core.createSystemContext();
+		ServerConfiguration mxServerConfiguration = ServerConfiguration.initialize(context,
+				mxServerConfigurationObject);
+		String configurationName = mxServerConfiguration.getConfigurationName();
+		try {
+			ClientManager.getInstance().getOrCreateClient(mxServerConfiguration, context);
+			long connectedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+			List<IMendixObject> mxSubscriptionList = Core
+					.createXPathQuery("//" + Subscription.entityName + "["
+							+ Subscription.MemberNames.Subscription_ServerConfiguration.toString() + "="
+							+ mxServerConfigurationObject.getId().toLong() + "]")
+					.execute(context);
+			int recreatedCount = 0;
+			for (IMendixObject mxSubscription : mxSubscriptionList) {
+				try {
+					Core.microflowCall(MICROFLOW_TO_RECREATE).withParam("Subscription", mxSubscription)
+							.execute(context);
+					recreatedCount++;
+				} catch (Exception e) {
+					LOGGER.warn("Cannot recreate a subscription of " + configurationName + " during warm start because "
+							+ e.getMessage());
+				}
+			}
+			long readyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+			LOGGER.info("Server configuration " + configurationName + " is ready after " + readyMs
+					+ " ms, connected after " + connectedMs + " ms, recreated " + recreatedCount + " of "
+					+ mxSubscriptionList.size() + " subscriptions");
+			return new Result(configurationName, true, connectedMs, readyMs, recreatedCount,
+					mxSubscriptionList.size(), null);
+		} catch (Exception e) {
+			long failedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+			LOGGER.error("Cannot warm start server configuration " + configurationName + " after " + failedMs
+					+ " ms because " + e.getMessage());
+			return new Result(configurationName, false, -1, failedMs, 0, 0, e.getMessage());
+		}
+	}
+
+	private static class ThreadFactoryWithName implements ThreadFactory {
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "OPC UA Connector warm start " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * Outcome of the warm start of one server configuration. The times are
+	 * measured from the start of the warm start, so they include the time the
+	 * server waited for a free connect slot.
+	 */
+	public static class Result {
+		private final String configurationName;
+		private final boolean isReady;
+		private final long connectedMs;
+		private final long timeToReadyMs;
+		private final int recreatedSubscriptionCount;
+		private final int subscriptionCount;
+		private final String errorMessage;
+
+		private Result(String configurationName, boolean isReady, long connectedMs, long timeToReadyMs,
+				int recreatedSubscriptionCount, int subscriptionCount, String errorMessage) {
+			this.configurationName = configurationName;
+			this.isReady = isReady;
+			this.connectedMs = connectedMs;
+			this.timeToReadyMs = timeToReadyMs;
+			this.recreatedSubscriptionCount = recreatedSubscriptionCount;
+			this.subscriptionCount = subscriptionCount;
+			this.errorMessage = errorMessage;
+		}
+
+		public String getConfigurationName() {
+			return configurationName;
+		}
+
+		public boolean isReady() {
+			return isReady;
+		}
+
+		/** Time until the client was connected, -1 if connecting failed. */
+		public long getConnectedMs() {
+			return connectedMs;
+		}
+
+		/** Time until the subscriptions were recreated, or until the warm start failed. */
+		public long getTimeToReadyMs() {
+			return timeToReadyMs;
+		}
+
+		public int getRecreatedSubscriptionCount() {
+			return recreatedSubscriptionCount;
+		}
+
+		public int getSubscriptionCount() {
+			return subscriptionCount;
+		}
+
+		public String getErrorMessage() {
+			return errorMessage;
+		}
+	}
+}
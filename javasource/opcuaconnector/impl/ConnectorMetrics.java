@@ -0,0 +1,282 @@
+package opcuaconnector.impl;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+
+import opcuaconnector.impl.ClientManager.Client;
+
+/**
+ * Collects the metrics of the connector per server configuration: the latency
+ * of the read, write, browse and history read requests, the number of
+ * notifications and the time the microflows take per subscription. The state of
+ * the clients, such as reconnects and queue depths, is read from the clients
+ * when the metrics are written.
+ *
+ * The metrics can be read through this class, or in the Prometheus text format
+ * through {@link MetricsRequestHandler}.
+ */
+public class ConnectorMetrics {
+	private static final ConnectorMetrics INSTANCE = new ConnectorMetrics();
+
+	/** Upper bounds of the latency buckets, in seconds. */
+	private static final double[] BUCKET_BOUNDS_SECONDS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25,
+			0.5, 1, 2.5, 5, 10 };
+
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, LatencyHistogram>> requestLatencies = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, ConcurrentHashMap<UInteger, LongAdder>> notificationCounts = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, ConcurrentHashMap<UInteger, LatencyHistogram>> callbackLatencies = new ConcurrentHashMap<>();
+
+	private ConnectorMetrics() {
+	}
+
+	public static ConnectorMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param operation  name of the service, for instance read or browse
+	 * @param startNanos System.nanoTime() when the request was sent
+	 */
+	public void recordRequest(String configurationName, String operation, long startNanos) {
+		requestLatencies.computeIfAbsent(configurationName, key -> new ConcurrentHashMap<>())
+				.computeIfAbsent(operation, key -> new LatencyHistogram()).record(System.nanoTime() - startNanos);
+	}
+
+	public void recordNotification(String configurationName, UInteger subscriptionId) {
+		notificationCounts.computeIfAbsent(configurationName, key -> new ConcurrentHashMap<>())
+				.computeIfAbsent(subscriptionId, key -> new LongAdder()).increment();
+	}
+
+	/**
+	 * @param startNanos System.nanoTime() when the microflows were started
+	 */
+	public void recordCallback(String configurationName, UInteger subscriptionId, long startNanos) {
+		callbackLatencies.computeIfAbsent(configurationName, key -> new ConcurrentHashMap<>())
+				.computeIfAbsent(subscriptionId, key -> new LatencyHistogram()).record(System.nanoTime() - startNanos);
+	}
+
+	public Optional<LatencyHistogram> getRequestLatency(String configurationName, String operation) {
+		return Optional.ofNullable(requestLatencies.get(configurationName)).map(latencies -> latencies.get(operation));
+	}
+
+	public long getNotificationCount(String configurationName, UInteger subscriptionId) {
+		return Optional.ofNullable(notificationCounts.get(configurationName)).map(counts -> counts.get(subscriptionId))
+				.map(LongAdder::sum).orElse(0L);
+	}
+
+	public Optional<LatencyHistogram> getCallbackLatency(String configurationName, UInteger subscriptionId) {
+		return Optional.ofNullable(callbackLatencies.get(configurationName))
+				.map(latencies -> latencies.get(subscriptionId));
+	}
+
+	/**
+	 * Forgets the metrics of a server configuration, for instance after it was
+	 * deleted.
+	 */
+	public void remove(String configurationName) {
+		requestLatencies.remove(configurationName);
+		notificationCounts.remove(configurationName);
+		callbackLatencies.remove(configurationName);
+	}
+
+	/**
+	 * Forgets the metrics of a subscription, after it was deleted or replaced by a
+	 * recreated subscription.
+	 */
+	public void removeSubscription(String configurationName, UInteger subscriptionId) {
+		Optional.ofNullable(notificationCounts.get(configurationName)).ifPresent(counts -> counts.remove(subscriptionId));
+		Optional.ofNullable(callbackLatencies.get(configurationName))
+				.ifPresent(latencies -> latencies.remove(subscriptionId));
+	}
+
+	public void clear() {
+		requestLatencies.clear();
+		notificationCounts.clear();
+		callbackLatencies.clear();
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text exposition format.
+	 */
+	public String toPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		writeType(text, "opcua_request_duration_seconds", "histogram",
+				"Duration of the requests to the server, per service");
+		for (Entry<String, ConcurrentHashMap<String, LatencyHistogram>> server : sorted(requestLatencies)) {
+			for (Entry<String, LatencyHistogram> operation : sorted(server.getValue())) {
+				operation.getValue().write(text, "opcua_request_duration_seconds",
+						"server=\"" + escape(server.getKey()) + "\",operation=\"" + escape(operation.getKey()) + "\"");
+			}
+		}
+		writeType(text, "opcua_notifications_total", "counter", "Notifications received, per subscription");
+		for (Entry<String, ConcurrentHashMap<UInteger, LongAdder>> server : sorted(notificationCounts)) {
+			for (Entry<UInteger, LongAdder> subscription : sorted(server.getValue())) {
+				writeSample(text, "opcua_notifications_total", subscriptionLabels(server.getKey(), subscription.getKey()),
+						subscription.getValue().sum());
+			}
+		}
+		writeType(text, "opcua_callback_duration_seconds", "histogram",
+				"Duration of the transactions that call the microflows of a subscription");
+		for (Entry<String, ConcurrentHashMap<UInteger, LatencyHistogram>> server : sorted(callbackLatencies)) {
+			for (Entry<UInteger, LatencyHistogram> subscription : sorted(server.getValue())) {
+				subscription.getValue().write(text, "opcua_callback_duration_seconds",
+						subscriptionLabels(server.getKey(), subscription.getKey()));
+			}
+		}
+		writeClientMetrics(text);
+		return text.toString();
+	}
+
+	private void writeClientMetrics(StringBuilder text) {
+		Map<String, Client> clients = new TreeMap<>();
+		for (Client client : ClientManager.getInstance().getClients()) {
+			clients.put(client.getConfigurationName(), client);
+		}
+		writeType(text, "opcua_reconnects_total", "counter", "Reconnects by the health monitor");
+		for (Client client : clients.values()) {
+			writeSample(text, "opcua_reconnects_total", serverLabels(client), client.getHealthMonitors().stream()
+					.mapToLong(ClientHealthMonitor::getReconnectCount).sum());
+		}
+		writeType(text, "opcua_sessions_healthy", "gauge", "1 if all sessions of the server are healthy");
+		for (Client client : clients.values()) {
+			writeSample(text, "opcua_sessions_healthy", serverLabels(client), client.isHealthy() ? 1 : 0);
+		}
+		writeType(text, "opcua_callback_queue_depth", "gauge", "Callbacks waiting for the callback executor");
+		for (Client client : clients.values()) {
+			writeSample(text, "opcua_callback_queue_depth", serverLabels(client),
+					client.getCallbackExecutor().getQueueDepth());
+		}
+		writeType(text, "opcua_callback_dropped_total", "counter",
+				"Callbacks dropped, rejected or discarded by the callback executor");
+		for (Client client : clients.values()) {
+			CallbackExecutor callbackExecutor = client.getCallbackExecutor();
+			writeSample(text, "opcua_callback_dropped_total", serverLabels(client),
+					callbackExecutor.getDroppedOldestCount() + callbackExecutor.getRejectedCount()
+							+ callbackExecutor.getDiscardedCount());
+		}
+		writeType(text, "opcua_store_and_forward_buffered_bytes", "gauge",
+				"Bytes of notifications waiting to be replayed");
+		for (Client client : clients.values()) {
+			if (client.getStoreAndForward() != null) {
+				writeSample(text, "opcua_store_and_forward_buffered_bytes", serverLabels(client),
+						client.getStoreAndForward().getBufferedBytes());
+			}
+		}
+		writeType(text, "opcua_store_and_forward_replay_lag_seconds", "gauge",
+				"Age of the oldest notification waiting to be replayed");
+		for (Client client : clients.values()) {
+			if (client.getStoreAndForward() != null) {
+				writeSample(text, "opcua_store_and_forward_replay_lag_seconds", serverLabels(client),
+						client.getStoreAndForward().getReplayLagMs() / 1000.0);
+			}
+		}
+		writeType(text, "opcua_store_and_forward_poisoned_total", "counter",
+				"Stored notifications moved aside after they failed the maximum number of replays");
+		for (Client client : clients.values()) {
+			if (client.getStoreAndForward() != null) {
+				writeSample(text, "opcua_store_and_forward_poisoned_total", serverLabels(client),
+						client.getStoreAndForward().getPoisonedCount());
+			}
+		}
+	}
+
+	private static <K extends Comparable<? super K>, V> Iterable<Entry<K, V>> sorted(Map<K, V> map) {
+		return new TreeMap<>(map).entrySet();
+	}
+
+	private static String serverLabels(Client client) {
+		return "server=\"" + escape(client.getConfigurationName()) + "\"";
+	}
+
+	private static String subscriptionLabels(String configurationName, UInteger subscriptionId) {
+		return "server=\"" + escape(configurationName) + "\",subscription=\"" + subscriptionId + "\"";
+	}
+
+	private static void writeType(StringBuilder text, String name, String type, String help) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void writeSample(StringBuilder text, String name, String labels, Number value) {
+		text.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+	}
+
+	private static String escape(String labelValue) {
+		return labelValue == null ? ""
+				: labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Counts durations in fixed buckets, without locking.
+	 */
+	public static class LatencyHistogram {
+		private final LongAdder[] bucketCounts = new LongAdder[BUCKET_BOUNDS_SECONDS.length + 1];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sumNanos = new LongAdder();
+
+		private LatencyHistogram() {
+			for (int i = 0; i < bucketCounts.length; i++) {
+				bucketCounts[i] = new LongAdder();
+			}
+		}
+
+		void record(long durationNanos) {
+			double durationSeconds = durationNanos / 1e9;
+			int bucket = 0;
+			while (bucket < BUCKET_BOUNDS_SECONDS.length && durationSeconds > BUCKET_BOUNDS_SECONDS[bucket]) {
+				bucket++;
+			}
+			bucketCounts[bucket].increment();
+			count.increment();
+			sumNanos.add(durationNanos);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public double getSumSeconds() {
+			return sumNanos.sum() / 1e9;
+		}
+
+		public double getMeanMs() {
+			long currentCount = count.sum();
+			return currentCount == 0 ? 0 : sumNanos.sum() / 1e6 / currentCount;
+		}
+
+		/**
+		 * @return the number of durations up to and including each bucket bound, the
+		 *         last element counts all durations
+		 */
+		public long[] getCumulativeBucketCounts() {
+			long[] cumulativeCounts = new long[bucketCounts.length];
+			long cumulativeCount = 0;
+			for (int i = 0; i < bucketCounts.length; i++) {
+				cumulativeCount += bucketCounts[i].sum();
+				cumulativeCounts[i] = cumulativeCount;
+			}
+			return cumulativeCounts;
+		}
+
+		public static double[] getBucketBoundsSeconds() {
+			return BUCKET_BOUNDS_SECONDS.clone();
+		}
+
+		private void write(StringBuilder text, String name, String labels) {
+			long[] cumulativeCounts = getCumulativeBucketCounts();
+			for (int i = 0; i < cumulativeCounts.length; i++) {
+				String bound = i < BUCKET_BOUNDS_SECONDS.length ? Double.toString(BUCKET_BOUNDS_SECONDS[i]) : "+Inf";
+				writeSample(text, name + "_bucket", labels + ",le=\"" + bound + "\"", cumulativeCounts[i]);
+			}
+			writeSample(text, name + "_sum", labels, getSumSeconds());
+			// The count is the last cumulative bucket, so the buckets and count agree
+			writeSample(text, name + "_count", labels, cumulativeCounts[cumulativeCounts.length - 1]);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package opcuaconnector.impl;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.SessionActivityListener;
+import org.eclipse.milo.opcua.sdk.client.api.UaSession;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+
+import opcuaconnector.proxies.ENUM_DefaultVariantType;
+
+/**
+ * Remembers the data type of the attributes that were written without a variant
+ * type, so the type only has to be read from the server the first time.
+ *
+ * The number of types is bounded. When the client reconnects with a new
+ * session the types are forgotten, because the server may have been restarted
+ * with a changed address space.
+ */
+public class DefaultVariantTypeCache {
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	private static final int EVICTION_FRACTION = 8;
+
+	private final OpcUaClient opcClient;
+	private final ConcurrentHashMap<Key, ENUM_DefaultVariantType> variantTypes = new ConcurrentHashMap<>();
+	private final SessionActivityListener sessionActivityListener = new SessionActivityListener() {
+		@Override
+		public void onSessionActive(UaSession session) {
+			onSessionActivated(session.getSessionId());
+		}
+	};
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+	private volatile NodeId opcSessionId;
+
+	public DefaultVariantTypeCache(OpcUaClient opcClient) {
+		this.opcClient = opcClient;
+		UaSession session = opcClient.getSession().getNow(null);
+		this.opcSessionId = session != null ? session.getSessionId() : null;
+		opcClient.addSessionActivityListener(sessionActivityListener);
+	}
+
+	public ENUM_DefaultVariantType get(NodeId opcNodeId, UInteger attributeId) {
+		return variantTypes.get(new Key(opcNodeId, attributeId));
+	}
+
+	public void put(NodeId opcNodeId, UInteger attributeId, ENUM_DefaultVariantType variantType) {
+		if (variantTypes.size() >= maxEntries) {
+			evict();
+		}
+		variantTypes.put(new Key(opcNodeId, attributeId), variantType);
+	}
+
+	/**
+	 * Forgets the type, for instance because the server rejected a value of this
+	 * type.
+	 */
+	public void remove(NodeId opcNodeId, UInteger attributeId) {
+		variantTypes.remove(new Key(opcNodeId, attributeId));
+	}
+
+	/**
+	 * Evicts an arbitrary eighth of the types, so most of the types in use stay
+	 * cached.
+	 */
+	private void evict() {
+		int entriesToEvict = Math.max(1, variantTypes.size() / EVICTION_FRACTION);
+		Iterator<Key> keys = variantTypes.keySet().iterator();
+		while (entriesToEvict-- > 0 && keys.hasNext()) {
+			keys.next();
+			keys.remove();
+		}
+	}
+
+	private void onSessionActivated(NodeId activatedSessionId) {
+		if (!Objects.equals(activatedSessionId, opcSessionId)) {
+			opcSessionId = activatedSessionId;
+			variantTypes.clear();
+		}
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("Maximum number of cached variant types must be positive");
+		}
+		this.maxEntries = maxEntries;
+	}
+
+	public void clear() {
+		variantTypes.clear();
+	}
+
+	public void stop() {
+		opcClient.removeSessionActivityListener(sessionActivityListener);
+		variantTypes.clear();
+	}
+
+	public int size() {
+		return variantTypes.size();
+	}
+
+	private static final class Key {
+		private final NodeId opcNodeId;
+		private final UInteger attributeId;
+
+		private Key(NodeId opcNodeId, UInteger attributeId) {
+			this.opcNodeId = opcNodeId;
+			this.attributeId = attributeId;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key otherKey = (Key) other;
+			return opcNodeId.equals(otherKey.opcNodeId) && attributeId.equals(otherKey.attributeId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(opcNodeId, attributeId);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package opcuaconnector.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.UaException;
+import org.eclipse.milo.opcua.stack.core.types.structured.ApplicationDescription;
+import org.eclipse.milo.opcua.stack.core.types.structured.EndpointDescription;
+
+import com.mendix.core.CoreException;
+
+/**
+ * Caches the results of the discovery services per endpoint URL, so that
+ * building a client does not open a discovery connection every time. Entries
+ * expire after the time to live. When several threads ask for the same URL
+ * while it is being discovered, they share the one request.
+ */
+public class EndpointDiscoveryCache {
+	private static final MxLogger LOGGER = new MxLogger(EndpointDiscoveryCache.class);
+	private static final EndpointDiscoveryCache INSTANCE = new EndpointDiscoveryCache();
+	private static final long DEFAULT_TIME_TO_LIVE_MS = 5 * 60 * 1000L;
+
+	private final ConcurrentHashMap<String, Entry<EndpointDescription>> endpoints = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Entry<ApplicationDescription>> servers = new ConcurrentHashMap<>();
+	private volatile long timeToLiveMs = DEFAULT_TIME_TO_LIVE_MS;
+
+	private EndpointDiscoveryCache() {
+	}
+
+	public static EndpointDiscoveryCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param timeToLiveMs time after which a discovery result is requested again,
+	 *                     0 disables the cache
+	 */
+	public void setTimeToLiveMs(long timeToLiveMs) {
+		if (timeToLiveMs < 0) {
+			throw new IllegalArgumentException("Time to live cannot be negative");
+		}
+		this.timeToLiveMs = timeToLiveMs;
+	}
+
+	public long getTimeToLiveMs() {
+		return timeToLiveMs;
+	}
+
+	/**
+	 * @param forceRefresh discard the cached endpoints, for instance because none
+	 *                     of them matched the configuration
+	 */
+	public List<EndpointDescription> getEndpoints(String endpointURL, boolean forceRefresh,
+			Loader<EndpointDescription> loader) throws CoreException {
+		return get(endpoints, endpointURL, forceRefresh, loader);
+	}
+
+	public List<ApplicationDescription> getServers(String endpointURL, Loader<ApplicationDescription> loader)
+			throws CoreException {
+		return get(servers, endpointURL, false, loader);
+	}
+
+	/**
+	 * Forgets the discovery results of the endpoint URL.
+	 */
+	public void invalidate(String endpointURL) {
+		endpoints.remove(endpointURL);
+		servers.remove(endpointURL);
+	}
+
+	public void clear() {
+		endpoints.clear();
+		servers.clear();
+	}
+
+	/**
+	 * @return true if the error shows that the server no longer offers the
+	 *         certificate or security settings of the endpoint the client was
+	 *         built with
+	 */
+	public static boolean isEndpointMismatch(Throwable error) {
+		return UaException.extractStatusCode(error).map(statusCode -> {
+			long value = statusCode.getValue();
+			return value == StatusCodes.Bad_SecurityChecksFailed || value == StatusCodes.Bad_CertificateInvalid
+					|| value == StatusCodes.Bad_SecurityPolicyRejected
+					|| value == StatusCodes.Bad_SecurityModeRejected;
+		}).orElse(false);
+	}
+
+	private <T> List<T> get(ConcurrentHashMap<String, Entry<T>> cache, String endpointURL, boolean forceRefresh,
+			Loader<T> loader) throws CoreException {
+		long now = System.currentTimeMillis();
+		Entry<T> newEntry = new Entry<>(now);
+		Entry<T> entry = cache.compute(endpointURL,
+				(key, currentEntry) -> currentEntry == null || currentEntry.isStale(now, forceRefresh, timeToLiveMs)
+						? newEntry
+						: currentEntry);
+		if (entry == newEntry) {
+			try {
+				newEntry.result.complete(Collections.unmodifiableList(loader.load(endpointURL)));
+			} catch (CoreException | RuntimeException e) {
+				cache.remove(endpointURL, newEntry);
+				newEntry.result.completeExceptionally(e);
+				throw e;
+			}
+		} else {
+			LOGGER.debug("Using cached discovery result for endpoint url " + endpointURL);
+		}
+		try {
+			return entry.result.get();
+		} catch (InterruptedException e) {
+			LOGGER.error("Cannot get discovery result for endpoint url " + endpointURL
+					+ " because the thread was interrupted. Error " + e.getMessage());
+			Thread.currentThread().interrupt();
+			throw new CoreException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CoreException) {
+				throw (CoreException) e.getCause();
+			}
+			throw new CoreException(e.getCause());
+		}
+	}
+
+	/**
+	 * Requests the discovery result from the server.
+	 */
+	public interface Loader<T> {
+		List<T> load(String endpointURL) throws CoreException;
+	}
+
+	private static final class Entry<T> {
+		private final long createdMillis;
+		private final CompletableFuture<List<T>> result = new CompletableFuture<>();
+
+		private Entry(long createdMillis) {
+			this.createdMillis = createdMillis;
+		}
+
+		/**
+		 * A result that is still being requested is never stale, it is newer than any
+		 * reason to refresh.
+		 */
+		private boolean isStale(long now, boolean forceRefresh, long timeToLiveMs) {
+			return result.isDone() && (forceRefresh || now - createdMillis >= timeToLiveMs);
+		}
+	}
+}
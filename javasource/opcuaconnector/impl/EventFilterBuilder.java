@@ -0,0 +1,145 @@
+package opcuaconnector.impl;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.FilterOperator;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilterElement;
+import org.eclipse.milo.opcua.stack.core.types.structured.ElementOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.EventFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.FilterOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.LiteralOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.SimpleAttributeOperand;
+
+/**
+ * Builds the EventFilter of an event monitored item. The select clauses decide
+ * which fields of an event are delivered, in the order they are selected. The
+ * where clause lets the server drop the events the application is not
+ * interested in, all conditions must hold.
+ *
+ * <pre>
+ * new EventFilterBuilder().select("EventId").select("Time").select("Message").select("Severity")
+ * 		.whereOfType(Identifiers.AlarmConditionType).whereSeverityAtLeast(500).build(serializationContext);
+ * </pre>
+ */
+public class EventFilterBuilder {
+	private final List<SimpleAttributeOperand> selectClauses = new ArrayList<>();
+	private final List<Condition> conditions = new ArrayList<>();
+
+	/**
+	 * Selects a field of BaseEventType, for instance "Message" or "Severity".
+	 */
+	public EventFilterBuilder select(String... browsePath) {
+		return select(Identifiers.BaseEventType, browsePath);
+	}
+
+	/**
+	 * Selects a field of an event type, for instance "ActiveState", "Id" of
+	 * AlarmConditionType. The browse names are in namespace 0.
+	 */
+	public EventFilterBuilder select(NodeId eventType, String... browsePath) {
+		selectClauses.add(createOperand(eventType, browsePath));
+		return this;
+	}
+
+	/**
+	 * Only lets events through that are of one of the types or of a subtype.
+	 */
+	public EventFilterBuilder whereOfType(NodeId... eventTypes) {
+		if (eventTypes.length == 0) {
+			throw new IllegalArgumentException("At least one event type is required");
+		}
+		List<Condition> ofTypeConditions = new ArrayList<>();
+		for (NodeId eventType : eventTypes) {
+			ofTypeConditions.add(leaf(FilterOperator.OfType, new LiteralOperand(new Variant(eventType))));
+		}
+		conditions.add(combine(FilterOperator.Or, ofTypeConditions));
+		return this;
+	}
+
+	/**
+	 * Only lets events through with at least this severity, from 1 to 1000.
+	 */
+	public EventFilterBuilder whereSeverityAtLeast(int severity) {
+		if (severity < 1 || severity > 1000) {
+			throw new IllegalArgumentException("Severity must be between 1 and 1000");
+		}
+		conditions.add(leaf(FilterOperator.GreaterThanOrEqual,
+				createOperand(Identifiers.BaseEventType, "Severity"), new LiteralOperand(new Variant(ushort(severity)))));
+		return this;
+	}
+
+	public EventFilter build(SerializationContext serializationContext) {
+		if (selectClauses.isEmpty()) {
+			throw new IllegalStateException("An event filter needs at least one select clause");
+		}
+		List<ContentFilterElement> whereElements = new ArrayList<>();
+		if (!conditions.isEmpty()) {
+			// The first element is the root of the where clause
+			combine(FilterOperator.And, conditions).write(whereElements, serializationContext);
+		}
+		return new EventFilter(selectClauses.toArray(new SimpleAttributeOperand[0]),
+				new ContentFilter(whereElements.toArray(new ContentFilterElement[0])));
+	}
+
+	private static SimpleAttributeOperand createOperand(NodeId eventType, String... browsePath) {
+		if (browsePath.length == 0) {
+			throw new IllegalArgumentException("The browse path of a select clause cannot be empty");
+		}
+		QualifiedName[] opcBrowsePath = Arrays.stream(browsePath).map(browseName -> new QualifiedName(0, browseName))
+				.toArray(QualifiedName[]::new);
+		return new SimpleAttributeOperand(eventType, opcBrowsePath, AttributeId.Value.uid(), null);
+	}
+
+	private static Condition leaf(FilterOperator operator, FilterOperand... operands) {
+		return (elements, serializationContext) -> {
+			ExtensionObject[] opcOperands = Arrays.stream(operands)
+					.map(operand -> ExtensionObject.encode(serializationContext, operand))
+					.toArray(ExtensionObject[]::new);
+			elements.add(new ContentFilterElement(operator, opcOperands));
+			return elements.size() - 1;
+		};
+	}
+
+	/**
+	 * Chains the conditions with a binary operator: a op (b op c).
+	 */
+	private static Condition combine(FilterOperator operator, List<Condition> operands) {
+		if (operands.size() == 1) {
+			return operands.get(0);
+		}
+		Condition first = operands.get(0);
+		Condition rest = combine(operator, operands.subList(1, operands.size()));
+		return (elements, serializationContext) -> {
+			int index = elements.size();
+			elements.add(null);
+			int firstIndex = first.write(elements, serializationContext);
+			int restIndex = rest.write(elements, serializationContext);
+			elements.set(index, new ContentFilterElement(operator,
+					new ExtensionObject[] {
+							ExtensionObject.encode(serializationContext, new ElementOperand(uint(firstIndex))),
+							ExtensionObject.encode(serializationContext, new ElementOperand(uint(restIndex))) }));
+			return index;
+		};
+	}
+
+	/**
+	 * Part of the where clause. It writes its elements in preorder, so that the
+	 * element of the outermost condition comes first.
+	 */
+	private interface Condition {
+		int write(List<ContentFilterElement> elements, SerializationContext serializationContext);
+	}
+}
@@ -0,0 +1,112 @@
+package opcuaconnector.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+import opcuaconnector.impl.OpcAttributeServiceSet.HistoryPageConsumer;
+
+/**
+ * Writes the pages of a history read to a temporary file, one JSON object per
+ * value per line, and stores the file in a FileDocument when the read is done.
+ * The values never have to be in memory at the same time, so a history read of
+ * millions of values only needs the heap for one page.
+ *
+ * <pre>
+ * {"sourceTimestamp":"2024-01-01T00:00:00Z","serverTimestamp":"2024-01-01T00:00:00Z","statusCode":0,"variant":{"value":1.5}}
+ * </pre>
+ */
+public class HistoryFileDocumentWriter implements HistoryPageConsumer, AutoCloseable {
+	private static final MxLogger LOGGER = new MxLogger(HistoryFileDocumentWriter.class);
+
+	private final Path temporaryFile;
+	private final BufferedWriter writer;
+	private long valueCount;
+
+	public HistoryFileDocumentWriter() throws CoreException {
+		try {
+			temporaryFile = Files.createTempFile("opcua-history-", ".jsonl");
+			writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			LOGGER.error("Cannot create a temporary file for the history values because " + e.getMessage());
+			throw new CoreException(e);
+		}
+	}
+
+	@Override
+	public void accept(List<DataValue> opcDataValueList) throws CoreException {
+		try {
+			for (DataValue opcDataValue : opcDataValueList) {
+				writer.write("{\"sourceTimestamp\":");
+				writeTimestamp(opcDataValue.getSourceTime());
+				writer.write(",\"serverTimestamp\":");
+				writeTimestamp(opcDataValue.getServerTime());
+				writer.write(",\"statusCode\":");
+				writer.write(Long.toString(opcDataValue.getStatusCode().getValue()));
+				writer.write(",\"variant\":");
+				writer.write(VariantJsonEncoder.encode(opcDataValue.getValue()));
+				writer.write('}');
+				writer.newLine();
+			}
+			valueCount += opcDataValueList.size();
+		} catch (IOException e) {
+			LOGGER.error("Cannot write history values to the temporary file because " + e.getMessage());
+			throw new CoreException(e);
+		}
+	}
+
+	/**
+	 * Stores the written values as the content of the file document and removes
+	 * the temporary file.
+	 */
+	public void store(IContext context, IMendixObject mxFileDocument, String fileName) throws CoreException {
+		try {
+			writer.close();
+			try (InputStream inputStream = Files.newInputStream(temporaryFile)) {
+				Core.storeFileDocumentContent(context, mxFileDocument, fileName, inputStream);
+			}
+			LOGGER.debug("Stored " + valueCount + " history values in file " + fileName);
+		} catch (IOException e) {
+			LOGGER.error("Cannot store the history values in file " + fileName + " because " + e.getMessage());
+			throw new CoreException(e);
+		} finally {
+			close();
+		}
+	}
+
+	public long getValueCount() {
+		return valueCount;
+	}
+
+	@Override
+	public void close() {
+		try {
+			writer.close();
+			Files.deleteIfExists(temporaryFile);
+		} catch (IOException e) {
+			LOGGER.warn("Cannot remove temporary file " + temporaryFile + " because " + e.getMessage());
+		}
+	}
+
+	private void writeTimestamp(DateTime opcTimestamp) throws IOException {
+		if (opcTimestamp == null || opcTimestamp.isNull()) {
+			writer.write("null");
+		} else {
+			writer.write('"');
+			writer.write(opcTimestamp.getJavaInstant().toString());
+			writer.write('"');
+		}
+	}
+}
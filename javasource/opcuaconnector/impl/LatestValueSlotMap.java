@@ -0,0 +1,160 @@
+package opcuaconnector.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+
+import opcuaconnector.impl.NotificationBatcher.Notification;
+
+/**
+ * Keeps only the newest value per monitored item of one subscription. Every
+ * monitored item has a slot, identified by its client handle. A new value
+ * overwrites the value in the slot without locking; a value that was not
+ * processed yet is counted as superseded. Slots that received a value are
+ * marked dirty, and a drain on the callback executor hands the current values
+ * of all dirty slots over at once.
+ *
+ * Because there is at most one pending value per item, the latency of the
+ * newest value stays bounded regardless of how fast the server publishes.
+ */
+public class LatestValueSlotMap {
+	private static final MxLogger LOGGER = new MxLogger(LatestValueSlotMap.class);
+
+	private final String name;
+	private volatile Consumer<List<Notification>> batchConsumer;
+	private final Supplier<CallbackExecutor> callbackExecutorSupplier;
+	private final ConcurrentHashMap<UInteger, Slot> slots = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<Slot> dirtySlots = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private volatile boolean stopped = false;
+
+	public LatestValueSlotMap(String name, Consumer<List<Notification>> batchConsumer,
+			Supplier<CallbackExecutor> callbackExecutorSupplier) {
+		this.name = name;
+		this.batchConsumer = batchConsumer;
+		this.callbackExecutorSupplier = callbackExecutorSupplier;
+	}
+
+	/**
+	 * Replaces the consumer of the drained values, for instance when the
+	 * subscription is replaced by a recreated subscription.
+	 */
+	public void setBatchConsumer(Consumer<List<Notification>> batchConsumer) {
+		this.batchConsumer = batchConsumer;
+	}
+
+	/**
+	 * Creates the consumer that stores the values of the monitored item in its
+	 * slot.
+	 */
+	public Consumer<DataValue> createValueConsumer(UaMonitoredItem opcMonitoredItem,
+			MicroflowBindingPlan bindingPlan) {
+		Slot slot = slots.computeIfAbsent(opcMonitoredItem.getClientHandle(),
+				clientHandle -> new Slot(opcMonitoredItem, bindingPlan));
+		return opcDataValue -> offer(slot, opcDataValue);
+	}
+
+	private void offer(Slot slot, DataValue opcDataValue) {
+		if (stopped) {
+			return;
+		}
+		if (slot.latestValue.getAndSet(opcDataValue) != null) {
+			// The slot is still dirty, a drain that could not be scheduled before is
+			// scheduled now
+			slot.supersededCount.incrementAndGet();
+		} else {
+			dirtySlots.add(slot);
+		}
+		scheduleDrain();
+	}
+
+	/**
+	 * The executor never discards drains, so a pending drain always runs.
+	 */
+	private void scheduleDrain() {
+		if (drainScheduled.compareAndSet(false, true)
+				&& !callbackExecutorSupplier.get().executeDrain(this, this::drain)) {
+			drainScheduled.set(false);
+		}
+	}
+
+	/**
+	 * Takes the current value out of every dirty slot and hands them over as one
+	 * batch.
+	 */
+	public void drain() {
+		drainScheduled.set(false);
+		List<Notification> notifications = new ArrayList<>();
+		Slot slot;
+		while ((slot = dirtySlots.poll()) != null) {
+			DataValue opcDataValue = slot.latestValue.getAndSet(null);
+			if (opcDataValue != null) {
+				notifications.add(new Notification(slot.opcMonitoredItem, slot.bindingPlan, opcDataValue));
+			}
+		}
+		if (notifications.isEmpty()) {
+			return;
+		}
+		try {
+			batchConsumer.accept(notifications);
+			deliveredCount.addAndGet(notifications.size());
+		} catch (Exception e) {
+			LOGGER.error("An error occured while delivering the latest values of " + notifications.size()
+					+ " monitored items for " + name + ". The error is " + e);
+		}
+	}
+
+	public void removeSlot(UInteger clientHandle) {
+		slots.remove(clientHandle);
+	}
+
+	public void stop() {
+		stopped = true;
+		dirtySlots.clear();
+		slots.clear();
+	}
+
+	/**
+	 * @return the number of values of the monitored item that were overwritten by
+	 *         a newer value before they were processed
+	 */
+	public long getSupersededCount(UInteger clientHandle) {
+		Slot slot = slots.get(clientHandle);
+		return slot != null ? slot.supersededCount.get() : 0;
+	}
+
+	public long getTotalSupersededCount() {
+		return slots.values().stream().mapToLong(slot -> slot.supersededCount.get()).sum();
+	}
+
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	public int getDirtySlotCount() {
+		return dirtySlots.size();
+	}
+
+	private static final class Slot {
+		private final UaMonitoredItem opcMonitoredItem;
+		private final MicroflowBindingPlan bindingPlan;
+		private final AtomicReference<DataValue> latestValue = new AtomicReference<>();
+		private final AtomicLong supersededCount = new AtomicLong();
+
+		private Slot(UaMonitoredItem opcMonitoredItem, MicroflowBindingPlan bindingPlan) {
+			this.opcMonitoredItem = opcMonitoredItem;
+			this.bindingPlan = bindingPlan;
+		}
+	}
+}
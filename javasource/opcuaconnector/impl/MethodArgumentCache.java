@@ -0,0 +1,44 @@
+package opcuaconnector.impl;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+
+/**
+ * Remembers the input arguments of the methods that were called, so the
+ * argument types only have to be read from the server the first time a method
+ * is called.
+ */
+public class MethodArgumentCache {
+	private final ConcurrentHashMap<NodeId, List<Argument>> inputArguments = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the input arguments of the method, or null if they are not known
+	 *         yet. A method without input arguments has an empty list.
+	 */
+	public List<Argument> get(NodeId opcMethodId) {
+		return inputArguments.get(opcMethodId);
+	}
+
+	public void put(NodeId opcMethodId, List<Argument> opcInputArguments) {
+		inputArguments.put(opcMethodId, opcInputArguments);
+	}
+
+	/**
+	 * Forgets the arguments, for instance because the server rejected the
+	 * arguments of a call.
+	 */
+	public void remove(NodeId opcMethodId) {
+		inputArguments.remove(opcMethodId);
+	}
+
+	public void clear() {
+		inputArguments.clear();
+	}
+
+	public int size() {
+		return inputArguments.size();
+	}
+}
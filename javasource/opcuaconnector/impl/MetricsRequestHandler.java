@@ -0,0 +1,98 @@
+package opcuaconnector.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.mendix.core.Core;
+import com.mendix.externalinterface.connector.RequestHandler;
+import com.mendix.m2ee.api.IMxRuntimeRequest;
+import com.mendix.m2ee.api.IMxRuntimeResponse;
+
+/**
+ * Serves the metrics of {@link ConnectorMetrics} in the Prometheus text format.
+ * Register the handler once, for instance from the after startup microflow
+ * through a Java action, and point the scraper at the path.
+ *
+ * The metrics contain the names of the server configurations and subscription
+ * ids. Without a bearer token the path can be read by anyone who can reach the
+ * application, so only register it without one when the path is not exposed
+ * outside the cluster. With a bearer token, requests without the header
+ * "Authorization: Bearer &lt;token&gt;" are answered with 401.
+ */
+public class MetricsRequestHandler extends RequestHandler {
+	private static final MxLogger LOGGER = new MxLogger(MetricsRequestHandler.class);
+	public static final String DEFAULT_PATH = "opcua-metrics/";
+	private static final String BEARER_PREFIX = "Bearer ";
+
+	private final byte[] bearerToken;
+
+	private MetricsRequestHandler(String bearerToken) {
+		this.bearerToken = bearerToken != null ? bearerToken.getBytes(StandardCharsets.UTF_8) : null;
+	}
+
+	public static void register() {
+		register(DEFAULT_PATH);
+	}
+
+	/**
+	 * Registers the handler without authentication.
+	 *
+	 * @param path path relative to the application root, ending with a slash
+	 */
+	public static void register(String path) {
+		register(path, null);
+	}
+
+	/**
+	 * @param path        path relative to the application root, ending with a
+	 *                    slash
+	 * @param bearerToken token the scraper has to send, or null to serve the
+	 *                    metrics without authentication
+	 */
+	public static void register(String path, String bearerToken) {
+		if (bearerToken != null && bearerToken.isBlank()) {
+			throw new IllegalArgumentException("Bearer token cannot be blank");
+		}
+		Core.addRequestHandler(path, new MetricsRequestHandler(bearerToken));
+		if (bearerToken == null) {
+			LOGGER.warn("Serving OPC UA connector metrics on /" + path
+					+ " without authentication, anyone who can reach the application can read them");
+		} else {
+			LOGGER.info("Serving OPC UA connector metrics on /" + path + " to requests with the bearer token");
+		}
+	}
+
+	@Override
+	protected void processRequest(IMxRuntimeRequest request, IMxRuntimeResponse response, String path)
+			throws Exception {
+		HttpServletResponse httpResponse = response.getHttpServletResponse();
+		if (!"GET".equals(request.getHttpServletRequest().getMethod())) {
+			httpResponse.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		if (!isAuthorized(request.getHttpServletRequest().getHeader("Authorization"))) {
+			httpResponse.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+			httpResponse.setHeader("WWW-Authenticate", "Bearer");
+			return;
+		}
+		byte[] body = ConnectorMetrics.getInstance().toPrometheusText().getBytes(StandardCharsets.UTF_8);
+		httpResponse.setStatus(HttpServletResponse.SC_OK);
+		httpResponse.setContentType("text/plain; version=0.0.4; charset=utf-8");
+		httpResponse.setContentLength(body.length);
+		httpResponse.getOutputStream().write(body);
+	}
+
+	private boolean isAuthorized(String authorization) {
+		if (bearerToken == null) {
+			return true;
+		}
+		if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+			return false;
+		}
+		// Compares in constant time, so the token cannot be guessed from the timing
+		return MessageDigest.isEqual(bearerToken,
+				authorization.substring(BEARER_PREFIX.length()).trim().getBytes(StandardCharsets.UTF_8));
+	}
+}
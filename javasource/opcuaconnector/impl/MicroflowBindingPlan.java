@@ -0,0 +1,198 @@
+package opcuaconnector.impl;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mendix.core.Core;
+import com.mendix.logging.LogLevel;
+import com.mendix.logging.LogMessage;
+import com.mendix.logging.LogSubscriber;
+import com.mendix.systemwideinterfaces.core.IDataType;
+
+import opcuaconnector.proxies.MessageDataValue;
+import opcuaconnector.proxies.MessageMonitoredItem;
+import opcuaconnector.proxies.MessageMonitoredItemReadValueId;
+
+/**
+ * Precomputed mapping of the input parameters of a microflow that is called for
+ * monitored item notifications. The signature of a microflow cannot change while
+ * the application is running, so the parameters are resolved once per microflow
+ * instead of once per notification, and the plan is bound to the consumers of
+ * the monitored items when they are created.
+ *
+ * The parameters are resolved again after the application model is reloaded,
+ * and when a call of the microflow fails while its parameters no longer match
+ * the plan.
+ */
+public class MicroflowBindingPlan {
+	private static final MxLogger LOGGER = new MxLogger(MicroflowBindingPlan.class);
+	private static final ConcurrentHashMap<String, MicroflowBindingPlan> PLAN_CACHE = new ConcurrentHashMap<>();
+
+	static {
+		registerModelUpdateSubscriber();
+	}
+
+	private final String microflowName;
+	private volatile Binding binding;
+
+	private MicroflowBindingPlan(String microflowName) {
+		this.microflowName = microflowName;
+		this.binding = new Binding(microflowName);
+	}
+
+	/**
+	 * Returns the cached binding plan of the microflow, resolving it when it is not
+	 * cached yet. Resolve the plan when the monitored item is created, not for
+	 * every notification.
+	 *
+	 * @param microflowName fully qualified name of an existing microflow
+	 */
+	public static MicroflowBindingPlan forMicroflow(String microflowName) {
+		return PLAN_CACHE.computeIfAbsent(microflowName, MicroflowBindingPlan::new);
+	}
+
+	/**
+	 * Makes all plans resolve their parameters again on their next use. The plans
+	 * themselves stay valid, because they are bound to the consumers of monitored
+	 * items.
+	 */
+	public static void invalidateAll() {
+		PLAN_CACHE.values().forEach(plan -> plan.binding = null);
+	}
+
+	/**
+	 * Resolves the parameters of the microflow again, for instance after a call
+	 * failed.
+	 *
+	 * @return true if the parameters changed, the failed call can then be retried
+	 */
+	public boolean revalidate() {
+		Binding resolvedBinding;
+		try {
+			resolvedBinding = new Binding(microflowName);
+		} catch (RuntimeException e) {
+			LOGGER.debug("Cannot resolve the input parameters of microflow " + microflowName + " again because "
+					+ e.getMessage());
+			return false;
+		}
+		boolean isChanged = !resolvedBinding.equals(binding);
+		binding = resolvedBinding;
+		if (isChanged) {
+			LOGGER.info("The input parameters of microflow " + microflowName + " changed, resolved them again");
+		}
+		return isChanged;
+	}
+
+	private Binding getBinding() {
+		Binding currentBinding = binding;
+		if (currentBinding == null) {
+			currentBinding = new Binding(microflowName);
+			binding = currentBinding;
+		}
+		return currentBinding;
+	}
+
+	private static String findInputKey(Map<String, IDataType> inputParams, String entityName, boolean isList) {
+		return inputParams.entrySet().stream()
+				.filter(input -> input.getValue().isList() == isList
+						&& entityName.equals(input.getValue().getObjectType()))
+				.map(Entry::getKey).findFirst().orElse(null);
+	}
+
+	private static void registerModelUpdateSubscriber() {
+		try {
+			ModelUpdateSubscriber modelUpdateSubscriber = new ModelUpdateSubscriber();
+			Core.registerLogSubscriber(modelUpdateSubscriber);
+			Core.getLogger(ModelUpdateSubscriber.LOG_NODE).subscribe(modelUpdateSubscriber, LogLevel.INFO);
+		} catch (RuntimeException e) {
+			LOGGER.warn("Cannot listen for application model updates, microflow parameters are only resolved again"
+					+ " when a call fails. The error is " + e.getMessage());
+		}
+	}
+
+	public String getMicroflowName() {
+		return microflowName;
+	}
+
+	public String getDataValueKey() {
+		return getBinding().dataValueKey;
+	}
+
+	public String getDataValueListKey() {
+		return getBinding().dataValueListKey;
+	}
+
+	public String getMessageMonitoredItemKey() {
+		return getBinding().messageMonitoredItemKey;
+	}
+
+	public String getMessageMonitoredItemReadValueIdKey() {
+		return getBinding().messageMonitoredItemReadValueIdKey;
+	}
+
+	public boolean acceptsDataValueList() {
+		return getBinding().dataValueListKey != null;
+	}
+
+	/**
+	 * The input parameters of the microflow at the moment they were resolved.
+	 */
+	private static final class Binding {
+		private final String dataValueKey;
+		private final String dataValueListKey;
+		private final String messageMonitoredItemKey;
+		private final String messageMonitoredItemReadValueIdKey;
+
+		private Binding(String microflowName) {
+			Map<String, IDataType> inputParams = Core.getInputParameters(microflowName);
+			this.dataValueKey = findInputKey(inputParams, MessageDataValue.entityName, false);
+			this.dataValueListKey = findInputKey(inputParams, MessageDataValue.entityName, true);
+			this.messageMonitoredItemKey = findInputKey(inputParams, MessageMonitoredItem.entityName, false);
+			this.messageMonitoredItemReadValueIdKey = findInputKey(inputParams,
+					MessageMonitoredItemReadValueId.entityName, false);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Binding)) {
+				return false;
+			}
+			Binding otherBinding = (Binding) other;
+			return Objects.equals(dataValueKey, otherBinding.dataValueKey)
+					&& Objects.equals(dataValueListKey, otherBinding.dataValueListKey)
+					&& Objects.equals(messageMonitoredItemKey, otherBinding.messageMonitoredItemKey)
+					&& Objects.equals(messageMonitoredItemReadValueIdKey,
+							otherBinding.messageMonitoredItemReadValueIdKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(dataValueKey, dataValueListKey, messageMonitoredItemKey,
+					messageMonitoredItemReadValueIdKey);
+		}
+	}
+
+	/**
+	 * Listens for the message the runtime logs after the application model has been
+	 * updated, which is the only moment a microflow signature can change.
+	 */
+	private static class ModelUpdateSubscriber extends LogSubscriber {
+		private static final String LOG_NODE = "Core";
+		private static final String MODEL_UPDATE_MESSAGE = "Application model has been updated, application is now available.";
+
+		private ModelUpdateSubscriber() {
+			super(MicroflowBindingPlan.class.getName(), LogLevel.NONE);
+		}
+
+		@Override
+		public void processMessage(LogMessage logMessage) {
+			if (MODEL_UPDATE_MESSAGE.equals(logMessage.message)) {
+				LOGGER.debug("Application model has been updated, resolving the parameters of " + PLAN_CACHE.size()
+						+ " microflow binding plans again");
+				invalidateAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package opcuaconnector.impl;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+
+import opcuaconnector.impl.OpcMonitoredItemServiceSet.DeliveryMode;
+
+/**
+ * What is needed to create a monitored item again: the create request without
+ * its client handle, the microflow that consumes the values and the delivery
+ * mode.
+ */
+public class MonitoredItemDefinition {
+	private final MonitoredItemCreateRequest opcCreateRequest;
+	private final String microflowName;
+	private final DeliveryMode deliveryMode;
+
+	public MonitoredItemDefinition(MonitoredItemCreateRequest opcCreateRequest, String microflowName,
+			DeliveryMode deliveryMode) {
+		this.opcCreateRequest = opcCreateRequest;
+		this.microflowName = microflowName;
+		this.deliveryMode = deliveryMode;
+	}
+
+	public String getMicroflowName() {
+		return microflowName;
+	}
+
+	public DeliveryMode getDeliveryMode() {
+		return deliveryMode;
+	}
+
+	/**
+	 * @param clientHandle a new client handle of the subscription the item is
+	 *                     created in
+	 */
+	public MonitoredItemCreateRequest toCreateRequest(UInteger clientHandle) {
+		MonitoringParameters opcParameters = opcCreateRequest.getRequestedParameters();
+		return new MonitoredItemCreateRequest(opcCreateRequest.getItemToMonitor(),
+				opcCreateRequest.getMonitoringMode(),
+				new MonitoringParameters(clientHandle, opcParameters.getSamplingInterval(), opcParameters.getFilter(),
+						opcParameters.getQueueSize(), opcParameters.getDiscardOldest()));
+	}
+}
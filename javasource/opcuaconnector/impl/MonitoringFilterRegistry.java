@@ -0,0 +1,120 @@
+package opcuaconnector.impl;
+
+import static java.util.Objects.requireNonNull;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.DataChangeTrigger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.DeadbandType;
+import org.eclipse.milo.opcua.stack.core.types.structured.AggregateConfiguration;
+import org.eclipse.milo.opcua.stack.core.types.structured.AggregateFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.DataChangeFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringFilter;
+
+import com.mendix.core.CoreException;
+
+/**
+ * Holds the monitoring filters that are sent along when a monitored item is
+ * created, per server configuration name and node. A data change filter with a
+ * deadband lets the server skip small changes of a value, an aggregate filter
+ * lets the server send an aggregate per processing interval. Both reduce the
+ * number of notifications, and so the number of microflow calls, at the source.
+ *
+ * Monitored items of nodes without a filter are created without a filter, as
+ * before.
+ */
+public class MonitoringFilterRegistry {
+	private static final MxLogger LOGGER = new MxLogger(MonitoringFilterRegistry.class);
+	private static final MonitoringFilterRegistry INSTANCE = new MonitoringFilterRegistry();
+
+	private final ConcurrentHashMap<String, ConcurrentHashMap<NodeId, MonitoringFilter>> filtersPerConfiguration = new ConcurrentHashMap<>();
+
+	private MonitoringFilterRegistry() {
+	}
+
+	public static MonitoringFilterRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param opcClient     client of the server configuration, its namespace table
+	 *                      resolves node IDs that refer to their namespace by URI
+	 * @param nodeId        node ID as it is stored on the monitored item
+	 * @param trigger       which changes are reported: the status, the status and
+	 *                      value, or also the source timestamp
+	 * @param deadbandType  None, Absolute or Percent. A percent deadband is a
+	 *                      percentage of the EURange of the node.
+	 * @param deadbandValue the value must change more than this before it is
+	 *                      reported
+	 */
+	public void setDataChangeFilter(String configurationName, OpcUaClient opcClient, String nodeId,
+			DataChangeTrigger trigger,
+			DeadbandType deadbandType, double deadbandValue) throws CoreException {
+		requireNonNull(trigger, "Data change trigger cannot be empty");
+		requireNonNull(deadbandType, "Deadband type cannot be empty");
+		if (deadbandValue < 0) {
+			throw new IllegalArgumentException("Deadband value cannot be negative");
+		}
+		if (deadbandType == DeadbandType.Percent && deadbandValue > 100) {
+			throw new IllegalArgumentException("Percent deadband cannot be more than 100");
+		}
+		setFilter(configurationName, opcClient, nodeId,
+				new DataChangeFilter(trigger, uint(deadbandType.getValue()), deadbandValue));
+	}
+
+	/**
+	 * @param aggregateType        node ID of the aggregate function, for instance
+	 *                             Identifiers.AggregateFunction_Average
+	 * @param processingIntervalMs the interval for which one aggregate is
+	 *                             calculated
+	 */
+	public void setAggregateFilter(String configurationName, OpcUaClient opcClient, String nodeId,
+			NodeId aggregateType,
+			double processingIntervalMs) throws CoreException {
+		requireNonNull(aggregateType, "Aggregate type cannot be empty");
+		if (processingIntervalMs <= 0) {
+			throw new IllegalArgumentException("Processing interval must be positive");
+		}
+		// Use the aggregate configuration of the server
+		setFilter(configurationName, opcClient, nodeId, new AggregateFilter(DateTime.now(), aggregateType,
+				processingIntervalMs, new AggregateConfiguration(true, false, ubyte(100), ubyte(100), false)));
+	}
+
+	public void removeFilter(String configurationName, OpcUaClient opcClient, String nodeId) throws CoreException {
+		ConcurrentHashMap<NodeId, MonitoringFilter> filters = filtersPerConfiguration.get(configurationName);
+		if (filters != null) {
+			filters.remove(new OpcNode(nodeId, opcClient.getNamespaceTable()).getOpcNodeId());
+		}
+	}
+
+	public void removeAllFilters(String configurationName) {
+		filtersPerConfiguration.remove(configurationName);
+	}
+
+	/**
+	 * @return the encoded filter for the node, or null if the node has no filter
+	 */
+	public ExtensionObject getEncodedFilter(String configurationName, OpcUaClient opcClient, NodeId opcNodeId) {
+		ConcurrentHashMap<NodeId, MonitoringFilter> filters = filtersPerConfiguration.get(configurationName);
+		MonitoringFilter filter = filters != null ? filters.get(opcNodeId) : null;
+		if (filter == null) {
+			return null;
+		}
+		LOGGER.debug(() -> "Using " + filter.getClass().getSimpleName() + " for monitored item of node "
+				+ opcNodeId.toParseableString());
+		return ExtensionObject.encode(opcClient.getStaticSerializationContext(), filter);
+	}
+
+	private void setFilter(String configurationName, OpcUaClient opcClient, String nodeId, MonitoringFilter filter)
+			throws CoreException {
+		requireNonNull(configurationName, "Server configuration name cannot be empty");
+		filtersPerConfiguration.computeIfAbsent(configurationName, key -> new ConcurrentHashMap<>())
+				.put(new OpcNode(nodeId, opcClient.getNamespaceTable()).getOpcNodeId(), filter);
+	}
+}
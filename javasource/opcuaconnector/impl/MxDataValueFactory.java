@@ -2,7 +2,6 @@ package opcuaconnector.impl;
 
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
 
-import com.google.gson.Gson;
 import com.mendix.systemwideinterfaces.core.IContext;
 
 import opcuaconnector.impl.MxStatusCodeFactory.StatusCodeType;
@@ -33,7 +32,7 @@ public class MxDataValueFactory {
 		default:
 			throw new IllegalArgumentException();
 		}
-		mxDataValue.setValue(new Gson().toJson(opcDataValue.getValue()));
+		mxDataValue.setValue(VariantJsonEncoder.encode(opcDataValue.getValue()));
 		mxDataValue.setServerTimestamp(
 				opcDataValue.getServerTime().isNull() ? null : opcDataValue.getServerTime().getJavaDate());
 		mxDataValue.setSeverPicoSeconds(
@@ -2,6 +2,7 @@ package opcuaconnector.impl;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.function.Supplier;
 
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
@@ -25,6 +26,13 @@ import com.mendix.logging.ILogNode;
  * }
  * </pre>
  * The result of above log statement will be that in Mendix there will be a debug log under the Log Node with message: "MyClass: default constructor executed".
+ * 
+ * On hot paths, use the supplier or the parameterized methods, so the message is only built when the level is enabled:
+ * <pre>
+ *     LOGGER.debug(() -> "Browsing " + opcBrowseDescription);
+ *     LOGGER.debugf("Received {} values for node {}", count, opcNodeId);
+ * </pre>
+ * A disabled level is checked on the log node before any message is built, so it costs a single check.
  */
 public class MxLogger {
 
@@ -95,6 +103,19 @@ public class MxLogger {
 		return LOGGER.isTraceEnabled();
 	}
 
+	//replaces every {} in the template with the next argument, like SLF4J.
+	private static String formatTemplate(final String template, final Object... args) {
+		StringBuilder msg = new StringBuilder(template.length() + 16 * args.length);
+		int argIndex = 0;
+		int start = 0;
+		int placeholder;
+		while (argIndex < args.length && (placeholder = template.indexOf("{}", start)) >= 0) {
+			msg.append(template, start, placeholder).append(args[argIndex++]);
+			start = placeholder + 2;
+		}
+		return msg.append(template, start, template.length()).toString();
+	}
+
 	//format the message to log in Mendix, so all log messages from this class have the same format.
 	private static String formatMsg(final Class<?> clazz, final String msg) {
 		return clazz.getSimpleName() + ": " + msg;
@@ -233,7 +254,9 @@ public class MxLogger {
 	 * @param msg message to log
 	 */
 	public void debug(final String msg) {
-		debug(clazz, msg);
+		if (isDebugEnabled()) {
+			debug(clazz, msg);
+		}
 	}
 	/**
 	 * Log a debug message to the Mendix log system.
@@ -264,12 +287,59 @@ public class MxLogger {
 		}
 	}
 
+	/**
+	 * Log a debug message to the Mendix log system.
+	 * The message is only built when debug is enabled.
+	 * @param msgSupplier supplies the message to log
+	 */
+	public void debug(final Supplier<String> msgSupplier) {
+		if (isDebugEnabled()) {
+			debug(clazz, msgSupplier.get());
+		}
+	}
+	/**
+	 * Log a debug message to the Mendix log system.
+	 * Each {} in the template is replaced with the next argument, only when debug is enabled.
+	 * @param template message with {} placeholders
+	 */
+	public void debugf(final String template, final Object arg) {
+		if (isDebugEnabled()) {
+			debug(clazz, formatTemplate(template, arg));
+		}
+	}
+	/**
+	 * @see #debugf(String, Object)
+	 */
+	public void debugf(final String template, final Object arg1, final Object arg2) {
+		if (isDebugEnabled()) {
+			debug(clazz, formatTemplate(template, arg1, arg2));
+		}
+	}
+	/**
+	 * @see #debugf(String, Object)
+	 */
+	public void debugf(final String template, final Object arg1, final Object arg2, final Object arg3) {
+		if (isDebugEnabled()) {
+			debug(clazz, formatTemplate(template, arg1, arg2, arg3));
+		}
+	}
+	/**
+	 * @see #debugf(String, Object)
+	 */
+	public void debugf(final String template, final Object... args) {
+		if (isDebugEnabled()) {
+			debug(clazz, formatTemplate(template, args));
+		}
+	}
+
 	/**
 	 * Log a trace message to the Mendix log system.
 	 * @param msg message to log
 	 */
 	public void trace(final String msg) {
-		trace(clazz, msg);
+		if (isTraceEnabled()) {
+			trace(clazz, msg);
+		}
 	}
 	/**
 	 * Log a trace message to the Mendix log system.
@@ -300,6 +370,27 @@ public class MxLogger {
 		}
 	}
 
+	/**
+	 * Log a trace message to the Mendix log system.
+	 * The message is only built when trace is enabled.
+	 * @param msgSupplier supplies the message to log
+	 */
+	public void trace(final Supplier<String> msgSupplier) {
+		if (isTraceEnabled()) {
+			trace(clazz, msgSupplier.get());
+		}
+	}
+	/**
+	 * Log a trace message to the Mendix log system.
+	 * Each {} in the template is replaced with the next argument, only when trace is enabled.
+	 * @param template message with {} placeholders
+	 */
+	public void tracef(final String template, final Object... args) {
+		if (isTraceEnabled()) {
+			trace(clazz, formatTemplate(template, args));
+		}
+	}
+
 	/**
 	 * Returns true when debug output is enabled for this Mendix Log node.<br>
 	 * This will be when logging of the node is set to debug or below (trace).<br>
@@ -0,0 +1,116 @@
+package opcuaconnector.impl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.eclipse.milo.opcua.stack.core.UaRuntimeException;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+/**
+ * Interns the node IDs parsed from the strings entered in Mendix. Models use the
+ * same node ID strings for every read, write, browse and monitored item, and
+ * parsing scans the string and allocates a new node ID each time. Node IDs are
+ * immutable, so one parsed instance is shared by all requests.
+ *
+ * Strings that fail to parse are not cached. When the cache is full an
+ * arbitrary eighth of the entries is evicted, so a stream of unique strings
+ * cannot grow it without bounds while most of the working set stays cached.
+ */
+public class NodeIdCache {
+	private static final NodeIdCache INSTANCE = new NodeIdCache();
+	public static final int DEFAULT_MAX_ENTRIES = 50000;
+	private static final int EVICTION_FRACTION = 8;
+
+	private final ConcurrentHashMap<String, NodeId> nodeIds = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, ExpandedNodeId> expandedNodeIds = new ConcurrentHashMap<>();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+	private NodeIdCache() {
+	}
+
+	public static NodeIdCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @throws UaRuntimeException when the string is not a valid node ID
+	 */
+	public NodeId getNodeId(String nodeId) {
+		return get(nodeIds, nodeId, NodeId::parse);
+	}
+
+	/**
+	 * Parses node IDs that refer to their namespace by URI (nsu=) or to another
+	 * server (svr=), as well as plain node IDs.
+	 *
+	 * @throws UaRuntimeException when the string is not a valid expanded node ID
+	 */
+	public ExpandedNodeId getExpandedNodeId(String expandedNodeId) {
+		return get(expandedNodeIds, expandedNodeId, ExpandedNodeId::parse);
+	}
+
+	/**
+	 * @return true if the string refers to its namespace by URI or to another
+	 *         server, and can only be parsed as an expanded node ID
+	 */
+	public static boolean isExpandedNodeId(String nodeId) {
+		return nodeId.startsWith("nsu=") || nodeId.startsWith("svr=");
+	}
+
+	private <T> T get(ConcurrentHashMap<String, T> entries, String key, Function<String, T> parser) {
+		T value = entries.get(key);
+		if (value != null) {
+			hitCount.incrementAndGet();
+			return value;
+		}
+		missCount.incrementAndGet();
+		value = parser.apply(key);
+		if (entries.size() >= maxEntries) {
+			evict(entries);
+		}
+		entries.put(key, value);
+		return value;
+	}
+
+	/**
+	 * Evicts in iteration order, which follows the hashes of the strings and not
+	 * their use, so the evicted entries are spread over the working set.
+	 */
+	private void evict(ConcurrentHashMap<String, ?> entries) {
+		int entriesToEvict = Math.max(1, entries.size() / EVICTION_FRACTION);
+		Iterator<String> keys = entries.keySet().iterator();
+		while (entriesToEvict-- > 0 && keys.hasNext()) {
+			keys.next();
+			keys.remove();
+		}
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("Maximum number of cached node IDs must be positive");
+		}
+		this.maxEntries = maxEntries;
+	}
+
+	public void clear() {
+		nodeIds.clear();
+		expandedNodeIds.clear();
+	}
+
+	public int getSize() {
+		return nodeIds.size() + expandedNodeIds.size();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+}
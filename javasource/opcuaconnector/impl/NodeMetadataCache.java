@@ -0,0 +1,360 @@
+package opcuaconnector.impl;
+
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscriptionManager.SubscriptionListener;
+import org.eclipse.milo.opcua.sdk.client.nodes.UaNode;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.serialization.SerializationContext;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.FilterOperator;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.ContentFilterElement;
+import org.eclipse.milo.opcua.stack.core.types.structured.ElementOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.EventFilter;
+import org.eclipse.milo.opcua.stack.core.types.structured.LiteralOperand;
+import org.eclipse.milo.opcua.stack.core.types.structured.ModelChangeStructureDataType;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.SemanticChangeStructureDataType;
+import org.eclipse.milo.opcua.stack.core.types.structured.SimpleAttributeOperand;
+
+import com.mendix.core.CoreException;
+
+/**
+ * Caches the nodes requested through GetNodeDetails per client. Loading a node
+ * reads all of its attributes, while metadata such as the browse name, data type
+ * and access level hardly ever changes.
+ *
+ * Entries expire after the time to live, and the least recently used entry is
+ * evicted when the cache is full. When model change monitoring is enabled,
+ * the cache subscribes to the model change events of the server and drops the
+ * affected nodes as soon as the server reports a GeneralModelChangeEvent or
+ * SemanticChangeEvent. This takes a subscription of the session, so it is off
+ * by default. Without it, or when the server does not report these events or
+ * has no subscription left, the cache relies on the time to live only.
+ */
+public class NodeMetadataCache {
+	private static final MxLogger LOGGER = new MxLogger(NodeMetadataCache.class);
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	public static final long DEFAULT_TIME_TO_LIVE_MS = TimeUnit.MINUTES.toMillis(5);
+	private static final double MODEL_CHANGE_PUBLISHING_INTERVAL_MS = 1000.0;
+	private static final Set<UaSubscription> MODEL_CHANGE_SUBSCRIPTIONS = ConcurrentHashMap.newKeySet();
+
+	private final OpcUaClient opcClient;
+	private final String name;
+	private final LinkedHashMap<NodeId, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong invalidationCount = new AtomicLong();
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+	private volatile long timeToLiveMs = DEFAULT_TIME_TO_LIVE_MS;
+	private volatile UaSubscription modelChangeSubscription;
+	private volatile boolean isModelChangeMonitoringEnabled = false;
+	private volatile boolean isModelChangeMonitoringRequested = false;
+	private volatile boolean isStopped = false;
+	private final SubscriptionListener subscriptionListener = new SubscriptionListener() {
+		@Override
+		public void onSubscriptionTransferFailed(UaSubscription subscription, StatusCode statusCode) {
+			if (subscription == modelChangeSubscription) {
+				LOGGER.warn("The model change subscription of " + name + " could not be transferred. The status code is "
+						+ statusCode + ". Clearing the node cache and subscribing again on the next request");
+				MODEL_CHANGE_SUBSCRIPTIONS.remove(subscription);
+				modelChangeSubscription = null;
+				isModelChangeMonitoringRequested = false;
+				invalidateAll();
+			}
+		}
+	};
+
+	public NodeMetadataCache(OpcUaClient opcClient, String name) {
+		this.opcClient = opcClient;
+		this.name = name;
+	}
+
+	/**
+	 * @return true if the subscription only exists to keep a node cache up to
+	 *         date, and does not belong to a subscription of the application
+	 */
+	public static boolean isModelChangeSubscription(UaSubscription subscription) {
+		return MODEL_CHANGE_SUBSCRIPTIONS.contains(subscription);
+	}
+
+	/**
+	 * Returns the cached node, or loads it when it is not cached or expired.
+	 *
+	 * @param opcNodeId  the node to return
+	 * @param nodeLoader reads the node from the server
+	 * @throws CoreException whenever the node cannot be loaded
+	 */
+	public UaNode getNode(NodeId opcNodeId, NodeLoader nodeLoader) throws CoreException {
+		if (isModelChangeMonitoringEnabled && !isModelChangeMonitoringRequested) {
+			startModelChangeMonitoring();
+		}
+		long now = System.nanoTime();
+		synchronized (entries) {
+			Entry entry = entries.get(opcNodeId);
+			if (entry != null && now < entry.expiresAtNanos) {
+				hitCount.incrementAndGet();
+				return entry.opcNode;
+			}
+		}
+		missCount.incrementAndGet();
+		long loadGeneration = generation.get();
+		UaNode opcNode = nodeLoader.load(opcNodeId);
+		synchronized (entries) {
+			// A model change during the load may have made the node outdated already
+			if (loadGeneration == generation.get() && !isStopped) {
+				entries.put(opcNodeId,
+						new Entry(opcNode, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeToLiveMs)));
+				removeEldestEntries();
+			}
+		}
+		return opcNode;
+	}
+
+	// Called with the lock on entries held
+	private void removeEldestEntries() {
+		while (entries.size() > maxEntries) {
+			NodeId eldestNodeId = entries.keySet().iterator().next();
+			entries.remove(eldestNodeId);
+			evictionCount.incrementAndGet();
+		}
+	}
+
+	public void invalidate(NodeId opcNodeId) {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			if (entries.remove(opcNodeId) != null) {
+				invalidationCount.incrementAndGet();
+			}
+		}
+	}
+
+	public void invalidateAll() {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			invalidationCount.addAndGet(entries.size());
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Clears the cache and deletes the model change subscription.
+	 */
+	public void stop() {
+		isStopped = true;
+		invalidateAll();
+		opcClient.getSubscriptionManager().removeSubscriptionListener(subscriptionListener);
+		deleteModelChangeSubscription();
+	}
+
+	/**
+	 * Enables or disables dropping cached nodes on the model change events of the
+	 * server. Enabling it creates an extra subscription on the session with the
+	 * next request. When the server has no subscription left, the cache falls back
+	 * to the time to live.
+	 */
+	public synchronized void setModelChangeMonitoringEnabled(boolean isModelChangeMonitoringEnabled) {
+		this.isModelChangeMonitoringEnabled = isModelChangeMonitoringEnabled;
+		if (!isModelChangeMonitoringEnabled && isModelChangeMonitoringRequested) {
+			opcClient.getSubscriptionManager().removeSubscriptionListener(subscriptionListener);
+			deleteModelChangeSubscription();
+			isModelChangeMonitoringRequested = false;
+		}
+	}
+
+	public boolean isModelChangeMonitoringEnabled() {
+		return isModelChangeMonitoringEnabled;
+	}
+
+	private void deleteModelChangeSubscription() {
+		UaSubscription subscription = modelChangeSubscription;
+		modelChangeSubscription = null;
+		if (subscription != null) {
+			MODEL_CHANGE_SUBSCRIPTIONS.remove(subscription);
+			opcClient.getSubscriptionManager().deleteSubscription(subscription.getSubscriptionId());
+		}
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("Maximum number of cached nodes must be positive");
+		}
+		this.maxEntries = maxEntries;
+		synchronized (entries) {
+			removeEldestEntries();
+		}
+	}
+
+	/**
+	 * Sets how long a node stays cached. Only applies to nodes that are loaded from
+	 * now on.
+	 */
+	public void setTimeToLiveMs(long timeToLiveMs) {
+		if (timeToLiveMs < 0) {
+			throw new IllegalArgumentException("Time to live cannot be negative");
+		}
+		this.timeToLiveMs = timeToLiveMs;
+	}
+
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/** Number of cached nodes that were dropped because the server model changed. */
+	public long getInvalidationCount() {
+		return invalidationCount.get();
+	}
+
+	public double getHitRatio() {
+		long hits = hitCount.get();
+		long total = hits + missCount.get();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Subscribes to the model change events of the Server object, once. When the
+	 * subscription or its monitored item cannot be created, for instance because
+	 * the server allows no more subscriptions, nothing is kept on the server and
+	 * the cache relies on the time to live.
+	 */
+	private synchronized void startModelChangeMonitoring() {
+		if (!isModelChangeMonitoringEnabled || isModelChangeMonitoringRequested || isStopped) {
+			return;
+		}
+		isModelChangeMonitoringRequested = true;
+		opcClient.getSubscriptionManager().addSubscriptionListener(subscriptionListener);
+		opcClient.getSubscriptionManager().createSubscription(MODEL_CHANGE_PUBLISHING_INTERVAL_MS)
+				.thenCompose(subscription -> {
+					MODEL_CHANGE_SUBSCRIPTIONS.add(subscription);
+					modelChangeSubscription = subscription;
+					return subscription.createMonitoredItems(TimestampsToReturn.Neither,
+							Collections.singletonList(createModelChangeRequest(subscription)),
+							(opcMonitoredItem, index) -> opcMonitoredItem
+									.setEventConsumer(eventValues -> onModelChangeEvent(eventValues)));
+				}).whenComplete((opcMonitoredItems, error) -> {
+					if (error != null || opcMonitoredItems.isEmpty()
+							|| opcMonitoredItems.get(0).getStatusCode().isBad()) {
+						deleteModelChangeSubscription();
+						LOGGER.warn("Cannot subscribe to model change events of " + name
+								+ ". Cached nodes are only refreshed after their time to live. The error is "
+								+ (error != null ? error.getMessage()
+										: opcMonitoredItems.isEmpty() ? "that no monitored item was created"
+												: opcMonitoredItems.get(0).getStatusCode()));
+					} else {
+						LOGGER.debug("Subscribed to model change events of " + name);
+					}
+				});
+	}
+
+	private MonitoredItemCreateRequest createModelChangeRequest(UaSubscription subscription) {
+		SerializationContext serializationContext = opcClient.getStaticSerializationContext();
+		SimpleAttributeOperand[] selectClauses = new SimpleAttributeOperand[] {
+				new SimpleAttributeOperand(Identifiers.BaseEventType,
+						new QualifiedName[] { new QualifiedName(0, "EventType") }, AttributeId.Value.uid(), null),
+				new SimpleAttributeOperand(Identifiers.GeneralModelChangeEventType,
+						new QualifiedName[] { new QualifiedName(0, "Changes") }, AttributeId.Value.uid(), null),
+				new SimpleAttributeOperand(Identifiers.SemanticChangeEventType,
+						new QualifiedName[] { new QualifiedName(0, "Changes") }, AttributeId.Value.uid(), null) };
+		ContentFilter whereClause = new ContentFilter(new ContentFilterElement[] {
+				new ContentFilterElement(FilterOperator.Or,
+						new ExtensionObject[] {
+								ExtensionObject.encode(serializationContext, new ElementOperand(uint(1))),
+								ExtensionObject.encode(serializationContext, new ElementOperand(uint(2))) }),
+				new ContentFilterElement(FilterOperator.OfType,
+						new ExtensionObject[] { ExtensionObject.encode(serializationContext,
+								new LiteralOperand(new Variant(Identifiers.GeneralModelChangeEventType))) }),
+				new ContentFilterElement(FilterOperator.OfType,
+						new ExtensionObject[] { ExtensionObject.encode(serializationContext,
+								new LiteralOperand(new Variant(Identifiers.SemanticChangeEventType))) }) });
+		return new MonitoredItemCreateRequest(
+				new ReadValueId(Identifiers.Server, AttributeId.EventNotifier.uid(), null, QualifiedName.NULL_VALUE),
+				MonitoringMode.Reporting,
+				new MonitoringParameters(subscription.nextClientHandle(), 0.0,
+						ExtensionObject.encode(serializationContext, new EventFilter(selectClauses, whereClause)),
+						uint(100), true));
+	}
+
+	/**
+	 * Drops the nodes the event reports as affected. When the event does not tell
+	 * which nodes are affected, the whole cache is dropped.
+	 */
+	private void onModelChangeEvent(Variant[] eventValues) {
+		List<NodeId> affectedNodeIds = new ArrayList<>();
+		for (int i = 1; i < eventValues.length; i++) {
+			Object changes = eventValues[i].getValue();
+			if (changes instanceof ExtensionObject[]) {
+				for (ExtensionObject change : (ExtensionObject[]) changes) {
+					Object decodedChange = change.decodeOrNull(opcClient.getStaticSerializationContext());
+					if (decodedChange instanceof ModelChangeStructureDataType) {
+						affectedNodeIds.add(((ModelChangeStructureDataType) decodedChange).getAffected());
+					} else if (decodedChange instanceof SemanticChangeStructureDataType) {
+						affectedNodeIds.add(((SemanticChangeStructureDataType) decodedChange).getAffected());
+					}
+				}
+			}
+		}
+		if (affectedNodeIds.isEmpty()) {
+			LOGGER.debug("Received a model change event from " + name + ". Clearing the node cache");
+			invalidateAll();
+			return;
+		}
+		LOGGER.debugf("Received a model change event from {} for {} nodes", name, affectedNodeIds.size());
+		affectedNodeIds.forEach(this::invalidate);
+	}
+
+	/**
+	 * Reads a node with all its attributes from the server.
+	 */
+	@FunctionalInterface
+	public interface NodeLoader {
+		UaNode load(NodeId opcNodeId) throws CoreException;
+	}
+
+	private static final class Entry {
+		private final UaNode opcNode;
+		private final long expiresAtNanos;
+
+		private Entry(UaNode opcNode, long expiresAtNanos) {
+			this.opcNode = opcNode;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+	}
+}
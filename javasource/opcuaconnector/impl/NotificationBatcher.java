@@ -0,0 +1,255 @@
+package opcuaconnector.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+
+/**
+ * Collects the notifications of the monitored items of one subscription in a
+ * bounded queue and hands them over in batches. A batch is drained every flush
+ * interval, or as soon as the maximum batch size is reached, so that the
+ * receiving side can process many notifications in a single transaction instead
+ * of one transaction per notification.
+ *
+ * The batches are processed on the callback executor of the client, the
+ * scheduler of this class only decides when a drain is due.
+ *
+ * When the queue is full the publishing thread is blocked for at most the offer
+ * timeout. This pushes back on the subscription, so the server starts queuing
+ * on its side. Notifications that still do not fit are dropped and counted.
+ */
+public class NotificationBatcher {
+	private static final MxLogger LOGGER = new MxLogger(NotificationBatcher.class);
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+	public static final long DEFAULT_FLUSH_INTERVAL_MS = 250;
+	public static final long DEFAULT_OFFER_TIMEOUT_MS = 0;
+
+	private static final ScheduledExecutorService FLUSH_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable,
+							"OPC UA Connector notification scheduler " + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final String name;
+	private final BlockingQueue<Notification> queue;
+	private final int maxBatchSize;
+	private final long offerTimeoutMs;
+	private volatile Consumer<List<Notification>> batchConsumer;
+	private final Supplier<CallbackExecutor> callbackExecutorSupplier;
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+	private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+	private final AtomicLong receivedCount = new AtomicLong();
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final ScheduledFuture<?> flushTask;
+	private volatile boolean stopped = false;
+
+	public NotificationBatcher(String name, Consumer<List<Notification>> batchConsumer,
+			Supplier<CallbackExecutor> callbackExecutorSupplier) {
+		this(name, batchConsumer, callbackExecutorSupplier, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH_SIZE,
+				DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_OFFER_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param name            used in log messages and thread names
+	 * @param batchConsumer   receives the drained notifications, in arrival order
+	 * @param callbackExecutorSupplier supplies the executor the batches are
+	 *                        processed on
+	 * @param queueCapacity   maximum number of notifications waiting to be drained
+	 * @param maxBatchSize    maximum number of notifications handed over at once,
+	 *                        reaching this size triggers an immediate drain
+	 * @param flushIntervalMs time between two periodic drains
+	 * @param offerTimeoutMs  how long the publishing thread may wait for space in
+	 *                        the queue before the notification is dropped. The
+	 *                        publishing threads are shared by all clients, so the
+	 *                        default is not to wait at all.
+	 */
+	public NotificationBatcher(String name, Consumer<List<Notification>> batchConsumer,
+			Supplier<CallbackExecutor> callbackExecutorSupplier, int queueCapacity, int maxBatchSize,
+			long flushIntervalMs, long offerTimeoutMs) {
+		if (queueCapacity <= 0 || maxBatchSize <= 0 || flushIntervalMs <= 0 || offerTimeoutMs < 0) {
+			throw new IllegalArgumentException("Queue capacity, batch size and flush interval must be positive");
+		}
+		this.name = name;
+		this.batchConsumer = batchConsumer;
+		this.callbackExecutorSupplier = callbackExecutorSupplier;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.maxBatchSize = maxBatchSize;
+		this.offerTimeoutMs = offerTimeoutMs;
+		this.flushTask = FLUSH_SCHEDULER.scheduleWithFixedDelay(this::scheduleDrain, flushIntervalMs,
+				flushIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Replaces the consumer of the drained notifications, for instance when the
+	 * subscription is replaced by a recreated subscription.
+	 */
+	public void setBatchConsumer(Consumer<List<Notification>> batchConsumer) {
+		this.batchConsumer = batchConsumer;
+	}
+
+	/**
+	 * Adds a notification to the queue. Only blocks, for at most the offer
+	 * timeout, when the queue is full and an offer timeout is set.
+	 *
+	 * @return false if the notification was dropped
+	 */
+	public boolean submit(Notification notification) {
+		if (stopped) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		receivedCount.incrementAndGet();
+		try {
+			if (!queue.offer(notification)
+					&& (offerTimeoutMs == 0 || !queue.offer(notification, offerTimeoutMs, TimeUnit.MILLISECONDS))) {
+				long dropped = droppedCount.incrementAndGet();
+				LOGGER.warn("Notification queue of " + name + " is full. Dropped a notification for monitored item "
+						+ notification.getOpcMonitoredItem().getMonitoredItemId() + ". Total dropped: " + dropped);
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		if (queue.size() >= maxBatchSize) {
+			scheduleDrain();
+		}
+		return true;
+	}
+
+	/**
+	 * Hands a drain to the callback executor, unless one is already pending. Drains
+	 * are keyed on this batcher, so they always run in the same lane, and the
+	 * executor never discards them, otherwise no drain would be scheduled again.
+	 */
+	private void scheduleDrain() {
+		if (!queue.isEmpty() && drainScheduled.compareAndSet(false, true)
+				&& !callbackExecutorSupplier.get().executeDrain(this, this::drain)) {
+			drainScheduled.set(false);
+		}
+	}
+
+	/**
+	 * Drains the queue in batches of at most the maximum batch size. Only one
+	 * drain runs at a time, so batches are always delivered in order.
+	 */
+	public void drain() {
+		drainScheduled.set(false);
+		if (!draining.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			List<Notification> batch = new ArrayList<>(maxBatchSize);
+			while (queue.drainTo(batch, maxBatchSize) > 0) {
+				deliver(batch);
+				batch = new ArrayList<>(maxBatchSize);
+			}
+		} finally {
+			draining.set(false);
+		}
+	}
+
+	private void deliver(List<Notification> batch) {
+		try {
+			batchConsumer.accept(batch);
+			deliveredCount.addAndGet(batch.size());
+			batchCount.incrementAndGet();
+		} catch (Exception e) {
+			LOGGER.error("An error occured while delivering a batch of " + batch.size() + " notifications for "
+					+ name + ". The error is " + e);
+		}
+	}
+
+	/**
+	 * Stops the periodic drain and hands over the notifications that are still
+	 * queued.
+	 */
+	public void stop() {
+		stopped = true;
+		flushTask.cancel(false);
+		drain();
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	public int getRemainingCapacity() {
+		return queue.remainingCapacity();
+	}
+
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * A single value notification together with the monitored item it belongs to
+	 * and the binding plan of the microflow that should process it.
+	 */
+	public static class Notification {
+		private final UaMonitoredItem opcMonitoredItem;
+		private final MicroflowBindingPlan bindingPlan;
+		private final DataValue opcDataValue;
+
+		public Notification(UaMonitoredItem opcMonitoredItem, MicroflowBindingPlan bindingPlan,
+				DataValue opcDataValue) {
+			this.opcMonitoredItem = opcMonitoredItem;
+			this.bindingPlan = bindingPlan;
+			this.opcDataValue = opcDataValue;
+		}
+
+		public UaMonitoredItem getOpcMonitoredItem() {
+			return opcMonitoredItem;
+		}
+
+		public String getMicroflowName() {
+			return bindingPlan.getMicroflowName();
+		}
+
+		public MicroflowBindingPlan getBindingPlan() {
+			return bindingPlan;
+		}
+
+		public DataValue getOpcDataValue() {
+			return opcDataValue;
+		}
+	}
+}
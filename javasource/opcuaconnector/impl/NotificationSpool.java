@@ -0,0 +1,177 @@
+package opcuaconnector.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only buffer of records in a memory-mapped segment file of a fixed
+ * size. Records are read back in the order they were appended, and only removed
+ * after they were processed. The mapped file keeps the records out of the Java
+ * heap, the operating system writes them to disk in the background.
+ *
+ * A record is stored as the time it was appended, its length and its bytes.
+ * When all records are removed the segment starts at the beginning again, when
+ * a record does not fit at the end the unread records are moved to the front.
+ * A record that does not fit at all is rejected.
+ *
+ * The file is emptied when the spool is opened, the records refer to
+ * subscriptions that only exist while the application runs.
+ */
+public class NotificationSpool {
+	private static final int RECORD_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+	private static final int COMPACT_CHUNK_BYTES = 64 * 1024;
+
+	private final Path file;
+	private final FileChannel fileChannel;
+	private final MappedByteBuffer segment;
+	private int readPosition = 0;
+	private int writePosition = 0;
+	private int recordCount = 0;
+	private long appendedCount = 0;
+	private long removedCount = 0;
+	private long rejectedCount = 0;
+
+	/**
+	 * @param file          the segment file, created when it does not exist
+	 * @param capacityBytes size of the segment file
+	 * @throws IOException when the file cannot be created or mapped
+	 */
+	public NotificationSpool(Path file, int capacityBytes) throws IOException {
+		if (capacityBytes <= RECORD_HEADER_BYTES) {
+			throw new IllegalArgumentException("Spool capacity must be more than " + RECORD_HEADER_BYTES + " bytes");
+		}
+		this.file = file;
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		this.fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.segment = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+	}
+
+	/**
+	 * @return false if the record does not fit in the segment
+	 */
+	public synchronized boolean append(byte[] record) {
+		int recordBytes = RECORD_HEADER_BYTES + record.length;
+		if (segment.capacity() - writePosition < recordBytes) {
+			compact();
+			if (segment.capacity() - writePosition < recordBytes) {
+				rejectedCount++;
+				return false;
+			}
+		}
+		segment.putLong(writePosition, System.currentTimeMillis());
+		segment.putInt(writePosition + Long.BYTES, record.length);
+		ByteBuffer target = segment.duplicate();
+		target.position(writePosition + RECORD_HEADER_BYTES);
+		target.put(record);
+		writePosition += recordBytes;
+		recordCount++;
+		appendedCount++;
+		return true;
+	}
+
+	/**
+	 * Returns the oldest records without removing them.
+	 *
+	 * @param maxRecords maximum number of records to return
+	 */
+	public synchronized List<byte[]> peek(int maxRecords) {
+		List<byte[]> records = new ArrayList<>(Math.min(maxRecords, recordCount));
+		int position = readPosition;
+		while (records.size() < maxRecords && position < writePosition) {
+			byte[] record = new byte[segment.getInt(position + Long.BYTES)];
+			ByteBuffer source = segment.duplicate();
+			source.position(position + RECORD_HEADER_BYTES);
+			source.get(record);
+			records.add(record);
+			position += RECORD_HEADER_BYTES + record.length;
+		}
+		return records;
+	}
+
+	/**
+	 * Removes the oldest records, after they were processed.
+	 */
+	public synchronized void remove(int count) {
+		for (int i = 0; i < count && readPosition < writePosition; i++) {
+			readPosition += RECORD_HEADER_BYTES + segment.getInt(readPosition + Long.BYTES);
+			recordCount--;
+			removedCount++;
+		}
+		if (readPosition == writePosition) {
+			readPosition = 0;
+			writePosition = 0;
+		}
+	}
+
+	public synchronized boolean isEmpty() {
+		return recordCount == 0;
+	}
+
+	public synchronized int getRecordCount() {
+		return recordCount;
+	}
+
+	public synchronized int getBufferedBytes() {
+		return writePosition - readPosition;
+	}
+
+	public int getCapacityBytes() {
+		return segment.capacity();
+	}
+
+	/**
+	 * @return how long the oldest record has been waiting, zero when the spool is
+	 *         empty
+	 */
+	public synchronized long getOldestRecordAgeMs() {
+		return recordCount == 0 ? 0 : System.currentTimeMillis() - segment.getLong(readPosition);
+	}
+
+	public synchronized long getAppendedCount() {
+		return appendedCount;
+	}
+
+	public synchronized long getRemovedCount() {
+		return removedCount;
+	}
+
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * Closes and deletes the segment file. Records that are still in the spool are
+	 * lost.
+	 */
+	public synchronized void close() throws IOException {
+		fileChannel.close();
+		Files.deleteIfExists(file);
+	}
+
+	private void compact() {
+		if (readPosition == 0) {
+			return;
+		}
+		// Copies forward in chunks, the regions can overlap
+		byte[] chunk = new byte[Math.min(COMPACT_CHUNK_BYTES, writePosition - readPosition)];
+		ByteBuffer source = segment.duplicate();
+		source.position(readPosition);
+		ByteBuffer target = segment.duplicate();
+		target.position(0);
+		while (source.position() < writePosition) {
+			int length = Math.min(chunk.length, writePosition - source.position());
+			source.get(chunk, 0, length);
+			target.put(chunk, 0, length);
+		}
+		writePosition -= readPosition;
+		readPosition = 0;
+	}
+}
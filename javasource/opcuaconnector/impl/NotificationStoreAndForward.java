@@ -0,0 +1,443 @@
+package opcuaconnector.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamDecoder;
+import org.eclipse.milo.opcua.stack.core.serialization.OpcUaBinaryStreamEncoder;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import opcuaconnector.impl.ClientManager.Client;
+import opcuaconnector.impl.ClientSubscriptionManager.MonitoredItemManager;
+import opcuaconnector.impl.NotificationBatcher.Notification;
+
+/**
+ * Keeps the notifications of a client that could not be committed, for
+ * instance because the database is slow or fails over, in a NotificationSpool
+ * and delivers them again once commits succeed. While the spool is not empty,
+ * new notifications are stored behind the ones that are waiting, so the values
+ * of a monitored item reach the microflow in order.
+ *
+ * The spool is replayed every replay interval on its own thread. A replay stops
+ * at the first batch that fails and is tried again on the next interval.
+ * Notifications of monitored items that were deleted in the meantime are
+ * discarded. A stored notification that keeps failing on an error that is not
+ * transient is moved aside after the maximum number of replay attempts, so it
+ * does not block the notifications behind it.
+ */
+public class NotificationStoreAndForward {
+	private static final MxLogger LOGGER = new MxLogger(NotificationStoreAndForward.class);
+
+	private final Client client;
+	private final Settings settings;
+	private final NotificationSpool spool;
+	private final ScheduledExecutorService replayScheduler;
+	private final AtomicLong storedCount = new AtomicLong();
+	private final AtomicLong replayedCount = new AtomicLong();
+	private final AtomicLong discardedCount = new AtomicLong();
+	private final AtomicLong poisonedCount = new AtomicLong();
+	private int headAttemptCount = 0;
+	private long headRemovedCount = -1;
+
+	/**
+	 * @throws IOException when the spool file cannot be created
+	 */
+	public NotificationStoreAndForward(Client client, Settings settings) throws IOException {
+		this.client = client;
+		this.settings = settings.copy();
+		Files.createDirectories(this.settings.getDirectory());
+		Path spoolFile = Files.createTempFile(this.settings.getDirectory(),
+				client.getConfigurationName().replaceAll("[^A-Za-z0-9_-]", "_") + "-", ".spool");
+		this.spool = new NotificationSpool(spoolFile, this.settings.getCapacityBytes());
+		this.replayScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "OPC UA Connector store and forward " + client.getConfigurationName());
+			thread.setDaemon(true);
+			return thread;
+		});
+		replayScheduler.scheduleWithFixedDelay(this::replay, this.settings.getReplayIntervalMs(),
+				this.settings.getReplayIntervalMs(), TimeUnit.MILLISECONDS);
+		LOGGER.info("Store and forward of " + client.getConfigurationName() + " buffers up to "
+				+ this.settings.getCapacityBytes() + " bytes in " + spoolFile);
+	}
+
+	/**
+	 * @return true if notifications are waiting, new notifications then have to be
+	 *         stored as well to keep them in order
+	 */
+	public boolean isBacklogged() {
+		return !spool.isEmpty();
+	}
+
+	/**
+	 * Stores the notifications of a subscription behind the ones that are waiting.
+	 *
+	 * @return the number of notifications that did not fit in the spool and are
+	 *         lost
+	 */
+	public int store(UInteger subscriptionId, List<Notification> notifications) {
+		int rejectedCount = 0;
+		for (Notification notification : notifications) {
+			if (spool.append(encode(subscriptionId, notification))) {
+				storedCount.incrementAndGet();
+			} else {
+				rejectedCount++;
+			}
+		}
+		if (rejectedCount > 0) {
+			LOGGER.error("The store and forward spool of " + client.getConfigurationName() + " is full. Lost "
+					+ rejectedCount + " notifications of subscription " + subscriptionId);
+		}
+		return rejectedCount;
+	}
+
+	/**
+	 * Delivers the stored notifications in order, per subscription in one
+	 * transaction per replay batch.
+	 */
+	void replay() {
+		try {
+			while (!spool.isEmpty()) {
+				if (getHeadAttemptCount() >= settings.getMaxReplayAttempts()) {
+					replayHead();
+					continue;
+				}
+				List<StoredNotification> storedNotifications = new ArrayList<>();
+				for (byte[] record : spool.peek(settings.getMaxReplayBatchSize())) {
+					storedNotifications.add(decode(record));
+				}
+				int start = 0;
+				while (start < storedNotifications.size()) {
+					UInteger subscriptionId = storedNotifications.get(start).subscriptionId;
+					int end = start;
+					while (end < storedNotifications.size()
+							&& storedNotifications.get(end).subscriptionId.equals(subscriptionId)) {
+						end++;
+					}
+					deliverHead(subscriptionId, storedNotifications.subList(start, end));
+					start = end;
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.warn("Cannot replay the " + spool.getRecordCount() + " stored notifications of "
+					+ client.getConfigurationName() + ", retrying in " + settings.getReplayIntervalMs()
+					+ " ms. The error is " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Delivers the oldest stored notifications and removes them from the spool. A
+	 * failure that is not transient counts as an attempt of the oldest
+	 * notification.
+	 */
+	private void deliverHead(UInteger subscriptionId, List<StoredNotification> storedNotifications)
+			throws CoreException {
+		try {
+			deliver(subscriptionId, storedNotifications);
+		} catch (CoreException | RuntimeException e) {
+			if (!isTransient(e)) {
+				headAttemptCount = getHeadAttemptCount() + 1;
+			}
+			throw e;
+		}
+		spool.remove(storedNotifications.size());
+		replayedCount.addAndGet(storedNotifications.size());
+	}
+
+	/**
+	 * Delivers the oldest stored notification on its own, after batches with it
+	 * failed the maximum number of attempts. When it fails again on an error that
+	 * is not transient it is moved aside. Once it is delivered or moved aside, the
+	 * notifications behind it are replayed in batches again.
+	 */
+	private void replayHead() throws CoreException {
+		StoredNotification storedNotification = decode(spool.peek(1).get(0));
+		try {
+			deliverHead(storedNotification.subscriptionId, Collections.singletonList(storedNotification));
+		} catch (CoreException | RuntimeException e) {
+			if (isTransient(e)) {
+				throw e;
+			}
+			spool.remove(1);
+			poisonedCount.incrementAndGet();
+			LOGGER.error("Moved aside a stored notification of monitored item " + storedNotification.monitoredItemId
+					+ " of subscription " + storedNotification.subscriptionId + " of " + client.getConfigurationName()
+					+ " for microflow " + storedNotification.microflowName + " with value "
+					+ storedNotification.opcDataValue + " after " + settings.getMaxReplayAttempts()
+					+ " failed replays. The error is " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the number of failed attempts of the oldest stored notification
+	 */
+	private int getHeadAttemptCount() {
+		if (headRemovedCount != spool.getRemovedCount()) {
+			headRemovedCount = spool.getRemovedCount();
+			headAttemptCount = 0;
+		}
+		return headAttemptCount;
+	}
+
+	/**
+	 * @return true if the error is caused by a lost connection, a timeout or a
+	 *         database error that can succeed when it is tried again
+	 */
+	public static boolean isTransient(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException
+					|| cause instanceof SocketException || cause instanceof SocketTimeoutException
+					|| cause instanceof TimeoutException) {
+				return true;
+			}
+			if (cause instanceof SQLException && isTransientSqlState(((SQLException) cause).getSQLState())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Connection exceptions (08), transaction rollbacks such as deadlocks and
+	 * serialization failures (40), insufficient resources (53) and operator
+	 * intervention such as a shutdown or failover (57).
+	 */
+	private static boolean isTransientSqlState(String sqlState) {
+		return sqlState != null && (sqlState.startsWith("08") || sqlState.startsWith("40")
+				|| sqlState.startsWith("53") || sqlState.startsWith("57"));
+	}
+
+	private void deliver(UInteger subscriptionId, List<StoredNotification> storedNotifications)
+			throws CoreException {
+		Optional<MonitoredItemManager> monitoredItemManager = client.getClientSubscriptionManager()
+				.findMonitoredItemManager(subscriptionId);
+		List<Notification> notifications = new ArrayList<>();
+		for (StoredNotification storedNotification : storedNotifications) {
+			Optional<UaMonitoredItem> opcMonitoredItem = monitoredItemManager
+					.flatMap(manager -> manager.getOpcMonitoredItem(storedNotification.monitoredItemId));
+			if (opcMonitoredItem.isPresent()) {
+				notifications.add(new Notification(opcMonitoredItem.get(),
+						MicroflowBindingPlan.forMicroflow(storedNotification.microflowName),
+						storedNotification.opcDataValue));
+			} else {
+				discardedCount.incrementAndGet();
+			}
+		}
+		if (notifications.size() < storedNotifications.size()) {
+			LOGGER.warn("Discarded " + (storedNotifications.size() - notifications.size())
+					+ " stored notifications of subscription " + subscriptionId + " of " + client.getConfigurationName()
+					+ " because their monitored items no longer exist");
+		}
+		if (!notifications.isEmpty()) {
+			new OpcMonitoredItemServiceSet(client, subscriptionId, Core.createSystemContext())
+					.deliverStoredNotifications(notifications);
+		}
+	}
+
+	private byte[] encode(UInteger subscriptionId, Notification notification) {
+		ByteBuf buffer = Unpooled.buffer();
+		try {
+			OpcUaBinaryStreamEncoder encoder = new OpcUaBinaryStreamEncoder(
+					client.getUaClient().getStaticSerializationContext()).setBuffer(buffer);
+			encoder.writeUInt32(subscriptionId);
+			encoder.writeUInt32(notification.getOpcMonitoredItem().getMonitoredItemId());
+			encoder.writeString(notification.getMicroflowName());
+			encoder.writeDataValue(notification.getOpcDataValue());
+			return ByteBufUtil.getBytes(buffer);
+		} finally {
+			buffer.release();
+		}
+	}
+
+	private StoredNotification decode(byte[] record) {
+		ByteBuf buffer = Unpooled.wrappedBuffer(record);
+		try {
+			OpcUaBinaryStreamDecoder decoder = new OpcUaBinaryStreamDecoder(
+					client.getUaClient().getStaticSerializationContext()).setBuffer(buffer);
+			return new StoredNotification(decoder.readUInt32(), decoder.readUInt32(), decoder.readString(),
+					decoder.readDataValue());
+		} finally {
+			buffer.release();
+		}
+	}
+
+	/**
+	 * Stops the replay and deletes the spool. Notifications that are still stored
+	 * are lost.
+	 */
+	public void close() {
+		replayScheduler.shutdownNow();
+		if (!spool.isEmpty()) {
+			LOGGER.warn("Closing the store and forward spool of " + client.getConfigurationName() + " with "
+					+ spool.getRecordCount() + " notifications that were not delivered");
+		}
+		try {
+			spool.close();
+		} catch (IOException e) {
+			LOGGER.warn("Cannot remove the store and forward spool of " + client.getConfigurationName()
+					+ " because " + e.getMessage());
+		}
+	}
+
+	public int getBufferedCount() {
+		return spool.getRecordCount();
+	}
+
+	public int getBufferedBytes() {
+		return spool.getBufferedBytes();
+	}
+
+	/**
+	 * @return how long the oldest stored notification has been waiting
+	 */
+	public long getReplayLagMs() {
+		return spool.getOldestRecordAgeMs();
+	}
+
+	public long getStoredCount() {
+		return storedCount.get();
+	}
+
+	public long getReplayedCount() {
+		return replayedCount.get();
+	}
+
+	public long getDiscardedCount() {
+		return discardedCount.get();
+	}
+
+	/**
+	 * @return the number of stored notifications that were moved aside after they
+	 *         failed the maximum number of replay attempts
+	 */
+	public long getPoisonedCount() {
+		return poisonedCount.get();
+	}
+
+	public long getRejectedCount() {
+		return spool.getRejectedCount();
+	}
+
+	private static class StoredNotification {
+		private final UInteger subscriptionId;
+		private final UInteger monitoredItemId;
+		private final String microflowName;
+		private final DataValue opcDataValue;
+
+		private StoredNotification(UInteger subscriptionId, UInteger monitoredItemId, String microflowName,
+				DataValue opcDataValue) {
+			this.subscriptionId = subscriptionId;
+			this.monitoredItemId = monitoredItemId;
+			this.microflowName = microflowName;
+			this.opcDataValue = opcDataValue;
+		}
+	}
+
+	public static class Settings {
+		private Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "opcua-connector-spool");
+		private int capacityBytes = 64 * 1024 * 1024;
+		private long replayIntervalMs = 5000;
+		private int maxReplayBatchSize = 500;
+		private int maxReplayAttempts = 3;
+
+		public Path getDirectory() {
+			return directory;
+		}
+
+		public Settings setDirectory(Path directory) {
+			this.directory = requireNonNull(directory, "Spool directory cannot be empty");
+			return this;
+		}
+
+		public int getCapacityBytes() {
+			return capacityBytes;
+		}
+
+		/**
+		 * Size of the spool file. When it is full, new notifications are lost.
+		 */
+		public Settings setCapacityBytes(int capacityBytes) {
+			if (capacityBytes <= 0) {
+				throw new IllegalArgumentException("Spool capacity must be positive");
+			}
+			this.capacityBytes = capacityBytes;
+			return this;
+		}
+
+		public long getReplayIntervalMs() {
+			return replayIntervalMs;
+		}
+
+		public Settings setReplayIntervalMs(long replayIntervalMs) {
+			if (replayIntervalMs <= 0) {
+				throw new IllegalArgumentException("Replay interval must be positive");
+			}
+			this.replayIntervalMs = replayIntervalMs;
+			return this;
+		}
+
+		public int getMaxReplayBatchSize() {
+			return maxReplayBatchSize;
+		}
+
+		/**
+		 * Maximum number of stored notifications that are delivered in one
+		 * transaction.
+		 */
+		public Settings setMaxReplayBatchSize(int maxReplayBatchSize) {
+			if (maxReplayBatchSize <= 0) {
+				throw new IllegalArgumentException("Replay batch size must be positive");
+			}
+			this.maxReplayBatchSize = maxReplayBatchSize;
+			return this;
+		}
+
+		public int getMaxReplayAttempts() {
+			return maxReplayAttempts;
+		}
+
+		/**
+		 * Number of times a stored notification is replayed on an error that is not
+		 * transient before it is moved aside.
+		 */
+		public Settings setMaxReplayAttempts(int maxReplayAttempts) {
+			if (maxReplayAttempts <= 0) {
+				throw new IllegalArgumentException("Maximum number of replay attempts must be positive");
+			}
+			this.maxReplayAttempts = maxReplayAttempts;
+			return this;
+		}
+
+		Settings copy() {
+			return new Settings().setDirectory(directory).setCapacityBytes(capacityBytes)
+					.setReplayIntervalMs(replayIntervalMs).setMaxReplayBatchSize(maxReplayBatchSize)
+					.setMaxReplayAttempts(maxReplayAttempts);
+		}
+	}
+}
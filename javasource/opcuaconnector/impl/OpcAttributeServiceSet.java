@@ -1,25 +1,36 @@
 package opcuaconnector.impl;
 
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
 import org.eclipse.milo.opcua.sdk.client.nodes.UaNode;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
 import org.eclipse.milo.opcua.stack.core.UaException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
 import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
 import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
 import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
 import org.eclipse.milo.opcua.stack.core.types.builtin.XmlElement;
@@ -28,6 +39,14 @@ import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.AggregateConfiguration;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryData;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.HistoryReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadProcessedDetails;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadRawModifiedDetails;
 import org.eclipse.milo.opcua.stack.core.types.structured.ReadResponse;
 import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
 import org.eclipse.milo.opcua.stack.core.types.structured.WriteResponse;
@@ -35,6 +54,9 @@ import org.eclipse.milo.opcua.stack.core.types.structured.WriteValue;
 
 import com.mendix.core.CoreException;
 
+import opcuaconnector.impl.ClientManager.Client;
+import opcuaconnector.impl.OperationLimits.Limit;
+
 import opcuaconnector.proxies.ENUM_DefaultVariantType;
 import opcuaconnector.proxies.WriteNodeWriteValue;
 
@@ -43,25 +65,43 @@ public class OpcAttributeServiceSet {
 	private static final MxLogger LOGGER = new MxLogger(OpcAttributeServiceSet.class);
 
 	private OpcUaClient opcClient;
+	private Client client;
 
 	public OpcAttributeServiceSet(OpcUaClient opcClient) {
 		this.opcClient = opcClient;
 	}
 
+	/**
+	 * Creates a service set that splits large requests according to the operation
+	 * limits of the server of the client.
+	 */
+	public OpcAttributeServiceSet(Client client) {
+		this(client.getUaClient());
+		this.client = client;
+	}
+
 	/**
 	 * Gets a complete node object from the server that does include all properties.
-	 * Used in get node details
+	 * Used in get node details. When the service set was created for a client, the
+	 * node is taken from the node metadata cache of the client.
 	 * 
 	 * @param opcNodeId parsed opc node ID object
 	 * @return complete node object
 	 * @throws CoreException whenever the object cannot be found in the namespace
 	 */
 	public UaNode getOpcUaNode(NodeId opcNodeId) throws CoreException {
+		if (client != null) {
+			return client.getNodeMetadataCache().getNode(opcNodeId, this::miloGetNode);
+		}
+		return miloGetNode(opcNodeId);
+	}
+
+	private UaNode miloGetNode(NodeId opcNodeId) throws CoreException {
 		try {
-			LOGGER.debug("Requesting node details for node with node ID " + opcNodeId.toParseableString());
+			LOGGER.debug(() -> "Requesting node details for node with node ID " + opcNodeId.toParseableString());
 			UaNode opcUaNode = opcClient.getAddressSpace().getNode(opcNodeId);
-			LOGGER.debug("Received a ua node object with node ID " + opcNodeId.toParseableString() + " and browse name "
-					+ opcUaNode.getBrowseName().getName());
+			LOGGER.debug(() -> "Received a ua node object with node ID " + opcNodeId.toParseableString()
+					+ " and browse name " + opcUaNode.getBrowseName().getName());
 			return opcUaNode;
 
 		} catch (UaException e) {
@@ -71,7 +111,10 @@ public class OpcAttributeServiceSet {
 	}
 
 	/**
-	 * Reads attributes via read value ids from the server.
+	 * Reads attributes via read value ids from the server. When the service set was
+	 * created for a client, read value ids above the MaxNodesPerRead limit of the
+	 * server are split into several concurrent requests. The results are returned
+	 * in the order of the read value ids, the response header is then not set.
 	 * 
 	 * @param opcMaxAge             default 0, means read latest value by best
 	 *                              effort. Non-negative
@@ -82,13 +125,25 @@ public class OpcAttributeServiceSet {
 	 */
 	public ReadResponse miloRead(double opcMaxAge, TimestampsToReturn opcTimestampsToReturn,
 			List<ReadValueId> opcReadValueIdList) throws CoreException {
+		long startNanos = System.nanoTime();
 		try {
-			LOGGER.debug("Requesting values through read operation for " + opcReadValueIdList.size()
-					+ " read value IDs with Max age " + opcMaxAge + " and timestamps to return "
-					+ opcTimestampsToReturn.toString());
-			ReadResponse opcReadResponse = opcClient.read(opcMaxAge, opcTimestampsToReturn, opcReadValueIdList).get();
-			LOGGER.debug("Received " + opcReadResponse.getResults().length + " results for read request");
-			return opcReadResponse;
+			if (client != null) {
+				int chunkSize = client.getChunkSize(Limit.MAX_NODES_PER_READ);
+				if (opcReadValueIdList.size() > chunkSize) {
+					return miloReadChunked(opcMaxAge, opcTimestampsToReturn, opcReadValueIdList, chunkSize);
+				}
+			}
+			LOGGER.debugf("Requesting values through read operation for {} read value IDs with Max age {}"
+					+ " and timestamps to return {}", opcReadValueIdList.size(), opcMaxAge, opcTimestampsToReturn);
+			List<ReadValueId> opcRegisteredReadValueIdList = toRegisteredReadValueIds(opcReadValueIdList);
+			ReadResponse opcReadResponse = opcClient
+					.read(opcMaxAge, opcTimestampsToReturn, opcRegisteredReadValueIdList).get();
+			LOGGER.debugf("Received {} results for read request", opcReadResponse.getResults().length);
+			DataValue[] opcDataValues = retryRejectedReadAliases(opcClient, opcMaxAge, opcTimestampsToReturn,
+					opcReadValueIdList, opcRegisteredReadValueIdList, opcReadResponse.getResults()).get();
+			return opcDataValues == opcReadResponse.getResults() ? opcReadResponse
+					: new ReadResponse(opcReadResponse.getResponseHeader(), opcDataValues,
+							opcReadResponse.getDiagnosticInfos());
 		} catch (InterruptedException e) {
 			LOGGER.error(
 					"Cannot read from opc server, because the action was interrupted. The error was " + e.getMessage());
@@ -97,7 +152,161 @@ public class OpcAttributeServiceSet {
 		} catch (ExecutionException e) {
 			LOGGER.error("Cannot read from opc server. The error was " + e.getMessage());
 			throw new CoreException(e);
+		} finally {
+			recordRequest("read", startNanos);
+		}
+	}
+
+	private ReadResponse miloReadChunked(double opcMaxAge, TimestampsToReturn opcTimestampsToReturn,
+			List<ReadValueId> opcReadValueIdList, int chunkSize) throws CoreException {
+		List<DataValue> opcDataValueList = RequestChunker.execute(opcReadValueIdList, chunkSize,
+				client.getMaxRequestsInFlight(), chunk -> {
+					// Registered aliases are only valid on the first session
+					OpcUaClient opcPooledClient = client.getPooledUaClient();
+					List<ReadValueId> opcRequestedChunk = opcPooledClient == opcClient ? toRegisteredReadValueIds(chunk)
+							: chunk;
+					return opcPooledClient.read(opcMaxAge, opcTimestampsToReturn, opcRequestedChunk)
+							.thenCompose(opcReadResponse -> retryRejectedReadAliases(opcPooledClient, opcMaxAge,
+									opcTimestampsToReturn, chunk, opcRequestedChunk, opcReadResponse.getResults()))
+							.thenApply(Arrays::asList);
+				}, "read");
+		LOGGER.debugf("Received {} results for chunked read request", opcDataValueList.size());
+		return new ReadResponse(null, opcDataValueList.toArray(new DataValue[0]), null);
+	}
+
+	/**
+	 * Reads the raw history of a node between two moments. The server returns at
+	 * most valuesPerPage values per request together with a continuation point,
+	 * which is followed until all values are read. Every page is handed to the
+	 * consumer before the next one is requested, so only one page is in memory.
+	 * 
+	 * @param returnBounds whether the values just before the start and just after
+	 *                     the end are returned as well
+	 * @return the number of values that were read
+	 * @throws CoreException whenever a request fails, the server rejects the read
+	 *                       or the consumer throws
+	 */
+	public long historyReadRaw(NodeId opcNodeId, DateTime opcStartTime, DateTime opcEndTime, int valuesPerPage,
+			boolean returnBounds, HistoryPageConsumer pageConsumer) throws CoreException {
+		if (valuesPerPage <= 0) {
+			throw new IllegalArgumentException("Values per page must be positive");
+		}
+		return historyRead(opcNodeId, new ReadRawModifiedDetails(false, opcStartTime, opcEndTime,
+				uint(valuesPerPage), returnBounds), pageConsumer);
+	}
+
+	/**
+	 * Reads one aggregate per processing interval between two moments, calculated
+	 * by the server. The server decides the size of a page.
+	 * 
+	 * @param opcAggregateType node ID of the aggregate function, for instance
+	 *                         Identifiers.AggregateFunction_Average
+	 * @return the number of values that were read
+	 * @throws CoreException whenever a request fails, the server rejects the read
+	 *                       or the consumer throws
+	 */
+	public long historyReadProcessed(NodeId opcNodeId, DateTime opcStartTime, DateTime opcEndTime,
+			NodeId opcAggregateType, double processingIntervalMs, HistoryPageConsumer pageConsumer)
+			throws CoreException {
+		if (processingIntervalMs <= 0) {
+			throw new IllegalArgumentException("Processing interval must be positive");
+		}
+		// Use the aggregate configuration of the server
+		return historyRead(opcNodeId,
+				new ReadProcessedDetails(opcStartTime, opcEndTime, processingIntervalMs,
+						new NodeId[] { opcAggregateType },
+						new AggregateConfiguration(true, false, ubyte(100), ubyte(100), false)),
+				pageConsumer);
+	}
+
+	/**
+	 * Continuation points belong to a session, so all pages are read with the same
+	 * client. When reading stops before the last page, the continuation point is
+	 * released so the server can free its resources.
+	 */
+	private long historyRead(NodeId opcNodeId, HistoryReadDetails opcHistoryReadDetails,
+			HistoryPageConsumer pageConsumer) throws CoreException {
+		ByteString opcContinuationPoint = null;
+		long valueCount = 0;
+		int pageCount = 0;
+		try {
+			do {
+				HistoryReadResult opcHistoryReadResult = miloHistoryRead(opcHistoryReadDetails, opcNodeId,
+						opcContinuationPoint, false);
+				opcContinuationPoint = opcHistoryReadResult.getContinuationPoint();
+				if (opcHistoryReadResult.getStatusCode().isBad()) {
+					LOGGER.error("Cannot read history of node " + opcNodeId.toParseableString() + " because "
+							+ opcHistoryReadResult.getStatusCode());
+					throw new CoreException("Cannot read history of node " + opcNodeId.toParseableString());
+				}
+				List<DataValue> opcDataValueList = toDataValueList(opcHistoryReadResult);
+				pageCount++;
+				valueCount += opcDataValueList.size();
+				pageConsumer.accept(opcDataValueList);
+			} while (hasContinuationPoint(opcContinuationPoint));
+			LOGGER.debugf("Read {} history values of node {} in {} pages", valueCount, opcNodeId.toParseableString(),
+					pageCount);
+			return valueCount;
+		} finally {
+			if (hasContinuationPoint(opcContinuationPoint)) {
+				releaseContinuationPoint(opcHistoryReadDetails, opcNodeId, opcContinuationPoint);
+			}
+		}
+	}
+
+	private HistoryReadResult miloHistoryRead(HistoryReadDetails opcHistoryReadDetails, NodeId opcNodeId,
+			ByteString opcContinuationPoint, boolean releaseContinuationPoint) throws CoreException {
+		long startNanos = System.nanoTime();
+		try {
+			HistoryReadResponse opcHistoryReadResponse = opcClient
+					.historyRead(opcHistoryReadDetails, TimestampsToReturn.Both, releaseContinuationPoint,
+							Collections.singletonList(new HistoryReadValueId(opcNodeId, null,
+									QualifiedName.NULL_VALUE, opcContinuationPoint)))
+					.get();
+			return opcHistoryReadResponse.getResults()[0];
+		} catch (InterruptedException e) {
+			LOGGER.error("Cannot read history from opc server, because the action was interrupted. The error was "
+					+ e.getMessage());
+			Thread.currentThread().interrupt();
+			throw new CoreException(e);
+		} catch (ExecutionException e) {
+			LOGGER.error("Cannot read history from opc server. The error was " + e.getMessage());
+			throw new CoreException(e);
+		} finally {
+			recordRequest("history_read", startNanos);
+		}
+	}
+
+	private void releaseContinuationPoint(HistoryReadDetails opcHistoryReadDetails, NodeId opcNodeId,
+			ByteString opcContinuationPoint) {
+		try {
+			miloHistoryRead(opcHistoryReadDetails, opcNodeId, opcContinuationPoint, true);
+		} catch (CoreException e) {
+			LOGGER.warn("Cannot release the history continuation point of node " + opcNodeId.toParseableString()
+					+ ". The error was " + e.getMessage());
+		}
+	}
+
+	private List<DataValue> toDataValueList(HistoryReadResult opcHistoryReadResult) {
+		ExtensionObject opcHistoryData = opcHistoryReadResult.getHistoryData();
+		if (opcHistoryData == null || opcHistoryData.getBody() == null) {
+			return Collections.emptyList();
 		}
+		DataValue[] opcDataValues = ((HistoryData) opcHistoryData.decode(opcClient.getStaticSerializationContext()))
+				.getDataValues();
+		return opcDataValues != null ? Arrays.asList(opcDataValues) : Collections.emptyList();
+	}
+
+	private static boolean hasContinuationPoint(ByteString opcContinuationPoint) {
+		return opcContinuationPoint != null && !opcContinuationPoint.isNullOrEmpty();
+	}
+
+	/**
+	 * Receives the values of a history read, one page at a time and in the order
+	 * the server returns them.
+	 */
+	public interface HistoryPageConsumer {
+		void accept(List<DataValue> opcDataValueList) throws CoreException;
 	}
 
 	/**
@@ -118,27 +327,49 @@ public class OpcAttributeServiceSet {
 			throws CoreException {
 		List<WriteValue> writeValueList = new ArrayList<>();
 		for (WriteNodeWriteValue mxWriteNodeWriteValue : mxWriteNodeWriteValueList) {
-			writeValueList.add(new WriteValue(new OpcNode(mxWriteNodeWriteValue.getNodeID()).getOpcNodeId(),
-					ENUMAttributeId.getOpcENUM(mxWriteNodeWriteValue.getAttributeId()).uid(), null,
-					createOpcDataValue(mxWriteNodeWriteValue)));
+			writeValueList.add(new WriteValue(
+					new OpcNode(mxWriteNodeWriteValue.getNodeID(), opcClient.getNamespaceTable()).getOpcNodeId(),
+					ENUMAttributeId.getOpcENUM(mxWriteNodeWriteValue.getAttributeId()).uid(), null, null));
 		}
-		return miloWrite(writeValueList);
+		Map<WriteValue, ENUM_DefaultVariantType> readVariantTypes = readDefaultVariantTypes(
+				mxWriteNodeWriteValueList, writeValueList);
+		for (int i = 0; i < writeValueList.size(); i++) {
+			WriteNodeWriteValue mxWriteNodeWriteValue = mxWriteNodeWriteValueList.get(i);
+			WriteValue opcWriteValue = writeValueList.get(i);
+			ENUM_DefaultVariantType variantType = mxWriteNodeWriteValue.getVariantType() != null
+					? mxWriteNodeWriteValue.getVariantType()
+					: readVariantTypes.get(opcWriteValue);
+			writeValueList.set(i, new WriteValue(opcWriteValue.getNodeId(), opcWriteValue.getAttributeId(), null,
+					createOpcDataValue(mxWriteNodeWriteValue, variantType)));
+		}
+		WriteResponse opcWriteResponse = miloWrite(writeValueList);
+		forgetRejectedVariantTypes(mxWriteNodeWriteValueList, writeValueList, opcWriteResponse);
+		return opcWriteResponse;
 	}
 
 	/**
-	 * Parses the Mendix Objects to a dataValue object, if no variant type is
-	 * provided, tries to read the latest value from the server, to determine the
-	 * type.
+	 * Parses the Mendix Objects to a dataValue object.
 	 * 
 	 * @param mxWriteNode instructions to write
+	 * @param variantType the variant type provided by the user, or the type read
+	 *                    from the server
 	 * @return Opc DataValue object that will be used to write
 	 * @throws CoreException if the conversion is unsuccessful
 	 */
-	private DataValue createOpcDataValue(WriteNodeWriteValue mxWriteNodeWriteValue) throws CoreException {
-		ENUM_DefaultVariantType variantType = mxWriteNodeWriteValue.getVariantType() != null
-				? mxWriteNodeWriteValue.getVariantType()
-				: readDefaultVariantType(mxWriteNodeWriteValue);
-		String payload = mxWriteNodeWriteValue.getPayload();
+	private DataValue createOpcDataValue(WriteNodeWriteValue mxWriteNodeWriteValue,
+			ENUM_DefaultVariantType variantType) throws CoreException {
+		Object input = toOpcValue(mxWriteNodeWriteValue.getPayload(), variantType);
+		return mxWriteNodeWriteValue.get_IsWritingDataValueOnly() ? DataValue.valueOnly(new Variant(input))
+				: new DataValue(new Variant(input));
+	}
+
+	/**
+	 * Parses a payload entered in Mendix to a value of a default variant type. Also
+	 * used for the input arguments of method calls.
+	 * 
+	 * @throws CoreException if the conversion is unsuccessful
+	 */
+	static Object toOpcValue(String payload, ENUM_DefaultVariantType variantType) throws CoreException {
 		Object input = null;
 		try {
 			switch (variantType) {
@@ -220,27 +451,76 @@ public class OpcAttributeServiceSet {
 			LOGGER.error("Cannot convert " + payload + " to type " + variantType + " because " + e.getMessage());
 			throw new CoreException("An error occured while converting " + payload + " to type " + variantType);
 		}
-		return mxWriteNodeWriteValue.get_IsWritingDataValueOnly() ? DataValue.valueOnly(new Variant(input))
-				: new DataValue(new Variant(input));
+		return input;
 	}
 
 	/**
-	 * Reads the latest value for the request value. then tries to parse it to a
-	 * default value type
+	 * Determines the variant type of every write value without a type provided by
+	 * the user. Types that are not known yet are read from the server in a single
+	 * (chunked) read of the latest values, and are remembered for the client.
 	 * 
-	 * @param mxWriteNode instructions to write
+	 * @param mxWriteNodeWriteValueList instructions to write
+	 * @param opcWriteValueList         the node and attribute of each instruction,
+	 *                                  in the same order
+	 * @return Mendix Default Variant type enumeration per write value without a
+	 *         type, to know how to create a variant object
+	 * @throws CoreException whenever a read value is not a default variant type
+	 */
+	private Map<WriteValue, ENUM_DefaultVariantType> readDefaultVariantTypes(
+			List<WriteNodeWriteValue> mxWriteNodeWriteValueList, List<WriteValue> opcWriteValueList)
+			throws CoreException {
+		DefaultVariantTypeCache variantTypeCache = client != null ? client.getDefaultVariantTypeCache() : null;
+		Map<WriteValue, ENUM_DefaultVariantType> variantTypes = new HashMap<>();
+		Map<ReadValueId, WriteNodeWriteValue> missingVariantTypes = new LinkedHashMap<>();
+		for (int i = 0; i < opcWriteValueList.size(); i++) {
+			WriteNodeWriteValue mxWriteNodeWriteValue = mxWriteNodeWriteValueList.get(i);
+			if (mxWriteNodeWriteValue.getVariantType() != null) {
+				continue;
+			}
+			WriteValue opcWriteValue = opcWriteValueList.get(i);
+			ENUM_DefaultVariantType cachedVariantType = variantTypeCache != null
+					? variantTypeCache.get(opcWriteValue.getNodeId(), opcWriteValue.getAttributeId())
+					: null;
+			if (cachedVariantType != null) {
+				variantTypes.put(opcWriteValue, cachedVariantType);
+			} else {
+				missingVariantTypes.putIfAbsent(new ReadValueId(opcWriteValue.getNodeId(),
+						opcWriteValue.getAttributeId(), null, null), mxWriteNodeWriteValue);
+			}
+		}
+		if (missingVariantTypes.isEmpty()) {
+			return variantTypes;
+		}
+		LOGGER.warn("Write node type is empty for " + missingVariantTypes.size()
+				+ " values. Therefore reading the latest values to get the types");
+		List<ReadValueId> opcReadValueIdList = new ArrayList<>(missingVariantTypes.keySet());
+		DataValue[] opcDataValues = miloRead(0, TimestampsToReturn.Neither, opcReadValueIdList).getResults();
+		for (int i = 0; i < opcReadValueIdList.size(); i++) {
+			ReadValueId opcReadValueId = opcReadValueIdList.get(i);
+			ENUM_DefaultVariantType variantType = toDefaultVariantType(opcDataValues[i],
+					missingVariantTypes.get(opcReadValueId));
+			if (variantTypeCache != null) {
+				variantTypeCache.put(opcReadValueId.getNodeId(), opcReadValueId.getAttributeId(), variantType);
+			}
+			variantTypes.put(new WriteValue(opcReadValueId.getNodeId(), opcReadValueId.getAttributeId(), null, null),
+					variantType);
+		}
+		return variantTypes;
+	}
+
+	/**
+	 * Tries to parse the type of the latest value to a default value type
+	 * 
+	 * @param opcDataValue          the latest value read from the server
+	 * @param mxWriteNodeWriteValue instructions to write
 	 * @return Mendix Default Variant type enumeration to know how to create a
 	 *         variant object
 	 * @throws CoreException whenever the read value is not a default variant type
 	 */
-	private ENUM_DefaultVariantType readDefaultVariantType(WriteNodeWriteValue mxWriteNodeWriteValue)
-			throws CoreException {
-		LOGGER.warn("Write node type is empty. Therefore reading the latest value to get the type");
-		ReadResponse response = miloRead(0, TimestampsToReturn.Neither,
-				Collections.singletonList(new ReadValueId(new OpcNode(mxWriteNodeWriteValue.getNodeID()).getOpcNodeId(),
-						ENUMAttributeId.getOpcENUM(mxWriteNodeWriteValue.getAttributeId()).uid(), null, null)));
+	private ENUM_DefaultVariantType toDefaultVariantType(DataValue opcDataValue,
+			WriteNodeWriteValue mxWriteNodeWriteValue) throws CoreException {
 		try {
-			Optional<ExpandedNodeId> dataType = response.getResults()[0].getValue().getDataType();
+			Optional<ExpandedNodeId> dataType = opcDataValue.getValue().getDataType();
 			if (dataType.isPresent()) {
 				Object identifier = dataType.get().getIdentifier();
 				if (identifier instanceof UInteger) {
@@ -259,8 +539,8 @@ public class OpcAttributeServiceSet {
 			LOGGER.error("Cannot match the latest value to a default variant type for node "
 					+ mxWriteNodeWriteValue.getNodeID() + " and attribute ID "
 					+ mxWriteNodeWriteValue.getAttributeId().getCaption()
-					+ " in order to write the payload to this node. The read value was "
-					+ response.getResults()[0].getValue() + ". The error was " + e.getMessage());
+					+ " in order to write the payload to this node. The read value was " + opcDataValue.getValue()
+					+ ". The error was " + e.getMessage());
 			throw new CoreException(
 					"Cannot read the latest value to determine the type of the value to write to the server");
 		}
@@ -270,19 +550,62 @@ public class OpcAttributeServiceSet {
 	}
 
 	/**
-	 * Writes attributes via write values to the server.
+	 * A cached type can be outdated when the server model changed. When the server
+	 * rejects a value because of its type, the type is read again on the next write.
+	 */
+	private void forgetRejectedVariantTypes(List<WriteNodeWriteValue> mxWriteNodeWriteValueList,
+			List<WriteValue> opcWriteValueList, WriteResponse opcWriteResponse) {
+		StatusCode[] opcStatusCodes = opcWriteResponse.getResults();
+		if (client == null || opcStatusCodes == null) {
+			return;
+		}
+		for (int i = 0; i < opcStatusCodes.length && i < opcWriteValueList.size(); i++) {
+			if (mxWriteNodeWriteValueList.get(i).getVariantType() == null
+					&& opcStatusCodes[i].getValue() == StatusCodes.Bad_TypeMismatch) {
+				WriteValue opcWriteValue = opcWriteValueList.get(i);
+				client.getDefaultVariantTypeCache().remove(opcWriteValue.getNodeId(), opcWriteValue.getAttributeId());
+			}
+		}
+	}
+
+	/**
+	 * Writes attributes via write values to the server. When the service set was
+	 * created for a client, write values above the MaxNodesPerWrite limit of the
+	 * server are split into several concurrent requests. The results are returned
+	 * in the order of the write values, the response header is then not set.
 	 * 
 	 * @param opcWriteValueList List of instructions to write
 	 * @return Response object with statuses
 	 * @throws CoreException Whenever the write action throws an error
 	 */
 	private WriteResponse miloWrite(List<WriteValue> opcWriteValueList) throws CoreException {
+		long startNanos = System.nanoTime();
 		try {
-			LOGGER.debug("Requesting to write values through write operation for " + opcWriteValueList.size()
-					+ " write values");
-			WriteResponse opcWriteResponse = opcClient.write(opcWriteValueList).get();
-			LOGGER.debug("Received " + opcWriteResponse.getResults().length + " write values from write operations");
-			return opcWriteResponse;
+			if (client != null) {
+				int chunkSize = client.getChunkSize(Limit.MAX_NODES_PER_WRITE);
+				if (opcWriteValueList.size() > chunkSize) {
+					List<StatusCode> opcStatusCodeList = RequestChunker.execute(opcWriteValueList, chunkSize,
+							client.getMaxRequestsInFlight(), chunk -> {
+								List<WriteValue> opcRequestedChunk = toRegisteredWriteValues(chunk);
+								return opcClient.write(opcRequestedChunk)
+										.thenCompose(opcWriteResponse -> retryRejectedWriteAliases(chunk,
+												opcRequestedChunk, opcWriteResponse.getResults()))
+										.thenApply(Arrays::asList);
+							}, "write");
+					LOGGER.debugf("Received {} results for chunked write request", opcStatusCodeList.size());
+					return new WriteResponse(null, opcStatusCodeList.toArray(new StatusCode[0]), null);
+				}
+			}
+			LOGGER.debugf("Requesting to write values through write operation for {} write values",
+					opcWriteValueList.size());
+			List<WriteValue> opcRegisteredWriteValueList = toRegisteredWriteValues(opcWriteValueList);
+			WriteResponse opcWriteResponse = opcClient.write(opcRegisteredWriteValueList).get();
+			LOGGER.debugf("Received {} write values from write operations", opcWriteResponse.getResults().length);
+			StatusCode[] opcStatusCodes = retryRejectedWriteAliases(opcWriteValueList, opcRegisteredWriteValueList,
+					opcWriteResponse.getResults()).get();
+			return opcStatusCodes == opcWriteResponse.getResults() ? opcWriteResponse
+					: new WriteResponse(opcWriteResponse.getResponseHeader(), opcStatusCodes,
+							opcWriteResponse.getDiagnosticInfos());
 		} catch (InterruptedException e) {
 			LOGGER.error(
 					"Cannot write to opc server, because the action was interrupted. The error was " + e.getMessage());
@@ -291,6 +614,131 @@ public class OpcAttributeServiceSet {
 		} catch (ExecutionException e) {
 			LOGGER.error("Cannot write to opc server. The error was " + e.getMessage());
 			throw new CoreException(e);
+		} finally {
+			recordRequest("write", startNanos);
+		}
+	}
+
+	/**
+	 * Replaces the nodes by the aliases they were registered with on the first
+	 * session of the client, which the server can look up faster.
+	 */
+	private List<ReadValueId> toRegisteredReadValueIds(List<ReadValueId> opcReadValueIdList) {
+		if (client == null) {
+			return opcReadValueIdList;
+		}
+		RegisteredNodeCache registeredNodeCache = client.getRegisteredNodeCache();
+		List<ReadValueId> opcRegisteredReadValueIdList = new ArrayList<>(opcReadValueIdList.size());
+		for (ReadValueId opcReadValueId : opcReadValueIdList) {
+			NodeId opcAlias = registeredNodeCache.getAlias(opcReadValueId.getNodeId());
+			opcRegisteredReadValueIdList.add(opcAlias == opcReadValueId.getNodeId() ? opcReadValueId
+					: new ReadValueId(opcAlias, opcReadValueId.getAttributeId(), opcReadValueId.getIndexRange(),
+							opcReadValueId.getDataEncoding()));
+		}
+		return opcRegisteredReadValueIdList;
+	}
+
+	private List<WriteValue> toRegisteredWriteValues(List<WriteValue> opcWriteValueList) {
+		if (client == null) {
+			return opcWriteValueList;
+		}
+		RegisteredNodeCache registeredNodeCache = client.getRegisteredNodeCache();
+		List<WriteValue> opcRegisteredWriteValueList = new ArrayList<>(opcWriteValueList.size());
+		for (WriteValue opcWriteValue : opcWriteValueList) {
+			NodeId opcAlias = registeredNodeCache.getAlias(opcWriteValue.getNodeId());
+			opcRegisteredWriteValueList.add(opcAlias == opcWriteValue.getNodeId() ? opcWriteValue
+					: new WriteValue(opcAlias, opcWriteValue.getAttributeId(), opcWriteValue.getIndexRange(),
+							opcWriteValue.getValue()));
+		}
+		return opcRegisteredWriteValueList;
+	}
+
+	/**
+	 * Reads the values whose alias the server rejected once more with the nodes
+	 * themselves, so a dropped registration does not fail the read.
+	 * 
+	 * @return the results with the retried values, or the same array when no alias
+	 *         was rejected
+	 */
+	private CompletableFuture<DataValue[]> retryRejectedReadAliases(OpcUaClient opcRequestClient, double opcMaxAge,
+			TimestampsToReturn opcTimestampsToReturn, List<ReadValueId> opcReadValueIdList,
+			List<ReadValueId> opcRequestedReadValueIdList, DataValue[] opcDataValues) {
+		List<Integer> rejectedIndexes = new ArrayList<>();
+		for (int i = 0; opcDataValues != null && i < opcDataValues.length && i < opcReadValueIdList.size(); i++) {
+			if (forgetRejectedAlias(opcReadValueIdList.get(i).getNodeId(),
+					opcRequestedReadValueIdList.get(i).getNodeId(), opcDataValues[i].getStatusCode())) {
+				rejectedIndexes.add(i);
+			}
+		}
+		if (rejectedIndexes.isEmpty()) {
+			return CompletableFuture.completedFuture(opcDataValues);
+		}
+		LOGGER.debugf("Reading {} nodes again whose registered alias was rejected", rejectedIndexes.size());
+		return opcRequestClient.read(opcMaxAge, opcTimestampsToReturn,
+				rejectedIndexes.stream().map(opcReadValueIdList::get).collect(Collectors.toList()))
+				.thenApply(opcRetryResponse -> {
+					DataValue[] opcRetriedDataValues = opcRetryResponse.getResults();
+					DataValue[] opcMergedDataValues = opcDataValues.clone();
+					for (int i = 0; opcRetriedDataValues != null && i < opcRetriedDataValues.length
+							&& i < rejectedIndexes.size(); i++) {
+						opcMergedDataValues[rejectedIndexes.get(i)] = opcRetriedDataValues[i];
+					}
+					return opcMergedDataValues;
+				});
+	}
+
+	/**
+	 * Writes the values whose alias the server rejected once more to the nodes
+	 * themselves. The rejected writes did not change anything, so they can be
+	 * repeated.
+	 * 
+	 * @return the results with the retried status codes, or the same array when no
+	 *         alias was rejected
+	 */
+	private CompletableFuture<StatusCode[]> retryRejectedWriteAliases(List<WriteValue> opcWriteValueList,
+			List<WriteValue> opcRequestedWriteValueList, StatusCode[] opcStatusCodes) {
+		List<Integer> rejectedIndexes = new ArrayList<>();
+		for (int i = 0; opcStatusCodes != null && i < opcStatusCodes.length && i < opcWriteValueList.size(); i++) {
+			if (forgetRejectedAlias(opcWriteValueList.get(i).getNodeId(),
+					opcRequestedWriteValueList.get(i).getNodeId(), opcStatusCodes[i])) {
+				rejectedIndexes.add(i);
+			}
+		}
+		if (rejectedIndexes.isEmpty()) {
+			return CompletableFuture.completedFuture(opcStatusCodes);
+		}
+		LOGGER.debugf("Writing {} nodes again whose registered alias was rejected", rejectedIndexes.size());
+		return opcClient.write(rejectedIndexes.stream().map(opcWriteValueList::get).collect(Collectors.toList()))
+				.thenApply(opcRetryResponse -> {
+					StatusCode[] opcRetriedStatusCodes = opcRetryResponse.getResults();
+					StatusCode[] opcMergedStatusCodes = opcStatusCodes.clone();
+					for (int i = 0; opcRetriedStatusCodes != null && i < opcRetriedStatusCodes.length
+							&& i < rejectedIndexes.size(); i++) {
+						opcMergedStatusCodes[rejectedIndexes.get(i)] = opcRetriedStatusCodes[i];
+					}
+					return opcMergedStatusCodes;
+				});
+	}
+
+	/**
+	 * The server can drop registrations, for instance after a restart that kept
+	 * the session. The node is then used again until it is registered anew.
+	 * 
+	 * @return true if the alias was rejected and forgotten
+	 */
+	private boolean forgetRejectedAlias(NodeId opcNodeId, NodeId opcRequestedNodeId, StatusCode opcStatusCode) {
+		if (opcRequestedNodeId != opcNodeId && opcStatusCode != null
+				&& (opcStatusCode.getValue() == StatusCodes.Bad_NodeIdUnknown
+						|| opcStatusCode.getValue() == StatusCodes.Bad_NodeIdInvalid)) {
+			client.getRegisteredNodeCache().forget(opcNodeId);
+			return true;
+		}
+		return false;
+	}
+
+	private void recordRequest(String operation, long startNanos) {
+		if (client != null) {
+			ConnectorMetrics.getInstance().recordRequest(client.getConfigurationName(), operation, startNanos);
 		}
 	}
 }
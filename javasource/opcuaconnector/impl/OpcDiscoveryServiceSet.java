@@ -12,6 +12,24 @@ import com.mendix.core.CoreException;
 public class OpcDiscoveryServiceSet {
 	private static final MxLogger LOGGER = new MxLogger(OpcDiscoveryServiceSet.class);
 
+	/**
+	 * Returns the endpoints of the server from the EndpointDiscoveryCache, and
+	 * requests them when they are not cached or expired.
+	 * 
+	 * @param forceRefresh request the endpoints even when they are cached
+	 */
+	public List<EndpointDescription> getEndpoints(String endpointURL, boolean forceRefresh) throws CoreException {
+		return EndpointDiscoveryCache.getInstance().getEndpoints(endpointURL, forceRefresh, this::miloGetEndpoints);
+	}
+
+	/**
+	 * Returns the servers known to the server from the EndpointDiscoveryCache, and
+	 * requests them when they are not cached or expired.
+	 */
+	public List<ApplicationDescription> findServers(String endpointURL) throws CoreException {
+		return EndpointDiscoveryCache.getInstance().getServers(endpointURL, this::miloFindServers);
+	}
+
 	/**
 	 * Implements OPC 10000-4 5.4.2 via milo DiscoveryClient.java
 	 * 
@@ -0,0 +1,320 @@
+package opcuaconnector.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.StatusCodes;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.Argument;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowsePath;
+import org.eclipse.milo.opcua.stack.core.types.structured.BrowsePathResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallMethodResult;
+import org.eclipse.milo.opcua.stack.core.types.structured.CallResponse;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+import org.eclipse.milo.opcua.stack.core.types.structured.RelativePath;
+import org.eclipse.milo.opcua.stack.core.types.structured.RelativePathElement;
+
+import com.mendix.core.CoreException;
+
+import opcuaconnector.impl.ClientManager.Client;
+import opcuaconnector.impl.OperationLimits.Limit;
+
+import opcuaconnector.proxies.ENUM_DefaultVariantType;
+
+public class OpcMethodServiceSet {
+	// OPC-UA spec 4. 5.11 Method service set
+	private static final MxLogger LOGGER = new MxLogger(OpcMethodServiceSet.class);
+
+	/**
+	 * Data types that are defined as a subtype of a default variant type and are
+	 * common in method arguments.
+	 */
+	private static final Map<NodeId, ENUM_DefaultVariantType> DERIVED_VARIANT_TYPES = new HashMap<>();
+	static {
+		DERIVED_VARIANT_TYPES.put(Identifiers.Duration, ENUM_DefaultVariantType._DOUBLE);
+		DERIVED_VARIANT_TYPES.put(Identifiers.UtcTime, ENUM_DefaultVariantType.DATETIME);
+		DERIVED_VARIANT_TYPES.put(Identifiers.LocaleId, ENUM_DefaultVariantType._STRING);
+		DERIVED_VARIANT_TYPES.put(Identifiers.NumericRange, ENUM_DefaultVariantType._STRING);
+		DERIVED_VARIANT_TYPES.put(Identifiers.Counter, ENUM_DefaultVariantType.UINT32);
+		DERIVED_VARIANT_TYPES.put(Identifiers.IntegerId, ENUM_DefaultVariantType.UINT32);
+	}
+
+	private final OpcUaClient opcClient;
+	private final Client client;
+
+	public OpcMethodServiceSet(Client client) {
+		this.opcClient = client.getUaClient();
+		this.client = client;
+	}
+
+	/**
+	 * Calls methods with input arguments entered in Mendix. The data types of the
+	 * input arguments of methods that were not called before are read from the
+	 * server in one browse path translation and one read, and are remembered for
+	 * the client.
+	 *
+	 * @return the result of each method call, in the order of the method calls
+	 * @throws CoreException whenever an input argument cannot be converted to the
+	 *                       type of the argument, or a request fails
+	 */
+	public CallResponse call(List<MethodCall> methodCallList) throws CoreException {
+		Map<NodeId, List<Argument>> inputArguments = getInputArguments(methodCallList);
+		List<CallMethodRequest> opcCallMethodRequestList = new ArrayList<>(methodCallList.size());
+		for (MethodCall methodCall : methodCallList) {
+			opcCallMethodRequestList.add(createOpcCallMethodRequest(methodCall,
+					inputArguments.get(methodCall.getOpcMethodId())));
+		}
+		CallResponse opcCallResponse = miloCall(opcCallMethodRequestList);
+		forgetRejectedInputArguments(opcCallMethodRequestList, opcCallResponse);
+		return opcCallResponse;
+	}
+
+	/**
+	 * Calls methods on the server. Method calls above the MaxNodesPerMethodCall
+	 * limit of the server are split into several concurrent requests. The results
+	 * are returned in the order of the method calls, the response header is then
+	 * not set.
+	 *
+	 * @param opcCallMethodRequestList the methods to call with their input
+	 *                                 arguments
+	 * @return the result of each method call
+	 * @throws CoreException whenever the call request returns an error
+	 */
+	public CallResponse miloCall(List<CallMethodRequest> opcCallMethodRequestList) throws CoreException {
+		long startNanos = System.nanoTime();
+		try {
+			int chunkSize = client.getChunkSize(Limit.MAX_NODES_PER_METHOD_CALL);
+			if (opcCallMethodRequestList.size() > chunkSize) {
+				// Methods can depend on the session, so all chunks use the same session
+				List<CallMethodResult> opcCallMethodResultList = RequestChunker.execute(opcCallMethodRequestList,
+						chunkSize, client.getMaxRequestsInFlight(), chunk -> opcClient.call(chunk)
+								.thenApply(opcCallResponse -> Arrays.asList(opcCallResponse.getResults())),
+						"call");
+				LOGGER.debugf("Received {} results for chunked call request", opcCallMethodResultList.size());
+				return new CallResponse(null, opcCallMethodResultList.toArray(new CallMethodResult[0]), null);
+			}
+			LOGGER.debugf("Requesting to call {} methods", opcCallMethodRequestList.size());
+			CallResponse opcCallResponse = opcClient.call(opcCallMethodRequestList).get();
+			LOGGER.debugf("Received {} results for call request", opcCallResponse.getResults().length);
+			return opcCallResponse;
+		} catch (InterruptedException e) {
+			LOGGER.error("Cannot call methods on opc server, because the action was interrupted. The error was "
+					+ e.getMessage());
+			Thread.currentThread().interrupt();
+			throw new CoreException(e);
+		} catch (ExecutionException e) {
+			LOGGER.error("Cannot call methods on opc server. The error was " + e.getMessage());
+			throw new CoreException(e);
+		} finally {
+			ConnectorMetrics.getInstance().recordRequest(client.getConfigurationName(), "call", startNanos);
+		}
+	}
+
+	private CallMethodRequest createOpcCallMethodRequest(MethodCall methodCall, List<Argument> opcInputArguments)
+			throws CoreException {
+		List<String> payloads = methodCall.getInputArguments();
+		if (payloads.size() != opcInputArguments.size()) {
+			throw new CoreException("Method " + methodCall.getOpcMethodId().toParseableString() + " expects "
+					+ opcInputArguments.size() + " input arguments, but " + payloads.size() + " were provided");
+		}
+		Variant[] opcInputValues = new Variant[payloads.size()];
+		for (int i = 0; i < payloads.size(); i++) {
+			Argument opcInputArgument = opcInputArguments.get(i);
+			opcInputValues[i] = new Variant(OpcAttributeServiceSet.toOpcValue(payloads.get(i),
+					toDefaultVariantType(methodCall.getOpcMethodId(), opcInputArgument)));
+		}
+		return new CallMethodRequest(methodCall.getOpcObjectId(), methodCall.getOpcMethodId(), opcInputValues);
+	}
+
+	private ENUM_DefaultVariantType toDefaultVariantType(NodeId opcMethodId, Argument opcInputArgument)
+			throws CoreException {
+		if (opcInputArgument.getValueRank() != null && opcInputArgument.getValueRank() >= 0) {
+			throw new CoreException("Input argument " + opcInputArgument.getName() + " of method "
+					+ opcMethodId.toParseableString() + " is an array, which is currently not yet supported.");
+		}
+		NodeId opcDataType = opcInputArgument.getDataType();
+		ENUM_DefaultVariantType derivedVariantType = DERIVED_VARIANT_TYPES.get(opcDataType);
+		if (derivedVariantType != null) {
+			return derivedVariantType;
+		}
+		// Note that OPC default variant types are one-indexed, Mendix enumeration are
+		// zero-indexed. therefore the -1 difference.
+		if (opcDataType != null && opcDataType.getNamespaceIndex().intValue() == 0
+				&& opcDataType.getIdentifier() instanceof UInteger) {
+			int builtinTypeId = ((UInteger) opcDataType.getIdentifier()).intValue();
+			if (builtinTypeId >= 1 && builtinTypeId <= ENUM_DefaultVariantType.values().length) {
+				return ENUM_DefaultVariantType.values()[builtinTypeId - 1];
+			}
+		}
+		throw new CoreException("Input argument " + opcInputArgument.getName() + " of method "
+				+ opcMethodId.toParseableString() + " has data type " + opcDataType
+				+ ", which is not a default variant type");
+	}
+
+	/**
+	 * Determines the input arguments of every method. Arguments that are not
+	 * known yet are read from the InputArguments property of the methods, which is
+	 * first located through one translate browse paths request.
+	 */
+	private Map<NodeId, List<Argument>> getInputArguments(List<MethodCall> methodCallList) throws CoreException {
+		MethodArgumentCache methodArgumentCache = client.getMethodArgumentCache();
+		Map<NodeId, List<Argument>> inputArguments = new HashMap<>();
+		LinkedHashSet<NodeId> missingMethodIds = new LinkedHashSet<>();
+		for (MethodCall methodCall : methodCallList) {
+			NodeId opcMethodId = methodCall.getOpcMethodId();
+			List<Argument> cachedInputArguments = methodArgumentCache.get(opcMethodId);
+			if (cachedInputArguments != null) {
+				inputArguments.put(opcMethodId, cachedInputArguments);
+			} else {
+				missingMethodIds.add(opcMethodId);
+			}
+		}
+		if (missingMethodIds.isEmpty()) {
+			return inputArguments;
+		}
+		LOGGER.debugf("Reading the input arguments of {} methods", missingMethodIds.size());
+		List<NodeId> opcMethodIdList = new ArrayList<>(missingMethodIds);
+		List<NodeId> opcPropertyIdList = miloTranslateInputArgumentsPaths(opcMethodIdList);
+		List<ReadValueId> opcReadValueIdList = new ArrayList<>();
+		for (NodeId opcPropertyId : opcPropertyIdList) {
+			if (opcPropertyId != null) {
+				opcReadValueIdList.add(new ReadValueId(opcPropertyId, AttributeId.Value.uid(), null,
+						QualifiedName.NULL_VALUE));
+			}
+		}
+		DataValue[] opcDataValues = opcReadValueIdList.isEmpty() ? new DataValue[0]
+				: new OpcAttributeServiceSet(client).miloRead(0, TimestampsToReturn.Neither, opcReadValueIdList)
+						.getResults();
+		int readIndex = 0;
+		for (int i = 0; i < opcMethodIdList.size(); i++) {
+			NodeId opcMethodId = opcMethodIdList.get(i);
+			// A method without the InputArguments property has no input arguments
+			List<Argument> opcInputArguments = opcPropertyIdList.get(i) == null ? Collections.emptyList()
+					: toArgumentList(opcMethodId, opcDataValues[readIndex++]);
+			methodArgumentCache.put(opcMethodId, opcInputArguments);
+			inputArguments.put(opcMethodId, opcInputArguments);
+		}
+		return inputArguments;
+	}
+
+	/**
+	 * @return the node ID of the InputArguments property of each method, or null
+	 *         if the method does not have one
+	 */
+	private List<NodeId> miloTranslateInputArgumentsPaths(List<NodeId> opcMethodIdList) throws CoreException {
+		List<BrowsePath> opcBrowsePathList = new ArrayList<>(opcMethodIdList.size());
+		for (NodeId opcMethodId : opcMethodIdList) {
+			opcBrowsePathList.add(new BrowsePath(opcMethodId,
+					new RelativePath(new RelativePathElement[] { new RelativePathElement(Identifiers.HasProperty,
+							false, true, new QualifiedName(0, "InputArguments")) })));
+		}
+		long startNanos = System.nanoTime();
+		try {
+			BrowsePathResult[] opcBrowsePathResults = opcClient.translateBrowsePaths(opcBrowsePathList).get()
+					.getResults();
+			List<NodeId> opcPropertyIdList = new ArrayList<>(opcBrowsePathResults.length);
+			for (BrowsePathResult opcBrowsePathResult : opcBrowsePathResults) {
+				if (opcBrowsePathResult.getStatusCode().isGood() && opcBrowsePathResult.getTargets() != null
+						&& opcBrowsePathResult.getTargets().length > 0) {
+					opcPropertyIdList.add(opcBrowsePathResult.getTargets()[0].getTargetId()
+							.toNodeId(opcClient.getNamespaceTable()).orElse(null));
+				} else {
+					opcPropertyIdList.add(null);
+				}
+			}
+			return opcPropertyIdList;
+		} catch (InterruptedException e) {
+			LOGGER.error("Cannot find the input arguments of methods, because the action was interrupted. The error was "
+					+ e.getMessage());
+			Thread.currentThread().interrupt();
+			throw new CoreException(e);
+		} catch (ExecutionException e) {
+			LOGGER.error("Cannot find the input arguments of methods. The error was " + e.getMessage());
+			throw new CoreException(e);
+		} finally {
+			ConnectorMetrics.getInstance().recordRequest(client.getConfigurationName(), "translate_browse_paths",
+					startNanos);
+		}
+	}
+
+	private List<Argument> toArgumentList(NodeId opcMethodId, DataValue opcDataValue) throws CoreException {
+		Object value = opcDataValue.getValue().getValue();
+		if (opcDataValue.getStatusCode() != null && opcDataValue.getStatusCode().isBad()
+				|| !(value instanceof ExtensionObject[])) {
+			LOGGER.error("Cannot read the input arguments of method " + opcMethodId.toParseableString()
+					+ ". The read value was " + opcDataValue.getValue() + " with status " + opcDataValue.getStatusCode());
+			throw new CoreException(
+					"Cannot read the input arguments of method " + opcMethodId.toParseableString());
+		}
+		List<Argument> opcInputArguments = new ArrayList<>();
+		for (ExtensionObject opcArgument : (ExtensionObject[]) value) {
+			opcInputArguments.add((Argument) opcArgument.decode(opcClient.getStaticSerializationContext()));
+		}
+		return Collections.unmodifiableList(opcInputArguments);
+	}
+
+	/**
+	 * Cached arguments can be outdated when the server model changed. When the
+	 * server rejects the arguments of a call, they are read again on the next call.
+	 */
+	private void forgetRejectedInputArguments(List<CallMethodRequest> opcCallMethodRequestList,
+			CallResponse opcCallResponse) {
+		CallMethodResult[] opcCallMethodResults = opcCallResponse.getResults();
+		if (opcCallMethodResults == null) {
+			return;
+		}
+		for (int i = 0; i < opcCallMethodResults.length && i < opcCallMethodRequestList.size(); i++) {
+			long statusCode = opcCallMethodResults[i].getStatusCode().getValue();
+			if (statusCode == StatusCodes.Bad_ArgumentsMissing || statusCode == StatusCodes.Bad_TooManyArguments
+					|| statusCode == StatusCodes.Bad_InvalidArgument || statusCode == StatusCodes.Bad_TypeMismatch) {
+				client.getMethodArgumentCache().remove(opcCallMethodRequestList.get(i).getMethodId());
+			}
+		}
+	}
+
+	/**
+	 * A method to call on an object, with its input arguments as entered in
+	 * Mendix. The input arguments are converted to the data types the method
+	 * declares.
+	 */
+	public static class MethodCall {
+		private final NodeId opcObjectId;
+		private final NodeId opcMethodId;
+		private final List<String> inputArguments;
+
+		public MethodCall(NodeId opcObjectId, NodeId opcMethodId, List<String> inputArguments) {
+			this.opcObjectId = opcObjectId;
+			this.opcMethodId = opcMethodId;
+			this.inputArguments = inputArguments != null ? inputArguments : Collections.emptyList();
+		}
+
+		public NodeId getOpcObjectId() {
+			return opcObjectId;
+		}
+
+		public NodeId getOpcMethodId() {
+			return opcMethodId;
+		}
+
+		public List<String> getInputArguments() {
+			return inputArguments;
+		}
+	}
+}
@@ -4,28 +4,43 @@ import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
 import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription.ItemCreationCallback;
 
+import org.eclipse.milo.opcua.stack.core.AttributeId;
 import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExtensionObject;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
 import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
 import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.MonitoringMode;
 import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.EventFilter;
 import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoringParameters;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
 
 import com.mendix.core.Core;
 import com.mendix.core.CoreException;
 import com.mendix.systemwideinterfaces.core.IContext;
-import com.mendix.systemwideinterfaces.core.IDataType;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
 
 import opcuaconnector.impl.ClientManager.Client;
 import opcuaconnector.impl.ClientSubscriptionManager.MonitoredItemManager;
 import opcuaconnector.impl.MxDataValueFactory.DataValueType;
 import opcuaconnector.impl.MxReadValueIdFactory.ReadValueIdType;
 import opcuaconnector.impl.MxStatusCodeFactory.StatusCodeType;
-import opcuaconnector.proxies.MessageDataValue;
+import opcuaconnector.impl.NotificationBatcher.Notification;
 import opcuaconnector.proxies.MessageMonitoredItem;
 import opcuaconnector.proxies.MessageMonitoredItemReadValueId;
 import opcuaconnector.proxies.MessageMonitoredItemStatusCode;
 
+import static org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -38,20 +53,20 @@ public class OpcMonitoredItemServiceSet {
 	private static final MxLogger LOGGER = new MxLogger(OpcMonitoredItemServiceSet.class);
 
 	private Client client;
+	private MonitoredItemManager monitoredItemManager;
 	private UaSubscription opcSubscription;
 	private final IContext context;
 
 	public OpcMonitoredItemServiceSet(Client client, UInteger subscriptionId, IContext context) throws CoreException {
 		// Make sure the subscriptionID is initialized by the client by checking whether
 		// it exists in the subscription Manager.
-		MonitoredItemManager monitoredItemManager = client.getClientSubscriptionManager().getAllSubscriptions().stream()
-				.filter(manager -> subscriptionId != null
-						&& manager.getOpcSubscription().getSubscriptionId().equals(subscriptionId))
-				.findFirst().orElse(null);
+		MonitoredItemManager monitoredItemManager = client.getClientSubscriptionManager()
+				.findMonitoredItemManager(subscriptionId).orElse(null);
 		if (monitoredItemManager == null) {
 			throw new CoreException("Subscription with ID: " + subscriptionId + " is not initialized.");
 		}
 		this.client = client;
+		this.monitoredItemManager = monitoredItemManager;
 		this.opcSubscription = monitoredItemManager.getOpcSubscription();
 		this.context = context;
 	}
@@ -63,28 +78,64 @@ public class OpcMonitoredItemServiceSet {
 	public List<UaMonitoredItem> opcCreateMonitoredItems(
 			List<MonitoredItemCreateRequest> opcMonitoredItemCreateRequestList, String microflowToCall)
 			throws CoreException {
+		return opcCreateMonitoredItems(opcMonitoredItemCreateRequestList, microflowToCall, null);
+	}
+
+	/**
+	 * Creates the monitored items and attaches a value consumer that calls the
+	 * microflow.
+	 * 
+	 * @param deliveryMode how the notifications are handed to the microflow. When
+	 *                     empty, the default delivery mode of the subscription is
+	 *                     used. If that is empty as well, BATCHED is used if the
+	 *                     microflow accepts a list of MessageDataValue and
+	 *                     IMMEDIATE otherwise.
+	 */
+	public List<UaMonitoredItem> opcCreateMonitoredItems(
+			List<MonitoredItemCreateRequest> opcMonitoredItemCreateRequestList, String microflowToCall,
+			DeliveryMode deliveryMode) throws CoreException {
 		try {
 			validateMicroflowName(microflowToCall);
-			LOGGER.debug("Requesting creation of " + opcMonitoredItemCreateRequestList.size()
-					+ " monitored items for subscription" + opcSubscription.getSubscriptionId());
+			// Resolve the microflow parameters once, instead of for every notification
+			MicroflowBindingPlan bindingPlan = MicroflowBindingPlan.forMicroflow(microflowToCall);
+			DeliveryMode resolvedDeliveryMode = deliveryMode != null ? deliveryMode
+					: getDefaultDeliveryMode(bindingPlan);
+			if (resolvedDeliveryMode == DeliveryMode.LATEST_VALUE && opcMonitoredItemCreateRequestList.stream()
+					.anyMatch(OpcMonitoredItemServiceSet::isEventRequest)) {
+				// Events are distinct occurrences, keeping only the latest one would lose events
+				if (deliveryMode == DeliveryMode.LATEST_VALUE) {
+					throw new IllegalArgumentException(
+							"Delivery mode LATEST_VALUE cannot be used for event monitored items");
+				}
+				resolvedDeliveryMode = DeliveryMode.BATCHED;
+			}
+			DeliveryMode itemDeliveryMode = resolvedDeliveryMode;
+			LOGGER.debugf("Requesting creation of {} monitored items for subscription {} with delivery mode {}",
+					opcMonitoredItemCreateRequestList.size(), opcSubscription.getSubscriptionId(),
+					itemDeliveryMode);
 			List<UaMonitoredItem> monitoredItemResponse = opcSubscription.createMonitoredItems(TimestampsToReturn.Both,
 					opcMonitoredItemCreateRequestList, new ItemCreationCallback() {
 
 						@Override
 						public void onItemCreated(UaMonitoredItem opcMonitoredItem, int clientHandle) {
-							opcMonitoredItem.setValueConsumer(createValueConsumer(opcMonitoredItem, microflowToCall));
-							LOGGER.info("Initialized value consumer for monitored item for node ID "
-									+ opcMonitoredItem.getReadValueId().getNodeId().toParseableString()
-									+ " for attribute id " + opcMonitoredItem.getReadValueId().getAttributeId());
-							LOGGER.debug("Initialized value consumer for monitored item for node ID "
+							if (isEventMonitoredItem(opcMonitoredItem)) {
+								opcMonitoredItem.setEventConsumer(
+										createEventConsumer(opcMonitoredItem, bindingPlan, itemDeliveryMode));
+							} else {
+								opcMonitoredItem.setValueConsumer(
+										createValueConsumer(opcMonitoredItem, bindingPlan, itemDeliveryMode));
+							}
+							LOGGER.debug(() -> "Initialized value consumer for monitored item for node ID "
 									+ opcMonitoredItem.getReadValueId().getNodeId().toParseableString()
 									+ " for attribute id " + opcMonitoredItem.getReadValueId().getAttributeId()
 									+ ". The client handle is " + clientHandle + ". The microflow to call is "
 									+ microflowToCall);
 						}
 					}).get();
-			LOGGER.debug("Succesfully received " + monitoredItemResponse.size() + " monitored items for subscription "
-					+ opcSubscription.getSubscriptionId());
+			registerMonitoredItemDefinitions(opcMonitoredItemCreateRequestList, monitoredItemResponse, microflowToCall,
+					itemDeliveryMode);
+			LOGGER.debugf("Succesfully received {} monitored items for subscription {}", monitoredItemResponse.size(),
+					opcSubscription.getSubscriptionId());
 			return monitoredItemResponse;
 		} catch (InterruptedException e) {
 			LOGGER.error("Cannot create monitored item for subscription " + opcSubscription.getSubscriptionId()
@@ -99,74 +150,385 @@ public class OpcMonitoredItemServiceSet {
 		}
 	}
 
-	public Consumer<DataValue> createValueConsumer(UaMonitoredItem opcMonitoredItem, String mxMicroflowName) {
-		return new Consumer<DataValue>() {
-
-			@Override
-			public void accept(DataValue opcDataValue) {
-				IContext sysContext = null;
-				try {
-					sysContext = Core.createSystemContext();
-					sysContext.startTransaction();
-					Map<String, IDataType> inputParams = Core.getInputParameters(mxMicroflowName);
-
-					Entry<String, IDataType> dataValueInput = findInputByEntityName(inputParams,
-							MessageDataValue.entityName);
-					opcuaconnector.proxies.DataValue mxDataValue = dataValueInput != null
-							? new MxDataValueFactory(opcDataValue, DataValueType.MESSAGE_MONITORED_ITEM, context)
-									.getDataValue()
-							: null;
-					String mxDataValueKey = dataValueInput != null ? dataValueInput.getKey() : null;
-
-					Entry<String, IDataType> messageMonitoredItemInput = findInputByEntityName(inputParams,
-							MessageMonitoredItem.entityName);
-					MessageMonitoredItem mxMessageMonitoredItem = messageMonitoredItemInput != null
-							? createMxMessageMonitoredItem(opcMonitoredItem)
-							: null;
-					String mxMessageMonitoredItemKey = messageMonitoredItemInput != null
-							? messageMonitoredItemInput.getKey()
-							: null;
-					
-					Entry<String, IDataType> messageMonitoredItemReadvalueIdInput = findInputByEntityName(inputParams,
-							MessageMonitoredItemReadValueId.entityName);
-					MessageMonitoredItemReadValueId mxMessageMonitoredItemReadValueId = messageMonitoredItemReadvalueIdInput != null
-							? (MessageMonitoredItemReadValueId) new MxReadValueIdFactory(
-									opcMonitoredItem.getReadValueId(), ReadValueIdType.MESSAGE, context)
-									.getReadValueId()
-							: null;
-					String mxMessageMonitoredItemReadValueIdKey = messageMonitoredItemReadvalueIdInput != null
-							? messageMonitoredItemReadvalueIdInput.getKey()
-							: null;
-
-					Core.microflowCall(mxMicroflowName)
-							.withParam(mxDataValueKey, mxDataValue != null ? mxDataValue.getMendixObject() : null)
-							.withParam(mxMessageMonitoredItemKey,
-									mxMessageMonitoredItemKey != null ? mxMessageMonitoredItem.getMendixObject() : null)
-							.withParam(mxMessageMonitoredItemReadValueIdKey,
-									mxMessageMonitoredItemReadValueId != null
-											? mxMessageMonitoredItemReadValueId.getMendixObject()
-											: null)
-							.execute(sysContext);
-					
-					sysContext.endTransaction();
-				} catch (Exception e) {
-					if (sysContext != null)	{
-						sysContext.rollbackTransaction();
-					}
-					LOGGER.error("An error occured while receiving a message for monitored item "
-							+ opcMonitoredItem.getMonitoredItemId().longValue() + "." + System.lineSeparator()
-							+ "Error message :" + e.getMessage() + System.lineSeparator() + "Full error :" + e);
-
-					// Should not throw an error here as this action is happening in the background.
-				}
+	/**
+	 * Creates event monitored items on event notifiers, for instance the Server
+	 * object or an area with alarms. The server only reports the events that pass
+	 * the where clause of the filter. The items are added to the subscription, so
+	 * they are recreated with it.
+	 * 
+	 * @param opcEventFilter see EventFilterBuilder
+	 * @param queueSize      number of events the server queues between two
+	 *                       publish responses
+	 */
+	public List<UaMonitoredItem> opcCreateEventMonitoredItems(List<NodeId> opcEventNotifierList,
+			EventFilter opcEventFilter, int queueSize, String microflowToCall, DeliveryMode deliveryMode)
+			throws CoreException {
+		ExtensionObject opcEncodedFilter = ExtensionObject
+				.encode(client.getUaClient().getStaticSerializationContext(), opcEventFilter);
+		List<MonitoredItemCreateRequest> opcMonitoredItemCreateRequestList = new ArrayList<>();
+		for (NodeId opcEventNotifier : opcEventNotifierList) {
+			opcMonitoredItemCreateRequestList.add(new MonitoredItemCreateRequest(
+					new ReadValueId(opcEventNotifier, AttributeId.EventNotifier.uid(), null, QualifiedName.NULL_VALUE),
+					MonitoringMode.Reporting, new MonitoringParameters(opcSubscription.nextClientHandle(), 0.0,
+							opcEncodedFilter, uint(queueSize), true)));
+		}
+		List<UaMonitoredItem> opcMonitoredItemList = opcCreateMonitoredItems(opcMonitoredItemCreateRequestList,
+				microflowToCall, deliveryMode);
+		for (UaMonitoredItem opcMonitoredItem : opcMonitoredItemList) {
+			if (opcMonitoredItem.getStatusCode().isGood()) {
+				client.getClientSubscriptionManager().addMonitoredItem(opcSubscription, opcMonitoredItem);
+			} else {
+				LOGGER.warn("Cannot create event monitored item for node ID "
+						+ opcMonitoredItem.getReadValueId().getNodeId().toParseableString() + " because "
+						+ opcMonitoredItem.getStatusCode());
 			}
+		}
+		return opcMonitoredItemList;
+	}
+
+	private static boolean isEventMonitoredItem(UaMonitoredItem opcMonitoredItem) {
+		return AttributeId.EventNotifier.uid().equals(opcMonitoredItem.getReadValueId().getAttributeId());
+	}
+
+	private static boolean isEventRequest(MonitoredItemCreateRequest opcMonitoredItemCreateRequest) {
+		return AttributeId.EventNotifier.uid()
+				.equals(opcMonitoredItemCreateRequest.getItemToMonitor().getAttributeId());
+	}
+
+	private void registerMonitoredItemDefinitions(List<MonitoredItemCreateRequest> opcMonitoredItemCreateRequestList,
+			List<UaMonitoredItem> opcMonitoredItemList, String microflowToCall, DeliveryMode deliveryMode) {
+		for (int i = 0; i < opcMonitoredItemList.size(); i++) {
+			UaMonitoredItem opcMonitoredItem = opcMonitoredItemList.get(i);
+			if (opcMonitoredItem.getStatusCode().isGood()) {
+				monitoredItemManager.putMonitoredItemDefinition(opcMonitoredItem.getMonitoredItemId(),
+						new MonitoredItemDefinition(opcMonitoredItemCreateRequestList.get(i), microflowToCall,
+								deliveryMode));
+			}
+		}
+	}
+
+	public Consumer<DataValue> createValueConsumer(UaMonitoredItem opcMonitoredItem, String mxMicroflowName) {
+		return createValueConsumer(opcMonitoredItem, mxMicroflowName, DeliveryMode.IMMEDIATE);
+	}
+
+	public Consumer<DataValue> createValueConsumer(UaMonitoredItem opcMonitoredItem, String mxMicroflowName,
+			DeliveryMode deliveryMode) {
+		return createValueConsumer(opcMonitoredItem, MicroflowBindingPlan.forMicroflow(mxMicroflowName),
+				deliveryMode);
+	}
+
+	private Consumer<DataValue> createValueConsumer(UaMonitoredItem opcMonitoredItem,
+			MicroflowBindingPlan bindingPlan, DeliveryMode deliveryMode) {
+		Consumer<DataValue> deliveryConsumer = createDeliveryConsumer(opcMonitoredItem, bindingPlan, deliveryMode);
+		String configurationName = client.getConfigurationName();
+		UInteger subscriptionId = opcSubscription.getSubscriptionId();
+		return opcDataValue -> {
+			ConnectorMetrics.getInstance().recordNotification(configurationName, subscriptionId);
+			deliveryConsumer.accept(opcDataValue);
 		};
 	}
 
-	private Entry<String, IDataType> findInputByEntityName(Map<String, IDataType> inputParams, String entityName) {
-		return inputParams.entrySet().stream()
-				.filter(input -> !input.getValue().isList() && entityName.equals(input.getValue().getObjectType()))
-				.findFirst().orElse(null);
+	/**
+	 * Lets the batcher and slot map of the subscription deliver through this
+	 * service set, after they were taken over from a subscription that was lost.
+	 */
+	void bindNotificationDelivery() {
+		monitoredItemManager.getNotificationBatcher()
+				.ifPresent(notificationBatcher -> notificationBatcher.setBatchConsumer(this::deliverBatch));
+		monitoredItemManager.getLatestValueSlotMap().ifPresent(slotMap -> slotMap.setBatchConsumer(this::deliverBatch));
+	}
+
+	private Consumer<DataValue> createDeliveryConsumer(UaMonitoredItem opcMonitoredItem,
+			MicroflowBindingPlan bindingPlan, DeliveryMode deliveryMode) {
+		switch (deliveryMode) {
+		case IMMEDIATE:
+			// Runs on the callback executor of the client, so a slow microflow does not
+			// block the publishing threads that are shared by all clients.
+			return opcDataValue -> client.getCallbackExecutor().execute(opcMonitoredItem,
+					() -> processNotification(opcMonitoredItem, bindingPlan, opcDataValue));
+		case BATCHED:
+			NotificationBatcher notificationBatcher = monitoredItemManager
+					.getOrCreateNotificationBatcher(this::deliverBatch, client::getCallbackExecutor);
+			return opcDataValue -> notificationBatcher
+					.submit(new Notification(opcMonitoredItem, bindingPlan, opcDataValue));
+		case LATEST_VALUE:
+			return monitoredItemManager.getOrCreateLatestValueSlotMap(this::deliverBatch, client::getCallbackExecutor)
+					.createValueConsumer(opcMonitoredItem, bindingPlan);
+		default:
+			throw new IllegalArgumentException("Delivery mode " + deliveryMode + " is not supported.");
+		}
+	}
+
+	/**
+	 * Hands events to the same delivery path as data changes. The value of the
+	 * data value is an array with the selected event fields, in the order of the
+	 * select clauses. Every event is delivered, so LATEST_VALUE is not supported.
+	 */
+	public Consumer<Variant[]> createEventConsumer(UaMonitoredItem opcMonitoredItem, String mxMicroflowName,
+			DeliveryMode deliveryMode) {
+		return createEventConsumer(opcMonitoredItem, MicroflowBindingPlan.forMicroflow(mxMicroflowName),
+				deliveryMode);
+	}
+
+	private Consumer<Variant[]> createEventConsumer(UaMonitoredItem opcMonitoredItem,
+			MicroflowBindingPlan bindingPlan, DeliveryMode deliveryMode) {
+		if (deliveryMode == DeliveryMode.LATEST_VALUE) {
+			throw new IllegalArgumentException("Delivery mode LATEST_VALUE cannot be used for event monitored items");
+		}
+		Consumer<DataValue> valueConsumer = createValueConsumer(opcMonitoredItem, bindingPlan, deliveryMode);
+		return opcEventFields -> valueConsumer
+				.accept(new DataValue(new Variant(opcEventFields), StatusCode.GOOD, DateTime.now()));
+	}
+
+	private void processNotification(UaMonitoredItem opcMonitoredItem, MicroflowBindingPlan bindingPlan,
+			DataValue opcDataValue) {
+		List<Notification> notifications = Collections
+				.singletonList(new Notification(opcMonitoredItem, bindingPlan, opcDataValue));
+		if (storeWhenBacklogged(notifications)) {
+			return;
+		}
+		IContext sysContext = null;
+		long startNanos = System.nanoTime();
+		try {
+			sysContext = Core.createSystemContext();
+			sysContext.startTransaction();
+			executeMicroflow(opcMonitoredItem, bindingPlan, Collections.singletonList(opcDataValue), sysContext);
+			sysContext.endTransaction();
+			recordCallback(startNanos);
+		} catch (Exception e) {
+			if (sysContext != null) {
+				sysContext.rollbackTransaction();
+			}
+			LOGGER.error("An error occured while receiving a message for monitored item "
+					+ opcMonitoredItem.getMonitoredItemId().longValue() + "." + System.lineSeparator()
+					+ "Error message :" + e.getMessage() + System.lineSeparator() + "Full error :" + e);
+			storeForReplay(notifications, e);
+
+			// Should not throw an error here as this action is happening in the background.
+		}
+	}
+
+	/**
+	 * Processes a batch of notifications in one transaction. The notifications are
+	 * grouped per monitored item, so that each microflow is called once per item
+	 * with all its values when it accepts a list of MessageDataValue, or once per
+	 * value otherwise.
+	 * 
+	 * When the batch fails, it is delivered again in one transaction per item, or
+	 * per value for microflows that take a single MessageDataValue. Only the
+	 * notifications of the call that fails again are lost, as when every value is
+	 * delivered in its own transaction.
+	 * 
+	 * @param notifications drained notifications, in arrival order
+	 */
+	private void deliverBatch(List<Notification> notifications) {
+		if (storeWhenBacklogged(notifications)) {
+			return;
+		}
+		try {
+			executeBatch(notifications);
+		} catch (Exception e) {
+			List<List<Notification>> isolatedBatches = splitPerMicroflowCall(notifications);
+			if (isolatedBatches.size() == 1) {
+				logFailedBatch(notifications, e);
+				storeForReplay(notifications, e);
+				return;
+			}
+			LOGGER.warn("An error occured while processing a batch of " + notifications.size()
+					+ " notifications for subscription " + opcSubscription.getSubscriptionId()
+					+ ", delivering them again in " + isolatedBatches.size() + " separate transactions. The error is "
+					+ e.getMessage());
+			isolatedBatches.forEach(this::deliverIsolatedBatch);
+		}
+	}
+
+	private void deliverIsolatedBatch(List<Notification> notifications) {
+		if (storeWhenBacklogged(notifications)) {
+			return;
+		}
+		try {
+			executeBatch(notifications);
+		} catch (Exception e) {
+			logFailedBatch(notifications, e);
+			storeForReplay(notifications, e);
+		}
+	}
+
+	private void logFailedBatch(List<Notification> notifications, Exception e) {
+		LOGGER.error("An error occured while processing " + notifications.size()
+				+ " notifications for monitored item "
+				+ notifications.get(0).getOpcMonitoredItem().getMonitoredItemId() + " of subscription "
+				+ opcSubscription.getSubscriptionId() + "." + System.lineSeparator() + "Error message :"
+				+ e.getMessage() + System.lineSeparator() + "Full error :" + e);
+	}
+
+	/**
+	 * Splits the notifications into the units of one microflow call: all values of
+	 * an item when its microflow accepts a list, or every value on its own.
+	 */
+	private static List<List<Notification>> splitPerMicroflowCall(List<Notification> notifications) {
+		List<List<Notification>> microflowCalls = new ArrayList<>();
+		for (List<Notification> itemNotifications : notifications.stream()
+				.collect(Collectors.groupingBy(Notification::getOpcMonitoredItem, LinkedHashMap::new,
+						Collectors.toList()))
+				.values()) {
+			if (itemNotifications.get(0).getBindingPlan().acceptsDataValueList()) {
+				microflowCalls.add(itemNotifications);
+			} else {
+				itemNotifications.forEach(notification -> microflowCalls.add(Collections.singletonList(notification)));
+			}
+		}
+		return microflowCalls;
+	}
+
+	/**
+	 * Delivers notifications that were stored by the store and forward of the
+	 * client.
+	 * 
+	 * @throws CoreException when the transaction fails, the notifications then
+	 *                       stay stored
+	 */
+	void deliverStoredNotifications(List<Notification> notifications) throws CoreException {
+		executeBatch(notifications);
+	}
+
+	private void executeBatch(List<Notification> notifications) throws CoreException {
+		IContext sysContext = null;
+		long startNanos = System.nanoTime();
+		try {
+			sysContext = Core.createSystemContext();
+			sysContext.startTransaction();
+			Map<UaMonitoredItem, List<Notification>> notificationsPerItem = notifications.stream()
+					.collect(Collectors.groupingBy(Notification::getOpcMonitoredItem, LinkedHashMap::new,
+							Collectors.toList()));
+			for (Entry<UaMonitoredItem, List<Notification>> itemNotifications : notificationsPerItem.entrySet()) {
+				executeMicroflow(itemNotifications.getKey(), itemNotifications.getValue().get(0).getBindingPlan(),
+						itemNotifications.getValue().stream().map(Notification::getOpcDataValue)
+								.collect(Collectors.toList()),
+						sysContext);
+			}
+			sysContext.endTransaction();
+			recordCallback(startNanos);
+			LOGGER.debugf("Processed a batch of {} notifications for {} monitored items of subscription {}",
+					notifications.size(), notificationsPerItem.size(), opcSubscription.getSubscriptionId());
+		} catch (CoreException | RuntimeException e) {
+			if (sysContext != null) {
+				sysContext.rollbackTransaction();
+			}
+			throw e;
+		}
+	}
+
+	private void recordCallback(long startNanos) {
+		ConnectorMetrics.getInstance().recordCallback(client.getConfigurationName(),
+				opcSubscription.getSubscriptionId(), startNanos);
+	}
+
+	/**
+	 * While stored notifications are waiting, new notifications are stored behind
+	 * them so they are delivered in order.
+	 * 
+	 * @return true if the notifications were stored
+	 */
+	private boolean storeWhenBacklogged(List<Notification> notifications) {
+		NotificationStoreAndForward storeAndForward = client.getStoreAndForward();
+		if (storeAndForward == null || !storeAndForward.isBacklogged()) {
+			return false;
+		}
+		storeAndForward.store(opcSubscription.getSubscriptionId(), notifications);
+		return true;
+	}
+
+	/**
+	 * Only notifications that failed on a transient error, such as a lost database
+	 * connection, are stored. Replaying a notification that the microflow itself
+	 * rejects would fail again and hold up all notifications behind it.
+	 */
+	private void storeForReplay(List<Notification> notifications, Exception error) {
+		NotificationStoreAndForward storeAndForward = client.getStoreAndForward();
+		if (storeAndForward != null && !NotificationStoreAndForward.isTransient(error)) {
+			LOGGER.warn("Not storing " + notifications.size() + " notifications of subscription "
+					+ opcSubscription.getSubscriptionId() + " because the error is not transient");
+		} else if (storeAndForward != null) {
+			int lostCount = storeAndForward.store(opcSubscription.getSubscriptionId(), notifications);
+			LOGGER.warn("Stored " + (notifications.size() - lostCount) + " notifications of subscription "
+					+ opcSubscription.getSubscriptionId() + " to deliver them again when commits succeed");
+		}
+	}
+
+	/**
+	 * Calls the microflow for the values of one monitored item. If the microflow
+	 * has a list of MessageDataValue as input, it is called once with all values,
+	 * otherwise it is called once for every value. When the call fails because the
+	 * parameters of the microflow changed, it is called once more with the
+	 * parameters resolved again.
+	 */
+	private void executeMicroflow(UaMonitoredItem opcMonitoredItem, MicroflowBindingPlan bindingPlan,
+			List<DataValue> opcDataValueList, IContext sysContext) throws CoreException {
+		try {
+			executeMicroflowWithPlan(opcMonitoredItem, bindingPlan, opcDataValueList, sysContext);
+		} catch (CoreException | RuntimeException e) {
+			if (!bindingPlan.revalidate()) {
+				throw e;
+			}
+			executeMicroflowWithPlan(opcMonitoredItem, bindingPlan, opcDataValueList, sysContext);
+		}
+	}
+
+	private void executeMicroflowWithPlan(UaMonitoredItem opcMonitoredItem, MicroflowBindingPlan bindingPlan,
+			List<DataValue> opcDataValueList, IContext sysContext) throws CoreException {
+		String mxMicroflowName = bindingPlan.getMicroflowName();
+		MessageMonitoredItem mxMessageMonitoredItem = bindingPlan.getMessageMonitoredItemKey() != null
+				? createMxMessageMonitoredItem(opcMonitoredItem)
+				: null;
+		MessageMonitoredItemReadValueId mxMessageMonitoredItemReadValueId = bindingPlan
+				.getMessageMonitoredItemReadValueIdKey() != null
+						? (MessageMonitoredItemReadValueId) new MxReadValueIdFactory(opcMonitoredItem.getReadValueId(),
+								ReadValueIdType.MESSAGE, context).getReadValueId()
+						: null;
+
+		if (bindingPlan.acceptsDataValueList()) {
+			List<IMendixObject> mxDataValueList = opcDataValueList.stream()
+					.map(opcDataValue -> new MxDataValueFactory(opcDataValue, DataValueType.MESSAGE_MONITORED_ITEM,
+							context).getDataValue().getMendixObject())
+					.collect(Collectors.toList());
+			Core.microflowCall(mxMicroflowName).withParam(bindingPlan.getDataValueListKey(), mxDataValueList)
+					.withParam(bindingPlan.getMessageMonitoredItemKey(),
+							mxMessageMonitoredItem != null ? mxMessageMonitoredItem.getMendixObject() : null)
+					.withParam(bindingPlan.getMessageMonitoredItemReadValueIdKey(),
+							mxMessageMonitoredItemReadValueId != null
+									? mxMessageMonitoredItemReadValueId.getMendixObject()
+									: null)
+					.execute(sysContext);
+			return;
+		}
+		for (DataValue opcDataValue : opcDataValueList) {
+			opcuaconnector.proxies.DataValue mxDataValue = bindingPlan.getDataValueKey() != null
+					? new MxDataValueFactory(opcDataValue, DataValueType.MESSAGE_MONITORED_ITEM, context)
+							.getDataValue()
+					: null;
+			Core.microflowCall(mxMicroflowName)
+					.withParam(bindingPlan.getDataValueKey(),
+							mxDataValue != null ? mxDataValue.getMendixObject() : null)
+					.withParam(bindingPlan.getMessageMonitoredItemKey(),
+							mxMessageMonitoredItem != null ? mxMessageMonitoredItem.getMendixObject() : null)
+					.withParam(bindingPlan.getMessageMonitoredItemReadValueIdKey(),
+							mxMessageMonitoredItemReadValueId != null
+									? mxMessageMonitoredItemReadValueId.getMendixObject()
+									: null)
+					.execute(sysContext);
+		}
+	}
+
+	/**
+	 * BATCHED delivers the values of several items in one transaction, a failing
+	 * batch is then delivered again per microflow call, see deliverBatch.
+	 */
+	private DeliveryMode getDefaultDeliveryMode(MicroflowBindingPlan bindingPlan) {
+		if (monitoredItemManager.getDefaultDeliveryMode() != null) {
+			return monitoredItemManager.getDefaultDeliveryMode();
+		}
+		return bindingPlan.acceptsDataValueList() ? DeliveryMode.BATCHED : DeliveryMode.IMMEDIATE;
 	}
 
 	private void validateMicroflowName(String mxMicroflowName) {
@@ -211,12 +573,12 @@ public class OpcMonitoredItemServiceSet {
 	public List<StatusCode> opcDeleteMonitoredItems(List<UaMonitoredItem> opcMonitoredItemsToDelete)
 			throws CoreException {
 		try {
-			LOGGER.debug("Requesting deletion of monitored items with monitored item IDs: "
+			LOGGER.debug(() -> "Requesting deletion of monitored items with monitored item IDs: "
 					+ opcMonitoredItemsToDelete.stream().map(UaMonitoredItem::getMonitoredItemId)
 							.map(UInteger::toString).collect(Collectors.joining(", ")));
 			List<StatusCode> deleteMonitoredItemResponseStatusCodes = opcSubscription
 					.deleteMonitoredItems(opcMonitoredItemsToDelete).get();
-			LOGGER.debug("Received " + deleteMonitoredItemResponseStatusCodes.size()
+			LOGGER.debug(() -> "Received " + deleteMonitoredItemResponseStatusCodes.size()
 					+ " status codes for delete monitored items request. The statusCodes are "
 					+ deleteMonitoredItemResponseStatusCodes.stream().map(StatusCode::toString)
 							.collect(Collectors.joining(", ")));
@@ -232,4 +594,23 @@ public class OpcMonitoredItemServiceSet {
 			throw new CoreException(e);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Determines how the notifications of a monitored item are handed to the
+	 * microflow.
+	 */
+	public enum DeliveryMode {
+		/** One transaction and one microflow call per notification. */
+		IMMEDIATE,
+		/**
+		 * Notifications of the subscription are queued and processed in batches, one
+		 * transaction per batch.
+		 */
+		BATCHED,
+		/**
+		 * Only the newest value per monitored item is kept until it is processed,
+		 * intermediate values are superseded.
+		 */
+		LATEST_VALUE
+	}
+}
@@ -2,6 +2,7 @@ package opcuaconnector.impl;
 
 import static java.util.Objects.requireNonNull;
 
+import org.eclipse.milo.opcua.stack.core.NamespaceTable;
 import org.eclipse.milo.opcua.stack.core.UaRuntimeException;
 import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
 
@@ -11,20 +12,39 @@ public class OpcNode {
 	private static final MxLogger LOGGER = new MxLogger(OpcNode.class);
 
 	private final NodeId opcNodeId;
-	
+
 	public OpcNode(String nodeId) throws CoreException {
+		this(nodeId, null);
+	}
+
+	/**
+	 * @param opcNamespaceTable namespace table of the session, used to resolve a
+	 *                          node ID with a namespace URI (nsu=). Can be null
+	 *                          when only node IDs with a namespace index are
+	 *                          expected.
+	 */
+	public OpcNode(String nodeId, NamespaceTable opcNamespaceTable) throws CoreException {
 		requireNonNull(nodeId, "The node ID cannot be empty");
 		if (nodeId.isBlank()) {
 			throw new IllegalArgumentException("The node ID cannot be blank");
 		}
 		try {
-			this.opcNodeId = NodeId.parse(nodeId);
+			if (opcNamespaceTable != null && NodeIdCache.isExpandedNodeId(nodeId)) {
+				this.opcNodeId = NodeIdCache.getInstance().getExpandedNodeId(nodeId).toNodeId(opcNamespaceTable)
+						.orElse(null);
+				if (opcNodeId == null) {
+					throw new CoreException("The node ID " + nodeId
+							+ " refers to a namespace or server that is not known by the server.");
+				}
+			} else {
+				this.opcNodeId = NodeIdCache.getInstance().getNodeId(nodeId);
+			}
 		} catch (UaRuntimeException e) {
 			LOGGER.error("Cannot parse " + nodeId + " to a valid node ID, because " + e.getMessage());
 			throw new CoreException("The node ID " + nodeId + " is not valid. Please check the format.");
 		}
 	}
-	
+
 	public NodeId getOpcNodeId(){
 		return opcNodeId;
 	}
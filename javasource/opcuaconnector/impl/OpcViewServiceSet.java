@@ -1,6 +1,8 @@
 package opcuaconnector.impl;
 
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 import static java.util.Objects.requireNonNull;
 
@@ -10,21 +12,36 @@ import org.eclipse.milo.opcua.stack.core.types.structured.BrowseResult;
 
 import com.mendix.core.CoreException;
 
+import opcuaconnector.impl.AddressSpaceCrawler.CrawledReference;
+import opcuaconnector.impl.ClientManager.Client;
+import opcuaconnector.impl.OperationLimits.Limit;
+
 public class OpcViewServiceSet {
 	private final MxLogger LOGGER = new MxLogger(OpcViewServiceSet.class);
 
 	private final OpcUaClient opcClient;
+	private Client client;
 
 	public OpcViewServiceSet(OpcUaClient opcClient) throws CoreException {
 		requireNonNull(opcClient, "The client cannot be empty");
 		this.opcClient = opcClient;
 	}
 
+	/**
+	 * Creates a service set that browses according to the operation limits of the
+	 * server of the client.
+	 */
+	public OpcViewServiceSet(Client client) throws CoreException {
+		this(requireNonNull(client, "The client cannot be empty").getUaClient());
+		this.client = client;
+	}
+
 	public BrowseResult miloBrowse(BrowseDescription opcBrowseDescription) throws CoreException {
+		long startNanos = System.nanoTime();
 		try {
-			LOGGER.debug("Initiating Browse request for Browse description: " + opcBrowseDescription);
+			LOGGER.debugf("Initiating Browse request for Browse description: {}", opcBrowseDescription);
 			BrowseResult opcBrowseResult = opcClient.browse(opcBrowseDescription).get();
-			LOGGER.debug("Received response from opc server. Response is: " + opcBrowseResult);
+			LOGGER.debugf("Received response from opc server. Response is: {}", opcBrowseResult);
 			return opcBrowseResult;
 		} catch (ExecutionException e) {
 			LOGGER.error("An error occured while browsing the opc server. The request was: "
@@ -38,6 +55,35 @@ public class OpcViewServiceSet {
 							+ ". The error was " + e.getMessage());
 			Thread.currentThread().interrupt();
 			throw new CoreException(e);
+		} finally {
+			if (client != null) {
+				ConnectorMetrics.getInstance().recordRequest(client.getConfigurationName(), "browse", startNanos);
+			}
+		}
+	}
+
+	/**
+	 * Walks the address space breadth-first from the starting descriptions, see
+	 * {@link AddressSpaceCrawler}. Use the crawler directly to limit the depth or
+	 * the number of nodes.
+	 * 
+	 * @param opcBrowseDescriptionList starting nodes and how to browse them
+	 * @param referenceConsumer        receives every reference that is found, on
+	 *                                 the calling thread
+	 * @return counters of the crawl
+	 * @throws CoreException whenever a request fails
+	 */
+	public AddressSpaceCrawler.Summary crawl(List<BrowseDescription> opcBrowseDescriptionList,
+			Consumer<CrawledReference> referenceConsumer) throws CoreException {
+		return createCrawler().crawl(opcBrowseDescriptionList, referenceConsumer);
+	}
+
+	public AddressSpaceCrawler createCrawler() {
+		if (client == null) {
+			return new AddressSpaceCrawler(opcClient, ClientManager.DEFAULT_MAX_NODES_PER_REQUEST,
+					ClientManager.DEFAULT_MAX_REQUESTS_IN_FLIGHT);
 		}
+		return new AddressSpaceCrawler(opcClient, client.getChunkSize(Limit.MAX_NODES_PER_BROWSE),
+				client.getMaxRequestsInFlight());
 	}
 }
@@ -0,0 +1,123 @@
+package opcuaconnector.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.Identifiers;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+import com.mendix.core.CoreException;
+
+/**
+ * The operation limits a server publishes in its ServerCapabilities. A limit of
+ * zero means the server did not specify a limit.
+ */
+public class OperationLimits {
+	private static final MxLogger LOGGER = new MxLogger(OperationLimits.class);
+
+	/** Used when the server cannot be asked, nothing is limited. */
+	public static final OperationLimits UNLIMITED = new OperationLimits(new long[Limit.values().length]);
+
+	private final long[] limits;
+
+	private OperationLimits(long[] limits) {
+		this.limits = limits;
+	}
+
+	/**
+	 * Reads all operation limits from the server in a single read request.
+	 *
+	 * @throws CoreException whenever the read request fails
+	 */
+	public static OperationLimits read(OpcUaClient opcClient) throws CoreException {
+		List<ReadValueId> opcReadValueIdList = new ArrayList<>();
+		for (Limit limit : Limit.values()) {
+			opcReadValueIdList
+					.add(new ReadValueId(limit.opcNodeId, AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE));
+		}
+		try {
+			DataValue[] opcDataValues = opcClient.read(0, TimestampsToReturn.Neither, opcReadValueIdList).get()
+					.getResults();
+			long[] limits = new long[Limit.values().length];
+			for (Limit limit : Limit.values()) {
+				limits[limit.ordinal()] = toLimit(opcDataValues[limit.ordinal()]);
+			}
+			OperationLimits operationLimits = new OperationLimits(limits);
+			LOGGER.debug("Read operation limits from server with endpoint URL "
+					+ opcClient.getConfig().getEndpoint().getEndpointUrl() + ": " + operationLimits);
+			return operationLimits;
+		} catch (InterruptedException e) {
+			LOGGER.error("Cannot read the operation limits, because the action was interrupted. The error was "
+					+ e.getMessage());
+			Thread.currentThread().interrupt();
+			throw new CoreException(e);
+		} catch (ExecutionException e) {
+			LOGGER.error("Cannot read the operation limits from the server. The error was " + e.getMessage());
+			throw new CoreException(e);
+		}
+	}
+
+	private static long toLimit(DataValue opcDataValue) {
+		if (opcDataValue == null || !opcDataValue.getStatusCode().isGood()) {
+			return 0;
+		}
+		Object value = opcDataValue.getValue().getValue();
+		return value instanceof UInteger ? ((UInteger) value).longValue() : 0;
+	}
+
+	/**
+	 * @return the limit published by the server, zero if there is none
+	 */
+	public long get(Limit limit) {
+		return limits[limit.ordinal()];
+	}
+
+	/**
+	 * Determines how many operations can be put in a single request.
+	 *
+	 * @param limit              the server limit that applies to the request
+	 * @param maxNodesPerRequest the limit of the client, used when the server does
+	 *                           not publish a lower limit
+	 */
+	public int getChunkSize(Limit limit, int maxNodesPerRequest) {
+		long serverLimit = get(limit);
+		return serverLimit > 0 ? (int) Math.min(serverLimit, maxNodesPerRequest) : maxNodesPerRequest;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder stringBuilder = new StringBuilder();
+		for (Limit limit : Limit.values()) {
+			if (stringBuilder.length() > 0) {
+				stringBuilder.append(", ");
+			}
+			stringBuilder.append(limit).append('=').append(get(limit));
+		}
+		return stringBuilder.toString();
+	}
+
+	public enum Limit {
+		MAX_NODES_PER_READ(Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerRead),
+		MAX_NODES_PER_WRITE(Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerWrite),
+		MAX_NODES_PER_BROWSE(Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerBrowse),
+		MAX_NODES_PER_METHOD_CALL(Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerMethodCall),
+		MAX_NODES_PER_REGISTER_NODES(Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerRegisterNodes),
+		MAX_NODES_PER_HISTORY_READ_DATA(
+				Identifiers.Server_ServerCapabilities_OperationLimits_MaxNodesPerHistoryReadData),
+		MAX_MONITORED_ITEMS_PER_CALL(Identifiers.Server_ServerCapabilities_OperationLimits_MaxMonitoredItemsPerCall);
+
+		private final NodeId opcNodeId;
+
+		Limit(NodeId opcNodeId) {
+			this.opcNodeId = opcNodeId;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package opcuaconnector.impl;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+/**
+ * Keeps the parsed contents of FileDocuments, like certificates and private
+ * keys, so that a document is only parsed again after it changed. Entries are
+ * kept per document id together with the changed date of the document they
+ * were parsed from.
+ */
+class ParsedDocumentCache<T> {
+	private final ConcurrentHashMap<Long, Entry<T>> entries = new ConcurrentHashMap<>();
+
+	T get(IMendixObject mxDocument, IContext context, Parser<T> parser) throws CoreException {
+		Date changedDate = mxDocument.getChangedDate(context);
+		if (changedDate == null) {
+			return parser.parse();
+		}
+		long documentId = mxDocument.getId().toLong();
+		Entry<T> entry = entries.get(documentId);
+		if (entry != null && entry.changedDate.equals(changedDate)) {
+			return entry.value;
+		}
+		T value = parser.parse();
+		entries.put(documentId, new Entry<>(changedDate, value));
+		return value;
+	}
+
+	void clear() {
+		entries.clear();
+	}
+
+	interface Parser<T> {
+		T parse() throws CoreException;
+	}
+
+	private static final class Entry<T> {
+		private final Date changedDate;
+		private final T value;
+
+		private Entry(Date changedDate, T value) {
+			this.changedDate = changedDate;
+			this.value = value;
+		}
+	}
+}
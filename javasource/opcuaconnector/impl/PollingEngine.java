@@ -0,0 +1,277 @@
+package opcuaconnector.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.eclipse.milo.opcua.stack.core.AttributeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DataValue;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import org.eclipse.milo.opcua.stack.core.types.structured.ReadValueId;
+
+import com.mendix.core.CoreException;
+
+import opcuaconnector.impl.ClientManager.Client;
+
+/**
+ * Polls the values of nodes for servers that limit the number of subscriptions.
+ * The nodes are grouped per poll interval, every group is read with one read
+ * request per interval, which is split according to the operation limits of
+ * the server. Only values whose value or status changed since the previous poll
+ * are handed to the change consumer, the first poll hands over all values.
+ *
+ * The changes are delivered on the callback executor of the client, one group
+ * at a time in poll order. A poll that takes longer than its interval delays
+ * the next poll of the group instead of overlapping it. When the callback
+ * executor rejects the changes, the previous values are kept so the changes are
+ * delivered with the next poll.
+ */
+public class PollingEngine {
+	private static final MxLogger LOGGER = new MxLogger(PollingEngine.class);
+	public static final int DEFAULT_THREAD_COUNT = 2;
+
+	private final Client client;
+	private final Consumer<List<ValueChange>> changeConsumer;
+	private final ScheduledThreadPoolExecutor pollScheduler;
+	private final ConcurrentHashMap<Long, PollGroup> pollGroups = new ConcurrentHashMap<>();
+
+	public PollingEngine(Client client, Consumer<List<ValueChange>> changeConsumer) {
+		this(client, changeConsumer, DEFAULT_THREAD_COUNT);
+	}
+
+	/**
+	 * @param changeConsumer receives the changed values of one poll of a group
+	 * @param threadCount    number of groups that can be read at the same time
+	 */
+	public PollingEngine(Client client, Consumer<List<ValueChange>> changeConsumer, int threadCount) {
+		if (threadCount <= 0) {
+			throw new IllegalArgumentException("Thread count must be positive");
+		}
+		this.client = client;
+		this.changeConsumer = changeConsumer;
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.pollScheduler = new ScheduledThreadPoolExecutor(threadCount, runnable -> {
+			Thread thread = new Thread(runnable,
+					"OPC UA Connector polling " + client.getConfigurationName() + " " + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		pollScheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Starts polling the value of the node. A node can be polled at several
+	 * intervals.
+	 */
+	public synchronized void addTag(NodeId opcNodeId, long pollIntervalMs) {
+		if (pollIntervalMs <= 0) {
+			throw new IllegalArgumentException("Poll interval must be positive");
+		}
+		pollGroups.computeIfAbsent(pollIntervalMs, PollGroup::new).add(opcNodeId);
+	}
+
+	public synchronized void removeTag(NodeId opcNodeId, long pollIntervalMs) {
+		PollGroup pollGroup = pollGroups.get(pollIntervalMs);
+		if (pollGroup != null && pollGroup.remove(opcNodeId)) {
+			pollGroups.remove(pollIntervalMs, pollGroup);
+			pollGroup.stop();
+		}
+	}
+
+	/**
+	 * Stops all polls. Changes that are still queued on the callback executor are
+	 * delivered.
+	 */
+	public synchronized void stop() {
+		pollGroups.values().forEach(PollGroup::stop);
+		pollGroups.clear();
+		pollScheduler.shutdownNow();
+	}
+
+	public int getTagCount() {
+		return pollGroups.values().stream().mapToInt(PollGroup::size).sum();
+	}
+
+	public long getPollCount() {
+		return pollGroups.values().stream().mapToLong(pollGroup -> pollGroup.pollCount.get()).sum();
+	}
+
+	public long getFailedPollCount() {
+		return pollGroups.values().stream().mapToLong(pollGroup -> pollGroup.failedPollCount.get()).sum();
+	}
+
+	public long getChangeCount() {
+		return pollGroups.values().stream().mapToLong(pollGroup -> pollGroup.changeCount.get()).sum();
+	}
+
+	public long getRejectedChangeCount() {
+		return pollGroups.values().stream().mapToLong(pollGroup -> pollGroup.rejectedChangeCount.get()).sum();
+	}
+
+	/**
+	 * The nodes with the same poll interval. The list of read value ids is
+	 * replaced when a node is added or removed, so a poll always reads a
+	 * consistent list.
+	 */
+	private class PollGroup {
+		private final long pollIntervalMs;
+		private final Map<NodeId, DataValue> lastValues = new ConcurrentHashMap<>();
+		private final AtomicLong pollCount = new AtomicLong();
+		private final AtomicLong failedPollCount = new AtomicLong();
+		private final AtomicLong changeCount = new AtomicLong();
+		private final AtomicLong rejectedChangeCount = new AtomicLong();
+		private volatile List<ReadValueId> opcReadValueIdList = new ArrayList<>();
+		private ScheduledFuture<?> pollTask;
+
+		private PollGroup(long pollIntervalMs) {
+			this.pollIntervalMs = pollIntervalMs;
+		}
+
+		private synchronized void add(NodeId opcNodeId) {
+			if (opcReadValueIdList.stream().anyMatch(opcReadValueId -> opcReadValueId.getNodeId().equals(opcNodeId))) {
+				return;
+			}
+			List<ReadValueId> newReadValueIdList = new ArrayList<>(opcReadValueIdList);
+			newReadValueIdList.add(new ReadValueId(opcNodeId, AttributeId.Value.uid(), null, QualifiedName.NULL_VALUE));
+			opcReadValueIdList = newReadValueIdList;
+			if (pollTask == null) {
+				pollTask = pollScheduler.scheduleAtFixedRate(this::poll, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+				LOGGER.info("Polling " + client.getConfigurationName() + " every " + pollIntervalMs + " ms");
+			}
+		}
+
+		/**
+		 * @return true if the group has no nodes left
+		 */
+		private synchronized boolean remove(NodeId opcNodeId) {
+			List<ReadValueId> newReadValueIdList = new ArrayList<>(opcReadValueIdList);
+			newReadValueIdList.removeIf(opcReadValueId -> opcReadValueId.getNodeId().equals(opcNodeId));
+			opcReadValueIdList = newReadValueIdList;
+			lastValues.remove(opcNodeId);
+			return newReadValueIdList.isEmpty();
+		}
+
+		private synchronized void stop() {
+			if (pollTask != null) {
+				pollTask.cancel(false);
+			}
+		}
+
+		private int size() {
+			return opcReadValueIdList.size();
+		}
+
+		private void poll() {
+			List<ReadValueId> currentReadValueIdList = opcReadValueIdList;
+			if (currentReadValueIdList.isEmpty()) {
+				return;
+			}
+			pollCount.incrementAndGet();
+			try {
+				// Values that are at most half a poll interval old are recent enough
+				DataValue[] opcDataValues = new OpcAttributeServiceSet(client)
+						.miloRead(pollIntervalMs / 2.0, TimestampsToReturn.Both, currentReadValueIdList).getResults();
+				List<ValueChange> changes = new ArrayList<>();
+				Map<NodeId, DataValue> previousValues = new HashMap<>();
+				synchronized (this) {
+					// Nodes that were removed during the read must not be put back
+					Set<NodeId> removedNodeIds = getRemovedNodeIds(currentReadValueIdList);
+					for (int i = 0; i < currentReadValueIdList.size(); i++) {
+						NodeId opcNodeId = currentReadValueIdList.get(i).getNodeId();
+						DataValue opcDataValue = opcDataValues[i];
+						DataValue opcLastValue = lastValues.get(opcNodeId);
+						if (!removedNodeIds.contains(opcNodeId) && (opcLastValue == null
+								|| !Objects.equals(opcLastValue.getValue(), opcDataValue.getValue())
+								|| !Objects.equals(opcLastValue.getStatusCode(), opcDataValue.getStatusCode()))) {
+							lastValues.put(opcNodeId, opcDataValue);
+							previousValues.put(opcNodeId, opcLastValue);
+							changes.add(new ValueChange(opcNodeId, opcDataValue, pollIntervalMs));
+						}
+					}
+				}
+				LOGGER.debugf("Polled {} nodes of {} every {} ms, {} changed", currentReadValueIdList.size(),
+						client.getConfigurationName(), pollIntervalMs, changes.size());
+				if (!changes.isEmpty()) {
+					changeCount.addAndGet(changes.size());
+					if (!client.getCallbackExecutor().execute(this, () -> changeConsumer.accept(changes))) {
+						restorePreviousValues(changes, previousValues);
+					}
+				}
+			} catch (CoreException | RuntimeException e) {
+				failedPollCount.incrementAndGet();
+				LOGGER.warn("Cannot poll " + currentReadValueIdList.size() + " nodes of " + client.getConfigurationName()
+						+ " every " + pollIntervalMs + " ms. The error is " + e.getMessage());
+			}
+		}
+
+		private Set<NodeId> getRemovedNodeIds(List<ReadValueId> polledReadValueIdList) {
+			if (polledReadValueIdList == opcReadValueIdList) {
+				return Collections.emptySet();
+			}
+			Set<NodeId> removedNodeIds = polledReadValueIdList.stream().map(ReadValueId::getNodeId)
+					.collect(Collectors.toSet());
+			opcReadValueIdList.forEach(opcReadValueId -> removedNodeIds.remove(opcReadValueId.getNodeId()));
+			return removedNodeIds;
+		}
+
+		/**
+		 * Puts back the values from before a poll whose changes were not accepted, so
+		 * the next poll finds the changes again. Values that were replaced or removed
+		 * in the meantime are left alone.
+		 */
+		private void restorePreviousValues(List<ValueChange> changes, Map<NodeId, DataValue> previousValues) {
+			for (ValueChange change : changes) {
+				DataValue opcPreviousValue = previousValues.get(change.getOpcNodeId());
+				if (opcPreviousValue == null) {
+					lastValues.remove(change.getOpcNodeId(), change.getOpcDataValue());
+				} else {
+					lastValues.replace(change.getOpcNodeId(), change.getOpcDataValue(), opcPreviousValue);
+				}
+			}
+			rejectedChangeCount.addAndGet(changes.size());
+			LOGGER.warn("The callback executor of " + client.getConfigurationName() + " rejected " + changes.size()
+					+ " changed values polled every " + pollIntervalMs + " ms, they are delivered with the next poll");
+		}
+	}
+
+	/**
+	 * A value that changed since the previous poll.
+	 */
+	public static class ValueChange {
+		private final NodeId opcNodeId;
+		private final DataValue opcDataValue;
+		private final long pollIntervalMs;
+
+		private ValueChange(NodeId opcNodeId, DataValue opcDataValue, long pollIntervalMs) {
+			this.opcNodeId = opcNodeId;
+			this.opcDataValue = opcDataValue;
+			this.pollIntervalMs = pollIntervalMs;
+		}
+
+		public NodeId getOpcNodeId() {
+			return opcNodeId;
+		}
+
+		public DataValue getOpcDataValue() {
+			return opcDataValue;
+		}
+
+		public long getPollIntervalMs() {
+			return pollIntervalMs;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package opcuaconnector.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.milo.opcua.sdk.client.OpcUaClient;
+import org.eclipse.milo.opcua.sdk.client.SessionActivityListener;
+import org.eclipse.milo.opcua.sdk.client.api.UaSession;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+
+import opcuaconnector.impl.ClientManager.Client;
+import opcuaconnector.impl.OperationLimits.Limit;
+
+/**
+ * Registers the nodes that are read and written frequently with the server
+ * through the RegisterNodes service, and hands out the aliases the server
+ * returns. Servers can look up a registered node faster, and the alias is
+ * usually a short numeric node ID that is cheaper to encode than a long string
+ * identifier.
+ *
+ * A node is registered after it was used a number of times. Registration is
+ * asynchronous: the nodes that became frequent during a short delay are
+ * registered together, and until the server answered the node itself is used.
+ *
+ * Aliases are only valid on the session they were registered on, which is the
+ * first session of the client. While the session is inactive the nodes
+ * themselves are used, and when the client reconnects with a new session all
+ * registered nodes are registered again.
+ */
+public class RegisteredNodeCache {
+	private static final MxLogger LOGGER = new MxLogger(RegisteredNodeCache.class);
+
+	public static final int DEFAULT_USES_BEFORE_REGISTERING = 3;
+	public static final int DEFAULT_MAX_REGISTERED_NODES = 10000;
+	private static final long REGISTER_DELAY_MS = 10;
+	private static final Executor REGISTER_EXECUTOR = CompletableFuture.delayedExecutor(REGISTER_DELAY_MS,
+			TimeUnit.MILLISECONDS);
+
+	private final Client client;
+	private final OpcUaClient opcClient;
+	private final ConcurrentHashMap<NodeId, NodeId> aliases = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<NodeId, AtomicInteger> useCounts = new ConcurrentHashMap<>();
+	private final Set<NodeId> pendingNodeIds = ConcurrentHashMap.newKeySet();
+	private final Queue<NodeId> nodeIdsToRegister = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean isRegistrationScheduled = new AtomicBoolean();
+	private final AtomicLong registeredCount = new AtomicLong();
+	private final AtomicLong failedRegistrationCount = new AtomicLong();
+	private final SessionActivityListener sessionActivityListener = new SessionActivityListener() {
+		@Override
+		public void onSessionActive(UaSession session) {
+			onSessionActivated(session.getSessionId());
+		}
+
+		@Override
+		public void onSessionInactive(UaSession session) {
+			isSessionActive = false;
+		}
+	};
+	private volatile int usesBeforeRegistering = DEFAULT_USES_BEFORE_REGISTERING;
+	private volatile int maxRegisteredNodes = DEFAULT_MAX_REGISTERED_NODES;
+	private volatile NodeId opcSessionId;
+	private volatile boolean isSessionActive = true;
+	private volatile boolean isStopped = false;
+
+	public RegisteredNodeCache(Client client) {
+		this.client = client;
+		this.opcClient = client.getUaClient();
+		UaSession session = opcClient.getSession().getNow(null);
+		this.opcSessionId = session != null ? session.getSessionId() : null;
+		opcClient.addSessionActivityListener(sessionActivityListener);
+	}
+
+	/**
+	 * Returns the alias of a registered node, or the node itself when it is not
+	 * registered. Only use the alias for requests on the first session of the
+	 * client.
+	 */
+	public NodeId getAlias(NodeId opcNodeId) {
+		if (!isSessionActive || isStopped) {
+			return opcNodeId;
+		}
+		NodeId opcAlias = aliases.get(opcNodeId);
+		if (opcAlias != null) {
+			return opcAlias;
+		}
+		if (!pendingNodeIds.contains(opcNodeId) && aliases.size() + pendingNodeIds.size() < maxRegisteredNodes) {
+			countUse(opcNodeId);
+		}
+		return opcNodeId;
+	}
+
+	/**
+	 * Stops using the alias of a node, for instance because the server no longer
+	 * knows it. The node is registered again once it is used frequently.
+	 */
+	public void forget(NodeId opcNodeId) {
+		if (opcNodeId != null && aliases.remove(opcNodeId) != null) {
+			LOGGER.debugf("Forgot the registered alias of node {} of {}", opcNodeId.toParseableString(),
+					client.getConfigurationName());
+		}
+	}
+
+	private void countUse(NodeId opcNodeId) {
+		// Keeps the counts bounded when many different nodes are used only rarely
+		if (useCounts.size() >= maxRegisteredNodes * 4) {
+			useCounts.clear();
+		}
+		int useCount = useCounts.computeIfAbsent(opcNodeId, key -> new AtomicInteger()).incrementAndGet();
+		if (useCount >= usesBeforeRegistering && pendingNodeIds.add(opcNodeId)) {
+			useCounts.remove(opcNodeId);
+			nodeIdsToRegister.add(opcNodeId);
+			scheduleRegistration();
+		}
+	}
+
+	private void scheduleRegistration() {
+		if (isRegistrationScheduled.compareAndSet(false, true)) {
+			CompletableFuture.runAsync(this::registerNodes, REGISTER_EXECUTOR);
+		}
+	}
+
+	private void registerNodes() {
+		isRegistrationScheduled.set(false);
+		List<NodeId> opcNodeIdList = new ArrayList<>();
+		NodeId opcNodeId;
+		while ((opcNodeId = nodeIdsToRegister.poll()) != null) {
+			opcNodeIdList.add(opcNodeId);
+		}
+		if (opcNodeIdList.isEmpty() || isStopped) {
+			return;
+		}
+		NodeId registeringSessionId = opcSessionId;
+		int chunkSize = client.getChunkSize(Limit.MAX_NODES_PER_REGISTER_NODES);
+		for (int start = 0; start < opcNodeIdList.size(); start += chunkSize) {
+			List<NodeId> chunk = opcNodeIdList.subList(start, Math.min(start + chunkSize, opcNodeIdList.size()));
+			long startNanos = System.nanoTime();
+			opcClient.registerNodes(chunk).whenComplete((opcRegisterNodesResponse, error) -> {
+				ConnectorMetrics.getInstance().recordRequest(client.getConfigurationName(), "register_nodes",
+						startNanos);
+				NodeId[] opcAliases = error == null ? opcRegisterNodesResponse.getRegisteredNodeIds() : null;
+				if (opcAliases == null || opcAliases.length != chunk.size()) {
+					failedRegistrationCount.incrementAndGet();
+					LOGGER.warn("Cannot register " + chunk.size() + " nodes of " + client.getConfigurationName()
+							+ ", using the nodes themselves. The error is "
+							+ (error != null ? error.getMessage() : "an unexpected number of registered nodes"));
+				} else if (!isStopped && Objects.equals(registeringSessionId, opcSessionId)) {
+					// Aliases of a session that was replaced in the meantime are not valid
+					for (int i = 0; i < chunk.size(); i++) {
+						aliases.put(chunk.get(i), opcAliases[i]);
+					}
+					registeredCount.addAndGet(chunk.size());
+					LOGGER.debugf("Registered {} nodes of {}", chunk.size(), client.getConfigurationName());
+				}
+				chunk.forEach(pendingNodeIds::remove);
+			});
+		}
+	}
+
+	/**
+	 * After a reconnect on the same session the aliases stay valid. A new session
+	 * does not know them, so all registered nodes are registered again.
+	 */
+	private void onSessionActivated(NodeId activatedSessionId) {
+		if (!Objects.equals(activatedSessionId, opcSessionId)) {
+			opcSessionId = activatedSessionId;
+			List<NodeId> registeredNodeIds = new ArrayList<>(aliases.keySet());
+			aliases.clear();
+			if (!registeredNodeIds.isEmpty() && !isStopped) {
+				LOGGER.info("Registering " + registeredNodeIds.size() + " nodes of " + client.getConfigurationName()
+						+ " again on the new session");
+				for (NodeId registeredNodeId : registeredNodeIds) {
+					if (pendingNodeIds.add(registeredNodeId)) {
+						nodeIdsToRegister.add(registeredNodeId);
+					}
+				}
+				scheduleRegistration();
+			}
+		}
+		isSessionActive = true;
+	}
+
+	/**
+	 * Stops handing out aliases. The registrations end with the session.
+	 */
+	public void stop() {
+		isStopped = true;
+		opcClient.removeSessionActivityListener(sessionActivityListener);
+		aliases.clear();
+		useCounts.clear();
+		nodeIdsToRegister.clear();
+	}
+
+	/**
+	 * Sets how many times a node is used before it is registered.
+	 */
+	public void setUsesBeforeRegistering(int usesBeforeRegistering) {
+		if (usesBeforeRegistering <= 0) {
+			throw new IllegalArgumentException("Uses before registering must be positive");
+		}
+		this.usesBeforeRegistering = usesBeforeRegistering;
+	}
+
+	public void setMaxRegisteredNodes(int maxRegisteredNodes) {
+		if (maxRegisteredNodes < 0) {
+			throw new IllegalArgumentException("Maximum number of registered nodes cannot be negative");
+		}
+		this.maxRegisteredNodes = maxRegisteredNodes;
+	}
+
+	public int getSize() {
+		return aliases.size();
+	}
+
+	public long getRegisteredCount() {
+		return registeredCount.get();
+	}
+
+	public long getFailedRegistrationCount() {
+		return failedRegistrationCount.get();
+	}
+}
@@ -0,0 +1,76 @@
+package opcuaconnector.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import com.mendix.core.CoreException;
+
+/**
+ * Splits a service request with many operations into chunks that each stay
+ * within the operation limit of the server. The chunks are sent concurrently,
+ * with at most a fixed number of requests in flight, and the results are put back
+ * in the order of the operations.
+ */
+public class RequestChunker {
+	private static final MxLogger LOGGER = new MxLogger(RequestChunker.class);
+
+	private RequestChunker() {
+	}
+
+	/**
+	 * @param operations         the operations of the request, in order
+	 * @param chunkSize          maximum number of operations per request
+	 * @param maxRequestsInFlight maximum number of requests sent at the same time
+	 * @param request            sends one chunk and returns the results of its
+	 *                           operations, in order
+	 * @param serviceName        used in log messages
+	 * @return the results of all operations, in the order of the operations
+	 * @throws CoreException whenever one of the requests fails
+	 */
+	public static <T, R> List<R> execute(List<T> operations, int chunkSize, int maxRequestsInFlight,
+			Function<List<T>, CompletableFuture<List<R>>> request, String serviceName) throws CoreException {
+		if (chunkSize <= 0 || maxRequestsInFlight <= 0) {
+			throw new IllegalArgumentException("Chunk size and number of requests in flight must be positive");
+		}
+		int chunkCount = (operations.size() + chunkSize - 1) / chunkSize;
+		if (chunkCount > 1) {
+			LOGGER.debugf("Splitting {} request for {} operations into {} requests of at most {} operations",
+					serviceName, operations.size(), chunkCount, chunkSize);
+		}
+		Semaphore requestsInFlight = new Semaphore(maxRequestsInFlight);
+		List<CompletableFuture<List<R>>> chunkResults = new ArrayList<>(chunkCount);
+		try {
+			for (int start = 0; start < operations.size(); start += chunkSize) {
+				requestsInFlight.acquire();
+				if (chunkResults.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+					break;
+				}
+				List<T> chunk = operations.subList(start, Math.min(start + chunkSize, operations.size()));
+				CompletableFuture<List<R>> chunkResult = request.apply(chunk);
+				chunkResult.whenComplete((results, error) -> requestsInFlight.release());
+				chunkResults.add(chunkResult);
+			}
+			List<R> results = new ArrayList<>(operations.size());
+			for (CompletableFuture<List<R>> chunkResult : chunkResults) {
+				results.addAll(chunkResult.get());
+			}
+			if (results.size() != operations.size()) {
+				throw new CoreException("The server returned " + results.size() + " results for a " + serviceName
+						+ " request with " + operations.size() + " operations");
+			}
+			return results;
+		} catch (InterruptedException e) {
+			LOGGER.error("Cannot complete the " + serviceName
+					+ " request, because the action was interrupted. The error was " + e.getMessage());
+			Thread.currentThread().interrupt();
+			throw new CoreException(e);
+		} catch (ExecutionException e) {
+			LOGGER.error("Cannot complete the " + serviceName + " request. The error was " + e.getMessage());
+			throw new CoreException(e);
+		}
+	}
+}
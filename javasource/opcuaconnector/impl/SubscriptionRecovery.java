@@ -0,0 +1,190 @@
+package opcuaconnector.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaMonitoredItem;
+import org.eclipse.milo.opcua.sdk.client.api.subscriptions.UaSubscription;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.structured.MonitoredItemCreateRequest;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+
+import opcuaconnector.impl.ClientManager.Client;
+import opcuaconnector.impl.ClientSubscriptionManager.MonitoredItemManager;
+import opcuaconnector.impl.OpcMonitoredItemServiceSet.DeliveryMode;
+
+/**
+ * Recreates a subscription that is lost on the server from the monitored item
+ * definitions that ClientSubscriptionManager keeps, without going through the
+ * Mendix model. The subscription is created with one CreateSubscription
+ * request, its monitored items with one CreateMonitoredItems request per
+ * microflow and delivery mode, split according to the operation limits of the
+ * server.
+ *
+ * The Mendix objects keep their subscription and monitored item ids, the
+ * ClientSubscriptionManager directs these ids to the new subscription and
+ * items.
+ */
+public class SubscriptionRecovery {
+	private static final MxLogger LOGGER = new MxLogger(SubscriptionRecovery.class);
+
+	private final Client client;
+
+	public SubscriptionRecovery(Client client) {
+		this.client = client;
+	}
+
+	/**
+	 * @return false if there are no monitored item definitions for the
+	 *         subscription, the caller has to recreate it in another way
+	 * @throws CoreException when the subscription or its monitored items cannot be
+	 *                       created. The new subscription is then deleted again
+	 *                       and the lost subscription is kept as it was.
+	 */
+	public boolean recreate(UInteger lostSubscriptionId) throws CoreException {
+		ClientSubscriptionManager clientSubscriptionManager = client.getClientSubscriptionManager();
+		MonitoredItemManager lostMonitoredItemManager = clientSubscriptionManager
+				.findMonitoredItemManager(lostSubscriptionId).orElse(null);
+		if (lostMonitoredItemManager == null || lostMonitoredItemManager.getMonitoredItemDefinitions().isEmpty()) {
+			return false;
+		}
+		Map<UInteger, MonitoredItemDefinition> definitions = lostMonitoredItemManager.getMonitoredItemDefinitions();
+		UaSubscription newOpcSubscription = createSubscription(lostMonitoredItemManager.getOpcSubscription());
+		MonitoredItemManager newMonitoredItemManager = clientSubscriptionManager
+				.prepareReplacement(lostMonitoredItemManager, newOpcSubscription);
+		LOGGER.info("Recreating subscription " + lostSubscriptionId + " of " + client.getConfigurationName()
+				+ " as subscription " + newOpcSubscription.getSubscriptionId() + " with " + definitions.size()
+				+ " monitored items");
+		int recreatedCount;
+		try {
+			recreatedCount = recreateMonitoredItems(lostMonitoredItemManager, newMonitoredItemManager, definitions);
+		} catch (CoreException | RuntimeException e) {
+			cancelReplacement(lostMonitoredItemManager, newMonitoredItemManager);
+			throw e;
+		}
+		clientSubscriptionManager.replaceSubscription(lostMonitoredItemManager, newMonitoredItemManager);
+		LOGGER.info("Recreated " + recreatedCount + " of " + definitions.size() + " monitored items of subscription "
+				+ lostSubscriptionId + " in subscription " + newOpcSubscription.getSubscriptionId());
+		return true;
+	}
+
+	private int recreateMonitoredItems(MonitoredItemManager lostMonitoredItemManager,
+			MonitoredItemManager newMonitoredItemManager, Map<UInteger, MonitoredItemDefinition> definitions)
+			throws CoreException {
+		ClientSubscriptionManager clientSubscriptionManager = client.getClientSubscriptionManager();
+		UaSubscription newOpcSubscription = newMonitoredItemManager.getOpcSubscription();
+		UInteger lostSubscriptionId = lostMonitoredItemManager.getOpcSubscription().getSubscriptionId();
+		OpcMonitoredItemServiceSet monitoredItemServiceSet = new OpcMonitoredItemServiceSet(client,
+				newOpcSubscription.getSubscriptionId(), Core.createSystemContext());
+		// The pending notifications were taken over, they are now delivered for the
+		// new subscription id
+		monitoredItemServiceSet.bindNotificationDelivery();
+		// The values that are pending for the lost items are still delivered. Their
+		// slots are removed before the new items are created, because the client
+		// handles of the new subscription can be the same.
+		newMonitoredItemManager.getLatestValueSlotMap()
+				.ifPresent(slotMap -> lostMonitoredItemManager.getOpcMonitoredItems()
+						.forEach(opcMonitoredItem -> slotMap.removeSlot(opcMonitoredItem.getClientHandle())));
+
+		int chunkSize = client.getChunkSize(OperationLimits.Limit.MAX_MONITORED_ITEMS_PER_CALL);
+		int recreatedCount = 0;
+		for (Entry<String, List<Entry<UInteger, MonitoredItemDefinition>>> group : groupByConsumer(definitions)
+				.entrySet()) {
+			List<Entry<UInteger, MonitoredItemDefinition>> groupDefinitions = group.getValue();
+			MonitoredItemDefinition firstDefinition = groupDefinitions.get(0).getValue();
+			for (int start = 0; start < groupDefinitions.size(); start += chunkSize) {
+				List<Entry<UInteger, MonitoredItemDefinition>> chunk = groupDefinitions.subList(start,
+						Math.min(start + chunkSize, groupDefinitions.size()));
+				List<MonitoredItemCreateRequest> opcCreateRequestList = new ArrayList<>();
+				for (Entry<UInteger, MonitoredItemDefinition> definition : chunk) {
+					opcCreateRequestList
+							.add(definition.getValue().toCreateRequest(newOpcSubscription.nextClientHandle()));
+				}
+				List<UaMonitoredItem> opcMonitoredItemList = monitoredItemServiceSet.opcCreateMonitoredItems(
+						opcCreateRequestList, firstDefinition.getMicroflowName(), firstDefinition.getDeliveryMode());
+				for (int i = 0; i < opcMonitoredItemList.size(); i++) {
+					UaMonitoredItem opcMonitoredItem = opcMonitoredItemList.get(i);
+					if (opcMonitoredItem.getStatusCode().isGood()) {
+						clientSubscriptionManager.addMonitoredItem(newOpcSubscription, opcMonitoredItem);
+						newMonitoredItemManager.replaceMonitoredItemId(lostMonitoredItemManager, chunk.get(i).getKey(),
+								opcMonitoredItem.getMonitoredItemId());
+						recreatedCount++;
+					} else {
+						LOGGER.warn("Cannot recreate monitored item " + chunk.get(i).getKey() + " of subscription "
+								+ lostSubscriptionId + " because " + opcMonitoredItem.getStatusCode());
+					}
+				}
+			}
+		}
+		return recreatedCount;
+	}
+
+	/**
+	 * Undoes a replacement whose monitored items could not be created: the lost
+	 * subscription gets its pending notifications back and the new subscription is
+	 * deleted on the server, so the caller can recreate it in another way without
+	 * a second subscription delivering the same values.
+	 */
+	private void cancelReplacement(MonitoredItemManager lostMonitoredItemManager,
+			MonitoredItemManager newMonitoredItemManager) {
+		UaSubscription newOpcSubscription = newMonitoredItemManager.getOpcSubscription();
+		client.getClientSubscriptionManager().cancelReplacement(lostMonitoredItemManager, newMonitoredItemManager);
+		try {
+			new OpcMonitoredItemServiceSet(client, lostMonitoredItemManager.getOpcSubscription().getSubscriptionId(),
+					Core.createSystemContext()).bindNotificationDelivery();
+		} catch (CoreException e) {
+			LOGGER.warn("Cannot deliver the pending notifications of subscription "
+					+ lostMonitoredItemManager.getOpcSubscription().getSubscriptionId() + " again because "
+					+ e.getMessage());
+		}
+		client.getUaClient().getSubscriptionManager().deleteSubscription(newOpcSubscription.getSubscriptionId())
+				.whenComplete((deletedSubscription, error) -> {
+					if (error != null) {
+						LOGGER.warn("Cannot delete the partly recreated subscription "
+								+ newOpcSubscription.getSubscriptionId() + " of " + client.getConfigurationName()
+								+ " because " + error.getMessage());
+					}
+				});
+	}
+
+	private UaSubscription createSubscription(UaSubscription lostOpcSubscription) throws CoreException {
+		try {
+			return client.getUaClient().getSubscriptionManager()
+					.createSubscription(lostOpcSubscription.getRequestedPublishingInterval(),
+							lostOpcSubscription.getRequestedLifetimeCount(),
+							lostOpcSubscription.getRequestedMaxKeepAliveCount(),
+							lostOpcSubscription.getMaxNotificationsPerPublish(),
+							lostOpcSubscription.isPublishingEnabled(), lostOpcSubscription.getPriority())
+					.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.error("Cannot recreate subscription " + lostOpcSubscription.getSubscriptionId()
+					+ " because the thread was interrupted. The error is " + e);
+			throw new CoreException(e);
+		} catch (ExecutionException e) {
+			LOGGER.error("Cannot recreate subscription " + lostOpcSubscription.getSubscriptionId() + " because " + e);
+			throw new CoreException(e);
+		}
+	}
+
+	/**
+	 * Groups the definitions per microflow and delivery mode, because these are
+	 * shared by all items of a CreateMonitoredItems request.
+	 */
+	private static Map<String, List<Entry<UInteger, MonitoredItemDefinition>>> groupByConsumer(
+			Map<UInteger, MonitoredItemDefinition> definitions) {
+		Map<String, List<Entry<UInteger, MonitoredItemDefinition>>> groups = new LinkedHashMap<>();
+		for (Entry<UInteger, MonitoredItemDefinition> definition : definitions.entrySet()) {
+			DeliveryMode deliveryMode = definition.getValue().getDeliveryMode();
+			groups.computeIfAbsent(definition.getValue().getMicroflowName() + "|" + deliveryMode,
+					key -> new ArrayList<>()).add(definition);
+		}
+		return groups;
+	}
+}
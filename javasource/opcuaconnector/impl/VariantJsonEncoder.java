@@ -0,0 +1,259 @@
+package opcuaconnector.impl;
+
+import java.lang.reflect.Array;
+import java.util.UUID;
+
+import org.eclipse.milo.opcua.stack.core.types.builtin.ByteString;
+import org.eclipse.milo.opcua.stack.core.types.builtin.DateTime;
+import org.eclipse.milo.opcua.stack.core.types.builtin.ExpandedNodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.LocalizedText;
+import org.eclipse.milo.opcua.stack.core.types.builtin.NodeId;
+import org.eclipse.milo.opcua.stack.core.types.builtin.QualifiedName;
+import org.eclipse.milo.opcua.stack.core.types.builtin.StatusCode;
+import org.eclipse.milo.opcua.stack.core.types.builtin.Variant;
+import org.eclipse.milo.opcua.stack.core.types.builtin.XmlElement;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UByte;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UInteger;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.ULong;
+import org.eclipse.milo.opcua.stack.core.types.builtin.unsigned.UShort;
+
+import com.google.gson.Gson;
+
+/**
+ * Serializes a Variant to the same JSON that Gson produces for it, without
+ * reflection. The built-in scalar types and arrays of them are written directly
+ * into a buffer that is reused per thread. Values this encoder does not know,
+ * such as extension objects, and values Gson rejects, such as NaN, are handed to
+ * a shared Gson instance so the output and the errors stay exactly the same.
+ */
+public final class VariantJsonEncoder {
+	private static final Gson GSON = new Gson();
+	private static final int INITIAL_BUFFER_CAPACITY = 256;
+	private static final int MAX_RETAINED_BUFFER_CAPACITY = 64 * 1024;
+	private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal
+			.withInitial(() -> new StringBuilder(INITIAL_BUFFER_CAPACITY));
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private VariantJsonEncoder() {
+	}
+
+	public static String encode(Variant opcVariant) {
+		if (opcVariant == null) {
+			return "null";
+		}
+		StringBuilder buffer = BUFFER.get();
+		buffer.setLength(0);
+		try {
+			Object value = opcVariant.getValue();
+			if (value == null) {
+				return "{}";
+			}
+			buffer.append("{\"value\":");
+			if (!writeValue(buffer, value)) {
+				return GSON.toJson(opcVariant);
+			}
+			return buffer.append('}').toString();
+		} finally {
+			if (buffer.capacity() > MAX_RETAINED_BUFFER_CAPACITY) {
+				BUFFER.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return false if the value contains a type that has to be serialized by Gson
+	 */
+	private static boolean writeValue(StringBuilder buffer, Object value) {
+		if (value instanceof String) {
+			writeString(buffer, (String) value);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short
+				|| value instanceof Byte || value instanceof Boolean) {
+			buffer.append(value);
+		} else if (value instanceof Double) {
+			double doubleValue = (Double) value;
+			if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+				return false;
+			}
+			buffer.append(doubleValue);
+		} else if (value instanceof Float) {
+			float floatValue = (Float) value;
+			if (Float.isNaN(floatValue) || Float.isInfinite(floatValue)) {
+				return false;
+			}
+			buffer.append(floatValue);
+		} else if (value instanceof UInteger || value instanceof UShort || value instanceof UByte) {
+			writeWrappedNumber(buffer, ((Number) value).longValue());
+		} else if (value instanceof ULong) {
+			// Gson writes the signed field that backs the unsigned value
+			writeWrappedNumber(buffer, ((ULong) value).longValue());
+		} else if (value instanceof StatusCode) {
+			writeWrappedNumber(buffer, ((StatusCode) value).getValue());
+		} else if (value instanceof DateTime) {
+			buffer.append("{\"utcTime\":").append(((DateTime) value).getUtcTime()).append('}');
+		} else if (value instanceof UUID) {
+			writeString(buffer, value.toString());
+		} else if (value instanceof ByteString) {
+			writeByteString(buffer, (ByteString) value);
+		} else if (value instanceof XmlElement) {
+			buffer.append('{');
+			writeOptionalStringField(buffer, "fragment", ((XmlElement) value).getFragment(), true);
+			buffer.append('}');
+		} else if (value instanceof NodeId) {
+			NodeId nodeId = (NodeId) value;
+			buffer.append("{\"namespaceIndex\":");
+			writeWrappedNumber(buffer, nodeId.getNamespaceIndex().longValue());
+			buffer.append(",\"identifier\":");
+			if (!writeValue(buffer, nodeId.getIdentifier())) {
+				return false;
+			}
+			buffer.append('}');
+		} else if (value instanceof ExpandedNodeId) {
+			return writeExpandedNodeId(buffer, (ExpandedNodeId) value);
+		} else if (value instanceof QualifiedName) {
+			QualifiedName qualifiedName = (QualifiedName) value;
+			buffer.append("{\"namespaceIndex\":");
+			writeWrappedNumber(buffer, qualifiedName.getNamespaceIndex().longValue());
+			writeOptionalStringField(buffer, "name", qualifiedName.getName(), false);
+			buffer.append('}');
+		} else if (value instanceof LocalizedText) {
+			LocalizedText localizedText = (LocalizedText) value;
+			buffer.append('{');
+			boolean isFirst = writeOptionalStringField(buffer, "locale", localizedText.getLocale(), true);
+			writeOptionalStringField(buffer, "text", localizedText.getText(), isFirst);
+			buffer.append('}');
+		} else if (value.getClass().isArray()) {
+			return writeArray(buffer, value);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean writeArray(StringBuilder buffer, Object array) {
+		if (array instanceof char[]) {
+			return false;
+		}
+		buffer.append('[');
+		int length = Array.getLength(array);
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				buffer.append(',');
+			}
+			Object element = Array.get(array, i);
+			if (element == null) {
+				buffer.append("null");
+			} else if (!writeValue(buffer, element)) {
+				return false;
+			}
+		}
+		buffer.append(']');
+		return true;
+	}
+
+	private static boolean writeExpandedNodeId(StringBuilder buffer, ExpandedNodeId expandedNodeId) {
+		buffer.append("{\"namespaceIndex\":");
+		writeWrappedNumber(buffer, expandedNodeId.getNamespaceIndex().longValue());
+		buffer.append(",\"identifier\":");
+		if (!writeValue(buffer, expandedNodeId.getIdentifier())) {
+			return false;
+		}
+		writeOptionalStringField(buffer, "namespaceUri", expandedNodeId.getNamespaceUri(), false);
+		buffer.append(",\"serverIndex\":");
+		writeWrappedNumber(buffer, expandedNodeId.getServerIndex().longValue());
+		buffer.append('}');
+		return true;
+	}
+
+	private static void writeByteString(StringBuilder buffer, ByteString byteString) {
+		byte[] bytes = byteString.bytes();
+		if (bytes == null) {
+			buffer.append("{}");
+			return;
+		}
+		buffer.append("{\"bytes\":[");
+		for (int i = 0; i < bytes.length; i++) {
+			if (i > 0) {
+				buffer.append(',');
+			}
+			buffer.append(bytes[i]);
+		}
+		buffer.append("]}");
+	}
+
+	private static void writeWrappedNumber(StringBuilder buffer, long value) {
+		buffer.append("{\"value\":").append(value).append('}');
+	}
+
+	/**
+	 * Gson leaves out fields that are null.
+	 *
+	 * @return true if nothing was written and the next field is still the first one
+	 */
+	private static boolean writeOptionalStringField(StringBuilder buffer, String fieldName, String value,
+			boolean isFirst) {
+		if (value == null) {
+			return isFirst;
+		}
+		if (!isFirst) {
+			buffer.append(',');
+		}
+		buffer.append('"').append(fieldName).append("\":");
+		writeString(buffer, value);
+		return false;
+	}
+
+	/**
+	 * Writes a string with the escaping of Gson's default HTML safe writer.
+	 */
+	private static void writeString(StringBuilder buffer, String value) {
+		buffer.append('"');
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				buffer.append("\\\"");
+				break;
+			case '\\':
+				buffer.append("\\\\");
+				break;
+			case '\t':
+				buffer.append("\\t");
+				break;
+			case '\b':
+				buffer.append("\\b");
+				break;
+			case '\n':
+				buffer.append("\\n");
+				break;
+			case '\r':
+				buffer.append("\\r");
+				break;
+			case '\f':
+				buffer.append("\\f");
+				break;
+			case '<':
+			case '>':
+			case '&':
+			case '=':
+			case '\'':
+			case '\u2028':
+			case '\u2029':
+				writeUnicodeEscape(buffer, c);
+				break;
+			default:
+				if (c < 0x20) {
+					writeUnicodeEscape(buffer, c);
+				} else {
+					buffer.append(c);
+				}
+			}
+		}
+		buffer.append('"');
+	}
+
+	private static void writeUnicodeEscape(StringBuilder buffer, char c) {
+		buffer.append("\\u").append(HEX_DIGITS[(c >> 12) & 0xF]).append(HEX_DIGITS[(c >> 8) & 0xF])
+				.append(HEX_DIGITS[(c >> 4) & 0xF]).append(HEX_DIGITS[c & 0xF]);
+	}
+}